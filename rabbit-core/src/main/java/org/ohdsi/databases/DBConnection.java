@@ -23,10 +23,14 @@ import org.ohdsi.utilities.files.Row;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 /*
  * DBConnection is a wrapper for java.sql.Connection
@@ -44,10 +48,34 @@ import java.util.List;
 public class DBConnection {
     Logger logger = LoggerFactory.getLogger(DBConnection.class);
 
+    public static final int DEFAULT_FETCH_SIZE = 10000;
+
+    /**
+     * Scans the rows of a query result, see {@link #scanRowsFromTable(String, long, ScanParameters, SampleScanner)}.
+     */
+    public interface SampleScanner {
+        /**
+         * Scan all rows of the query result, replacing the results of any earlier scan.
+         * @return the number of rows scanned
+         */
+        long scan(QueryResult queryResult) throws InterruptedException;
+    }
+    // Sampling a fraction of the rows gives a varying number of rows, so a few standard deviations more are sampled,
+    // and the rows beyond the sample size are left out. The rows are returned in table order, so a larger margin
+    // would leave out the end of the table more often.
+    static final double SAMPLE_MARGIN_STANDARD_DEVIATIONS = 3;
+    // BigQuery samples whole data blocks, and does not report their size. The number of sampled rows varies with the
+    // number of rows per block, so the margin is sized for blocks of this many rows.
+    static final long BIGQUERY_ROWS_PER_BLOCK = 10000;
+
     private final Connection connection;
     private final DbType dbType;
     private boolean verbose;
     private final JdbcStorageHandler connectorInterface;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    // Number of queries reading through a cursor, and whether auto-commit was switched off for them
+    private int cursorQueries = 0;
+    private boolean autoCommitSuspended = false;
     private static DecimalFormat decimalFormat		= new DecimalFormat("#.#");
 
 
@@ -91,6 +119,73 @@ public class DBConnection {
         return this.connection.createStatement(typeForwardOnly, concurReadOnly);
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param fetchSize the number of rows fetched from the database at a time by queries, or 0 to use the default of
+     *                  the JDBC driver
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = Math.max(0, fetchSize);
+    }
+
+    /**
+     * Creates a statement for a query that may return many rows. Where the JDBC driver would otherwise load the whole
+     * result into memory, or fetch it a few rows at a time, the statement fetches the rows in chunks of the fetch size.
+     * {@link #endQuery()} should be called when the result has been read.
+     */
+    public Statement createQueryStatement() throws SQLException {
+        Statement statement = createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (fetchSize == 0 || hasStorageHandler()) {
+            return statement;
+        }
+        switch (dbType) {
+            case POSTGRESQL:
+            case REDSHIFT:
+                // The driver only uses a cursor, instead of reading all rows, inside a transaction
+                statement.setFetchSize(fetchSize);
+                if (cursorQueries == 0 && connection.getAutoCommit()) {
+                    connection.setAutoCommit(false);
+                    autoCommitSuspended = true;
+                }
+                cursorQueries++;
+                break;
+            case MYSQL:
+                // The connection is opened with useCursorFetch=true, so this reads the rows through a server side cursor
+            case ORACLE:
+            case SQL_SERVER:
+            case PDW:
+            case AZURE:
+                statement.setFetchSize(fetchSize);
+                break;
+            default:
+                break;
+        }
+        return statement;
+    }
+
+    /**
+     * Ends the transaction that {@link #createQueryStatement()} may have started to read through a cursor, once no
+     * other query is reading through a cursor anymore.
+     */
+    public void endQuery() {
+        if (cursorQueries > 0) {
+            cursorQueries--;
+        }
+        if (cursorQueries == 0 && autoCommitSuspended) {
+            try {
+                // Nothing was changed
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                logger.warn("Could not end the query transaction: {}", e.getMessage());
+            }
+            autoCommitSuspended = false;
+        }
+    }
+
     public DatabaseMetaData getMetaData() throws SQLException {
         return this.connection.getMetaData();
     }
@@ -276,17 +371,12 @@ public class DBConnection {
         if (dbType.supportsStorageHandler()) {
             query = dbType.getStorageHandler().getRowSampleQuery(table, rowCount, sampleSize);
         } else if (sampleSize == -1) {
-            if (dbType == DbType.MS_ACCESS)
-                query = "SELECT * FROM [" + table + "]";
-            else if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE)
-                query = "SELECT * FROM [" + table.replaceAll("\\.", "].[") + "]";
-            else
-                query = "SELECT * FROM " + table;
+            query = "SELECT * FROM " + getTableReference(table);
         } else {
             if (dbType == DbType.SQL_SERVER || dbType == DbType.AZURE)
                 query = "SELECT * FROM [" + table.replaceAll("\\.", "].[") + "] TABLESAMPLE (" + sampleSize + " ROWS)";
             else if (dbType == DbType.MYSQL)
-                query = "SELECT * FROM " + table + " ORDER BY RAND() LIMIT " + sampleSize;
+                query = getRandomFilterSampleQuery(table, "RAND()", rowCount, sampleSize);
             else if (dbType == DbType.PDW)
                 query = "SELECT TOP " + sampleSize + " * FROM [" + table.replaceAll("\\.", "].[") + "] ORDER BY RAND()";
             else if (dbType == DbType.ORACLE) {
@@ -297,14 +387,16 @@ public class DBConnection {
                 } else {
                     query = "SELECT * FROM " + table;
                 }
-            } else if (dbType == DbType.POSTGRESQL || dbType == DbType.REDSHIFT) {
-                query = "SELECT * FROM " + table + " ORDER BY RANDOM() LIMIT " + sampleSize;
+            } else if (dbType == DbType.POSTGRESQL) {
+                query = getTableSampleQuery(table, "TABLESAMPLE BERNOULLI (%s)", 1, rowCount, sampleSize);
+            } else if (dbType == DbType.REDSHIFT) {
+                query = getRandomFilterSampleQuery(table, "RANDOM()", rowCount, sampleSize);
             }
             else if (dbType == DbType.MS_ACCESS) {
                 query = "SELECT " + "TOP " + sampleSize + " * FROM [" + table + "]";
             }
             else if (dbType == DbType.BIGQUERY) {
-                query = "SELECT * FROM " + table + " ORDER BY RAND() LIMIT " + sampleSize;
+                query = getTableSampleQuery(table, "TABLESAMPLE SYSTEM (%s PERCENT)", BIGQUERY_ROWS_PER_BLOCK, rowCount, sampleSize);
             }
         }
 
@@ -316,6 +408,229 @@ public class DBConnection {
         return createQueryResult(query);
     }
 
+    /**
+     * Scan the rows fetched with {@link #fetchRowsFromTable(String, long, ScanParameters)}. A sample of a fraction of
+     * the rows varies in size, so it may come back with fewer rows than the sample size. If the database has a random
+     * function, the table is then sampled again, row by row over a full scan, and scanned again from the start.
+     * Otherwise the short sample is kept, as sampling again in the same way would not give a better sample.
+     */
+    public void scanRowsFromTable(String table, long rowCount, ScanParameters scanParameters, SampleScanner scanner) throws InterruptedException {
+        int sampleSize = scanParameters.getSampleSize();
+        QueryResult queryResult = fetchRowsFromTable(table, rowCount, scanParameters);
+        if (sampleSize == -1 || sampleSize >= rowCount) {
+            try {
+                scanner.scan(queryResult);
+            } finally {
+                queryResult.close();
+            }
+        } else {
+            String randomFunction = getRandomFunction();
+            Supplier<QueryResult> fallback = randomFunction == null ? null :
+                    () -> createQueryResult(getRandomFilterSampleQuery(table, randomFunction, rowCount, sampleSize));
+            scanSample(table, queryResult, fallback, sampleSize, scanner);
+        }
+    }
+
+    /**
+     * @param fallback query over all rows for when the sample comes back short, or null to keep a short sample
+     */
+    void scanSample(String table, QueryResult sample, Supplier<QueryResult> fallback, long sampleSize, SampleScanner scanner) throws InterruptedException {
+        long nRows;
+        try {
+            nRows = scanner.scan(sample);
+        } finally {
+            sample.close();
+        }
+        if (nRows < sampleSize && fallback == null) {
+            logger.info("The sample of table {} has {} rows instead of {}", table, nRows, sampleSize);
+        } else if (nRows < sampleSize) {
+            logger.warn("The sample of table {} has {} rows instead of {}, sampling it again from a full scan", table, nRows, sampleSize);
+            QueryResult queryResult = fallback.get();
+            try {
+                scanner.scan(queryResult);
+            } finally {
+                queryResult.close();
+            }
+        }
+    }
+
+    /**
+     * @return the function that gives a random number between 0 and 1 for a random filter over all rows, or null if
+     * no random filter is used for the database
+     */
+    private String getRandomFunction() {
+        switch (dbType) {
+            case MYSQL: case BIGQUERY:
+                return "RAND()";
+            case POSTGRESQL: case REDSHIFT:
+                return "RANDOM()";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Samples with the TABLESAMPLE clause of the database, instead of all rows being sorted in a random order. A
+     * clause that samples blocks of rows only reads the sampled blocks, but the rows of a block are stored together,
+     * so they are less independent than a sample of single rows, and the number of rows varies more.
+     * @param sampleClause clause with a placeholder for the percentage of the table to sample
+     * @param rowsPerBlock number of rows sampled together, 1 for a clause that samples single rows
+     */
+    static String getTableSampleQuery(String table, String sampleClause, long rowsPerBlock, long rowCount, long sampleSize) {
+        if (sampleSize >= rowCount) {
+            return "SELECT * FROM " + table;
+        }
+        String percentage = formatSampleFraction(100 * getSampleFraction(rowCount, sampleSize, rowsPerBlock));
+        return "SELECT * FROM " + table + " " + String.format(sampleClause, percentage) + " LIMIT " + sampleSize;
+    }
+
+    /**
+     * Samples rows with a random filter, for databases without a TABLESAMPLE clause. All rows are still read, but
+     * not sorted, and the scan stops once the sample is complete.
+     */
+    static String getRandomFilterSampleQuery(String table, String randomFunction, long rowCount, long sampleSize) {
+        if (sampleSize >= rowCount) {
+            return "SELECT * FROM " + table;
+        }
+        String fraction = formatSampleFraction(getSampleFraction(rowCount, sampleSize, 1));
+        return "SELECT * FROM " + table + " WHERE " + randomFunction + " < " + fraction + " LIMIT " + sampleSize;
+    }
+
+    private static double getSampleFraction(long rowCount, long sampleSize, long rowsPerBlock) {
+        // The number of sampled blocks is binomial, so the standard deviation of the number of rows is about the
+        // square root of the sample size times the rows per block
+        double margin = SAMPLE_MARGIN_STANDARD_DEVIATIONS * Math.sqrt((double) sampleSize * rowsPerBlock);
+        return Math.min(1.0, (sampleSize + margin) / rowCount);
+    }
+
+    private static String formatSampleFraction(double fraction) {
+        // Rounded up, and without an exponent, which not all databases accept in a sample clause
+        return BigDecimal.valueOf(fraction).round(new MathContext(4, RoundingMode.CEILING)).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Fetch all rows of one partition of a table. See {@link #createTablePartitions(String, List, int)}.
+     */
+    public QueryResult fetchRowsFromTable(String table, TablePartition partition) {
+        return createQueryResult("SELECT * FROM " + getTableReference(table) + " WHERE " + getPartitionPredicate(partition));
+    }
+
+    public boolean supportsPushDownProfiling() {
+        return PushDownProfiler.isSupported(dbType);
+    }
+
+    /**
+     * Profile the fields of a table with aggregate queries over all its rows, instead of fetching the rows. See
+     * {@link PushDownProfiler}.
+     */
+    public void profileTable(String table, List<FieldInfo> fieldInfos, ScanParameters scanParameters) {
+        new PushDownProfiler(this, dbType).profile(table, fieldInfos, scanParameters);
+    }
+
+    /**
+     * Split a table into partitions that can be fetched concurrently, each over its own connection. The first field
+     * with an integer type is used as key. The key range between its minimum and maximum is split into ranges of
+     * equal width, so that each partition can use an index on the key if there is one. If the minimum and maximum
+     * cannot be determined, the rows are split on the key modulo the number of partitions instead.
+     *
+     * @return the partitions, or an empty list if the table has no suitable key or cannot be partitioned for this
+     * type of database.
+     */
+    public List<TablePartition> createTablePartitions(String table, List<FieldInfo> fieldInfos, int count) {
+        if (hasStorageHandler() || dbType == DbType.MS_ACCESS || count < 2) {
+            return new ArrayList<>();
+        }
+        String column = null;
+        for (FieldInfo fieldInfo : fieldInfos) {
+            if (TablePartition.isPartitionKeyType(fieldInfo.type)) {
+                column = fieldInfo.name;
+                break;
+            }
+        }
+        if (column == null) {
+            return new ArrayList<>();
+        }
+
+        String key = quoteIdentifier(dbType, column);
+        String query = "SELECT MIN(" + key + "), MAX(" + key + ") FROM " + getTableReference(table);
+        QueryResult queryResult = null;
+        try {
+            queryResult = createQueryResult(query);
+            List<String> cells = queryResult.iterator().next().getCells();
+            if (StringUtils.isEmpty(cells.get(0)) || StringUtils.isEmpty(cells.get(1))) {
+                // Only NULL keys (or no rows at all), partitioning is pointless
+                return new ArrayList<>();
+            }
+            long minimum = (long) Math.floor(Double.parseDouble(cells.get(0)));
+            long maximum = (long) Math.ceil(Double.parseDouble(cells.get(1)));
+            return TablePartition.byRange(column, minimum, maximum, count);
+        } catch (Exception e) {
+            logger.warn("Could not determine the range of " + column + " in " + table + ", partitioning on modulo instead: " + e.getMessage());
+            return TablePartition.byModulo(column, count);
+        } finally {
+            if (queryResult != null) {
+                queryResult.close();
+            }
+        }
+    }
+
+    private String getPartitionPredicate(TablePartition partition) {
+        String column = quoteIdentifier(dbType, partition.getColumn());
+        String predicate;
+        if (partition.isRange()) {
+            List<String> conditions = new ArrayList<>();
+            if (partition.getLowerBound() != null)
+                conditions.add(column + " >= " + partition.getLowerBound());
+            if (partition.getUpperBound() != null)
+                conditions.add(column + " < " + partition.getUpperBound());
+            predicate = String.join(" AND ", conditions);
+        } else {
+            String modulo;
+            if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE)
+                modulo = column + " % " + partition.getCount();
+            else if (dbType == DbType.TERADATA)
+                modulo = column + " MOD " + partition.getCount();
+            else
+                modulo = "MOD(" + column + ", " + partition.getCount() + ")";
+            predicate = "ABS(" + modulo + ") = " + partition.getIndex();
+        }
+        if (partition.getIndex() == 0) {
+            predicate = "(" + predicate + ") OR " + column + " IS NULL";
+        }
+        return predicate;
+    }
+
+    /**
+     * @return the name of a column quoted for the type of database, so that names that are reserved words, contain
+     * spaces or differ in case from how the database folds unquoted names can be used in queries. The name should be
+     * as the database reports it.
+     */
+    static String quoteIdentifier(DbType dbType, String name) {
+        switch (dbType) {
+            case SQL_SERVER:
+            case PDW:
+            case AZURE:
+            case MS_ACCESS:
+                return "[" + name.replace("]", "]]") + "]";
+            case MYSQL:
+            case BIGQUERY:
+            case DATABRICKS:
+                return "`" + name.replace("`", "``") + "`";
+            default:
+                return "\"" + name.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+    String getTableReference(String table) {
+        if (hasStorageHandler())
+            return getStorageHandler().getTableReference(table);
+        else if (dbType == DbType.MS_ACCESS)
+            return "[" + table + "]";
+        else if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE)
+            return "[" + table.replaceAll("\\.", "].[") + "]";
+        else
+            return table;
+    }
 
     private List<String> getTableNamesClassic(String database) {
         List<String> names = new ArrayList<>();
@@ -27,22 +27,27 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 class DBRowIterator implements Iterator<Row> {
     static Logger logger = LoggerFactory.getLogger(DBRowIterator.class);
 
+    private DBConnection dbConnection;
+    private Statement statement;
     private ResultSet resultSet;
 
     private boolean hasNext;
 
-    private Set<String> columnNames = new HashSet<>();
+    // The layout of the result, looked up once. Only the first of columns with the same name is included in rows
+    private String[] columnNames;
+    private boolean[] duplicateColumns;
 
     public DBRowIterator(String sql, RichConnection richConnection) {
         new DBRowIterator(sql, richConnection.getConnection(), richConnection.isVerbose());
     }
     public DBRowIterator(String sql, DBConnection dbConnection, boolean verbose) {
-        Statement statement;
+        this.dbConnection = dbConnection;
         try {
             sql.trim();
             if (sql.endsWith(";"))
@@ -54,17 +59,32 @@ class DBRowIterator implements Iterator<Row> {
                 logger.info("Executing query: {}", abbrSQL);
             }
             long start = System.currentTimeMillis();
-            statement = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement = dbConnection.createQueryStatement();
             resultSet = statement.executeQuery(sql);
+            readColumnNames(resultSet.getMetaData());
             hasNext = resultSet.next();
             if (verbose)
                 dbConnection.outputQueryStats(statement, System.currentTimeMillis() - start);
+            if (!hasNext) {
+                close();
+            }
         } catch (SQLException e) {
             logger.error(sql, e.getMessage());
+            close();
             throw new RuntimeException(e);
         }
     }
 
+    private void readColumnNames(ResultSetMetaData metaData) throws SQLException {
+        columnNames = new String[metaData.getColumnCount()];
+        duplicateColumns = new boolean[columnNames.length];
+        Set<String> uniqueNames = new HashSet<>();
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+            duplicateColumns[i] = !uniqueNames.add(columnNames[i]);
+        }
+    }
+
     public void close() {
         if (resultSet != null) {
             try {
@@ -75,6 +95,16 @@ class DBRowIterator implements Iterator<Row> {
             resultSet = null;
             hasNext = false;
         }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // The query itself is done, so only the cursor query below still needs to be ended
+                logger.warn("Could not close statement: {}", e.getMessage());
+            }
+            statement = null;
+            dbConnection.endQuery();
+        }
     }
 
     @Override
@@ -86,30 +116,12 @@ class DBRowIterator implements Iterator<Row> {
     public Row next() {
         try {
             Row row = new Row();
-            ResultSetMetaData metaData;
-            metaData = resultSet.getMetaData();
-            columnNames.clear();
-
-            for (int i = 1; i < metaData.getColumnCount() + 1; i++) {
-                String columnName = metaData.getColumnName(i);
-                if (columnNames.add(columnName)) {
-                    String value;
-                    try {
-                        value = resultSet.getString(i);
-                    } catch (Exception e) {
-                        value = "";
-                    }
-                    if (value == null)
-                        value = "";
-
-                    row.add(columnName, value.replace(" 00:00:00", ""));
+            for (int i = 0; i < columnNames.length; i++) {
+                if (!duplicateColumns[i]) {
+                    row.add(columnNames[i], getValue(i));
                 }
             }
-            hasNext = resultSet.next();
-            if (!hasNext) {
-                resultSet.close();
-                resultSet = null;
-            }
+            moveToNextRow();
             return row;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -117,6 +129,70 @@ class DBRowIterator implements Iterator<Row> {
         }
     }
 
+    /**
+     * @return the indexes of the columns with the given names, as used by {@link #readBatch}
+     */
+    int[] findColumns(List<String> names) {
+        int[] columns = new int[names.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = -1;
+            for (int column = 0; column < columnNames.length && columns[i] == -1; column++) {
+                if (columnNames[column].equals(names.get(i))) {
+                    columns[i] = column;
+                }
+            }
+            if (columns[i] == -1) {
+                throw new RuntimeException("Field \"" + names.get(i) + "\" not found");
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Adds the values of the next rows to a batch, until the batch is full or no rows are left.
+     * @param columns the index of the column for each column of the batch, as returned by {@link #findColumns}
+     * @param maxRows maximum number of rows to add
+     * @return the number of rows added
+     */
+    int readBatch(RowBatch batch, int[] columns, int maxRows) {
+        int count = 0;
+        try {
+            while (hasNext && count < maxRows && !batch.isFull()) {
+                for (int i = 0; i < columns.length; i++) {
+                    batch.set(i, getValue(columns[i]));
+                }
+                batch.endRow();
+                count++;
+                moveToNextRow();
+            }
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException("Fetching rows failed", e);
+        }
+        return count;
+    }
+
+    private String getValue(int column) {
+        String value;
+        try {
+            value = resultSet.getString(column + 1);
+        } catch (Exception e) {
+            value = "";
+        }
+        if (value == null) {
+            return "";
+        }
+        // Only look for a time of midnight where it can be, to not create a new string for every other value
+        return value.indexOf(" 00:00:00") == -1 ? value : value.replace(" 00:00:00", "");
+    }
+
+    private void moveToNextRow() throws SQLException {
+        hasNext = resultSet.next();
+        if (!hasNext) {
+            close();
+        }
+    }
+
     @Override
     public void remove() {
     }
@@ -280,6 +280,11 @@ public enum DatabricksHandler implements JdbcStorageHandler {
         }*/
     }
 
+    @Override
+    public String getTableReference(String tableName) {
+        return resolveTableName(tableName);
+    }
+
     private String resolveTableName(String tableName) {
         String resolvedTableName = String.format("%s.%s.%s", configuration.getValue(DATABRICKS_CATALOG), configuration.getValue(DATABRICKS_SCHEMA), tableName);
         return resolvedTableName;
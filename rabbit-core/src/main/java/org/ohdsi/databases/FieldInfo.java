@@ -17,24 +17,46 @@
  ******************************************************************************/
 package org.ohdsi.databases;
 
-import org.ohdsi.utilities.DateUtilities;
 import org.ohdsi.utilities.StringUtilities;
+import org.ohdsi.utilities.ValueClassifier;
+import org.ohdsi.utilities.collections.CompactCountingSet;
 import org.ohdsi.utilities.collections.CountingSet;
+import org.ohdsi.utilities.collections.FingerprintCountingSet;
+import org.ohdsi.utilities.collections.LongCountingSet;
 import org.ohdsi.utilities.collections.Pair;
+import org.ohdsi.utilities.collections.SpaceSavingSet;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 public class FieldInfo {
+    // Number of values after which the size of a field is estimated again for the heap budget
+    private static final int HEAP_BUDGET_CHECK_INTERVAL = 4096;
+    // Rough sizes in bytes, for the estimate of the heap budget: a String without its characters, a key in a HashMap
+    // with its Count, a key in a CompactCountingSet, a counted long, and a sketch of distinct values
+    private static final int STRING_BYTES = 40;
+    private static final int HASH_ENTRY_BYTES = 56;
+    private static final int COMPACT_ENTRY_BYTES = 16;
+    private static final int LONG_ENTRY_BYTES = 20;
+    private static final int DISTINCT_VALUES_SKETCH_BYTES = 1 << HyperLogLog.DEFAULT_PRECISION;
+
     private final ScanParameters scanParameters;
+    private final HeapBudget heapBudget;
+    private final ValueClassifier valueClassifier = new ValueClassifier();
     public String type;
     public String name;
     public String label;
-    public CountingSet<String> valueCounts = new CountingSet<>();
+    public CountingSet<String> valueCounts;
+    /** Counts of the values written as plain integers, kept apart from valueCounts while the field is integer */
+    private LongCountingSet integerValueCounts;
     public long sumLength = 0;
     public int maxLength = 0;
     public long nProcessed = 0;
@@ -46,7 +68,10 @@ public class FieldInfo {
     public boolean isDate = true;
     public boolean isFreeText = false;
     public boolean tooManyValues = false;
-    public UniformSamplingReservoir samplingReservoir;
+    /** Relative standard error of uniqueCount when it is estimated, 0 when it is exact or an upper bound */
+    public double uniqueCountError = 0;
+    public NumericSummary numericSummary;
+    private HyperLogLog distinctValues;
     public Object average;
     public Object stdev;
     public Object minimum;
@@ -54,23 +79,33 @@ public class FieldInfo {
     public Object q1;
     public Object q2;
     public Object q3;
+    /** What was given up to stay within the heap budget, null if nothing */
+    public String memoryDecision;
+    private boolean heapBudgetRegistered = false;
+    private long heapBudgetSize = 0;
 
     public FieldInfo(ScanParameters scanParameters, String name) {
         this.scanParameters = scanParameters;
+        this.heapBudget = scanParameters.getHeapBudget();
         this.name = name;
+        this.valueCounts = createValueCounts();
+        if (valueCounts instanceof CompactCountingSet) {
+            this.integerValueCounts = new LongCountingSet();
+        }
         if (scanParameters.doCalculateNumericStats()) {
-            this.samplingReservoir = new UniformSamplingReservoir(scanParameters.getNumStatsSamplerSize());
+            this.numericSummary = createNumericSummary();
         }
     }
 
     public void trim() {
-        // Only keep values that are used in scan report
-        if (valueCounts.size() > scanParameters.getMaxValues()) {
-            valueCounts.keepTopN(scanParameters.getMaxValues());
+        trimValueCounts();
+        if (valueCounts instanceof FingerprintCountingSet) {
+            // Only the values that can be reported are left, and these are all known
+            valueCounts = toHashedValueCounts(valueCounts);
         }
 
-        // Calculate numeric stats and dereference sampling reservoir to save memory.
-        if (scanParameters.doCalculateNumericStats()) {
+        // Calculate numeric stats and dereference the numeric summary to save memory.
+        if (scanParameters.doCalculateNumericStats() && numericSummary != null) {
             average = getAverage();
             stdev = getStandardDeviation();
             minimum = getMinimum();
@@ -79,7 +114,273 @@ public class FieldInfo {
             q2 = getQ2();
             q3 = getQ3();
         }
-        samplingReservoir = null;
+        numericSummary = null;
+
+        // Replace the count of the truncated value set by the estimate of the sketch, and dereference it
+        if (distinctValues != null) {
+            if (tooManyValues) {
+                long estimate = Math.min(distinctValues.getEstimate(), nProcessed);
+                uniqueCount = Math.max(estimate, getValueCountsCapacity() + 1);
+                uniqueCountError = distinctValues.getRelativeError();
+            }
+            distinctValues = null;
+        }
+
+        if (heapBudgetRegistered) {
+            heapBudget.unregister(heapBudgetSize, estimateRetainedSize());
+            heapBudgetRegistered = false;
+        }
+    }
+
+    private void trimValueCounts() {
+        if (valueCounts instanceof FingerprintCountingSet) {
+            // The most frequent values are known, and the others are only counted by their fingerprint
+            if (valueCounts.size() > scanParameters.getMaxValues()) {
+                valueCounts.keepTopN(scanParameters.getMaxValues());
+            }
+            return;
+        }
+        // The report lists values with equal counts in the order of a HashMap. Move the counts into one, in the order
+        // in which the values were first seen, so that the same values are kept and listed in the same order.
+        if (valueCounts instanceof CompactCountingSet || integerValueCounts != null) {
+            CountingSet<String> hashedValueCounts = toHashedValueCounts(valueCounts);
+            if (integerValueCounts != null) {
+                addIntegerValueCounts(hashedValueCounts, integerValueCounts);
+                integerValueCounts = null;
+            }
+            valueCounts = hashedValueCounts;
+        }
+        // Only keep values that are used in scan report
+        if (valueCounts.size() > scanParameters.getMaxValues()) {
+            valueCounts.keepTopN(scanParameters.getMaxValues());
+        }
+    }
+
+    private NumericSummary createNumericSummary() {
+        if (scanParameters.doUseQuantileSketch()) {
+            return new QuantileSketch(Math.max(8, scanParameters.getNumStatsSamplerSize()));
+        }
+        return new UniformSamplingReservoir(scanParameters.getNumStatsSamplerSize());
+    }
+
+    private CountingSet<String> createValueCounts() {
+        if (scanParameters.doApproximateValueCounts()) {
+            return new SpaceSavingSet<>(getApproximateValueCountsCapacity());
+        }
+        if (scanParameters.doFingerprintValueCounts()) {
+            // Keep the values themselves for a multiple of the values shown in the report, and for all values seen
+            // before the free text check, as those are then split into words
+            int capacity = Math.min(scanParameters.getMaxValues() * ScanParameters.APPROXIMATE_VALUE_COUNTS_FACTOR,
+                    ScanParameters.MAX_VALUES_IN_MEMORY);
+            capacity = Math.max(capacity, ScanParameters.N_FOR_FREE_TEXT_CHECK);
+            return new FingerprintCountingSet<>(Math.max(scanParameters.getMaxValues(), capacity), HyperLogLog::hash);
+        }
+        return new CompactCountingSet<>();
+    }
+
+    private int getApproximateValueCountsCapacity() {
+        // Keep a multiple of the values shown in the report, so that the counts of those are (nearly) exact
+        int capacity = Math.min(scanParameters.getMaxValues() * ScanParameters.APPROXIMATE_VALUE_COUNTS_FACTOR,
+                ScanParameters.MAX_VALUES_IN_MEMORY);
+        return Math.max(1, Math.max(scanParameters.getMaxValues(), capacity));
+    }
+
+    /**
+     * Merge the state of another FieldInfo, that profiled a different set of rows of the same field, into this one.
+     * Counts, lengths and data type flags are combined exactly; the numeric summaries are merged, sampling reservoirs
+     * into a uniform sample of all rows. Neither object should have been trimmed yet.
+     * @param other FieldInfo to merge into this one. It is not modified, apart from releasing its share of the heap
+     *              budget.
+     */
+    public void merge(FieldInfo other) {
+        // If the combined values may not fit in memory, keep estimating the distinct values with a sketch
+        HyperLogLog mergedDistinctValues = null;
+        if (!isFreeText && !other.isFreeText && (distinctValues != null || other.distinctValues != null ||
+                getValueCountsSize() + other.getValueCountsSize() >= getValueCountsCapacity())) {
+            mergedDistinctValues = getDistinctValueSketch();
+            mergedDistinctValues.merge(other.getDistinctValueSketch());
+        }
+
+        nProcessed += other.nProcessed;
+        sumLength += other.sumLength;
+        maxLength = Math.max(maxLength, other.maxLength);
+        emptyCount += other.emptyCount;
+        isInteger &= other.isInteger;
+        isReal &= other.isReal;
+        isDate &= other.isDate;
+
+        // Integer values are only kept apart while both parts have them apart
+        CountingSet<String> otherValueCounts = other.valueCounts;
+        if (integerValueCounts != null && other.integerValueCounts != null && isInteger) {
+            integerValueCounts.merge(other.integerValueCounts);
+        } else {
+            releaseIntegerValueCounts();
+            otherValueCounts = other.getAllValueCounts();
+        }
+
+        // If only one of the parts was found to be free text, count the words in the values of the other part
+        if (isFreeText && !other.isFreeText) {
+            otherValueCounts = toWordCounts(otherValueCounts);
+        } else if (!isFreeText && other.isFreeText) {
+            valueCounts = toWordCounts(valueCounts);
+            isFreeText = true;
+        }
+        // If either part had to approximate its value counts, so does the result
+        if (valueCounts instanceof SpaceSavingSet && !(otherValueCounts instanceof SpaceSavingSet)) {
+            otherValueCounts = SpaceSavingSet.ofTopCounts(otherValueCounts, getValueCountsCapacity());
+        } else if (!(valueCounts instanceof SpaceSavingSet) && otherValueCounts instanceof SpaceSavingSet) {
+            releaseIntegerValueCounts();
+            valueCounts = SpaceSavingSet.ofTopCounts(valueCounts, ((SpaceSavingSet<String>) otherValueCounts).getCapacity());
+        }
+        valueCounts.merge(otherValueCounts);
+
+        tooManyValues |= other.tooManyValues;
+        if (!tooManyValues && !isFreeText) {
+            uniqueCount = getValueCountsSize();
+        } else {
+            // Not all values are known anymore, this is an upper bound
+            uniqueCount += other.uniqueCount;
+        }
+        distinctValues = mergedDistinctValues;
+        checkValueCountsTruncated();
+
+        if (numericSummary != null && other.numericSummary != null) {
+            numericSummary.merge(other.numericSummary);
+        }
+
+        if (memoryDecision == null) {
+            memoryDecision = other.memoryDecision;
+        }
+        if (other.heapBudgetRegistered) {
+            // The other part is no longer needed
+            heapBudget.unregister(other.heapBudgetSize, 0);
+            other.heapBudgetRegistered = false;
+        }
+        if (heapBudget != null) {
+            checkHeapBudget();
+        }
+    }
+
+    /**
+     * Write the state of this FieldInfo in a compact binary form, that can be read back with {@link #read}. The
+     * numeric summary is not written, so this should only be used for FieldInfo objects that have been trimmed.
+     */
+    public void write(DataOutput out) throws IOException {
+        releaseIntegerValueCounts();
+        writeString(out, name);
+        writeString(out, type);
+        writeString(out, label);
+        out.writeLong(sumLength);
+        out.writeInt(maxLength);
+        out.writeLong(nProcessed);
+        out.writeLong(emptyCount);
+        out.writeLong(uniqueCount);
+        out.writeLong(rowCount);
+        out.writeBoolean(isInteger);
+        out.writeBoolean(isReal);
+        out.writeBoolean(isDate);
+        out.writeBoolean(isFreeText);
+        out.writeBoolean(tooManyValues);
+        out.writeDouble(uniqueCountError);
+        writeString(out, memoryDecision);
+        for (Object statistic : new Object[]{average, stdev, minimum, maximum, q1, q2, q3}) {
+            writeStatistic(out, statistic);
+        }
+        out.writeInt(valueCounts.size());
+        try {
+            valueCounts.forEachCount((value, count) -> {
+                try {
+                    writeString(out, value);
+                    out.writeInt(count);
+                    out.writeInt(getCountError(valueCounts, value));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Read a FieldInfo written by {@link #write}.
+     */
+    public static FieldInfo read(DataInput in, ScanParameters scanParameters) throws IOException {
+        FieldInfo fieldInfo = new FieldInfo(scanParameters, readString(in));
+        fieldInfo.numericSummary = null;
+        fieldInfo.integerValueCounts = null;
+        fieldInfo.type = readString(in);
+        fieldInfo.label = readString(in);
+        fieldInfo.sumLength = in.readLong();
+        fieldInfo.maxLength = in.readInt();
+        fieldInfo.nProcessed = in.readLong();
+        fieldInfo.emptyCount = in.readLong();
+        fieldInfo.uniqueCount = in.readLong();
+        fieldInfo.rowCount = in.readLong();
+        fieldInfo.isInteger = in.readBoolean();
+        fieldInfo.isReal = in.readBoolean();
+        fieldInfo.isDate = in.readBoolean();
+        fieldInfo.isFreeText = in.readBoolean();
+        fieldInfo.tooManyValues = in.readBoolean();
+        fieldInfo.uniqueCountError = in.readDouble();
+        fieldInfo.memoryDecision = readString(in);
+        fieldInfo.average = readStatistic(in);
+        fieldInfo.stdev = readStatistic(in);
+        fieldInfo.minimum = readStatistic(in);
+        fieldInfo.maximum = readStatistic(in);
+        fieldInfo.q1 = readStatistic(in);
+        fieldInfo.q2 = readStatistic(in);
+        fieldInfo.q3 = readStatistic(in);
+        int nValues = in.readInt();
+        for (int i = 0; i < nValues; i++) {
+            addCount(fieldInfo.valueCounts, readString(in), in.readInt(), in.readInt());
+        }
+        return fieldInfo;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        // Not writeUTF(), as values can be longer than it allows
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStatistic(DataOutput out, Object statistic) throws IOException {
+        // Numeric statistics are either a Double, or a String for dates
+        if (statistic instanceof Double) {
+            out.writeByte(1);
+            out.writeDouble((Double) statistic);
+        } else if (statistic != null) {
+            out.writeByte(2);
+            writeString(out, statistic.toString());
+        } else {
+            out.writeByte(0);
+        }
+    }
+
+    private static Object readStatistic(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        if (kind == 1) {
+            return in.readDouble();
+        } else if (kind == 2) {
+            return readString(in);
+        } else {
+            return null;
+        }
     }
 
     public boolean hasValuesTrimmed() {
@@ -121,6 +422,49 @@ public class FieldInfo {
 
     }
 
+    /**
+     * Sets the counts of this field from aggregates that the database computed over all rows, instead of processing
+     * the values. The most frequent values are added with {@link #addAggregateValueCount}, and the numeric statistics
+     * with {@link #setNumericAggregates}.
+     * @param uniqueCountError relative standard error of the unique count, 0 if it is exact
+     */
+    public void setAggregates(long nRows, long emptyCount, int maxLength, long uniqueCount, double uniqueCountError) {
+        this.nProcessed = nRows;
+        this.emptyCount = emptyCount;
+        this.maxLength = maxLength;
+        this.uniqueCount = uniqueCount;
+        this.uniqueCountError = uniqueCountError;
+        this.numericSummary = null;
+    }
+
+    /**
+     * Sets the numeric statistics of this field from aggregates that the database computed over all rows.
+     * Statistics that the database could not compute are NaN.
+     * @param isDate true if the values are dates, counted in days since 1970-01-01
+     */
+    public void setNumericAggregates(boolean isDate, double minimum, double maximum, double mean, double stdev,
+                                     double q1, double q2, double q3) {
+        this.isDate = isDate;
+        this.isInteger = !isDate;
+        this.isReal = !isDate;
+        this.minimum = formatNumericAggregate(minimum, false);
+        this.maximum = formatNumericAggregate(maximum, false);
+        this.average = formatNumericAggregate(mean, false);
+        this.stdev = formatNumericAggregate(stdev, true);
+        this.q1 = formatNumericAggregate(q1, false);
+        this.q2 = formatNumericAggregate(q2, false);
+        this.q3 = formatNumericAggregate(q3, false);
+    }
+
+    private Object formatNumericAggregate(double value, boolean dateAsDays) {
+        // A missing date would otherwise be formatted as 1970-01-01
+        return Double.isNaN(value) ? Double.NaN : formatNumericValue(value, dateAsDays);
+    }
+
+    public void addAggregateValueCount(String value, long count) {
+        valueCounts.add(value, (int) Math.min(count, Integer.MAX_VALUE));
+    }
+
     public void processValue(String value) {
         nProcessed++;
         sumLength += value.length();
@@ -132,11 +476,20 @@ public class FieldInfo {
             emptyCount++;
 
         if (!isFreeText) {
-            boolean newlyAdded = valueCounts.add(value);
+            boolean newlyAdded;
+            if (integerValueCounts != null && isPlainInteger(value)) {
+                newlyAdded = integerValueCounts.add(Long.parseLong(value));
+            } else {
+                newlyAdded = valueCounts.add(value);
+            }
             if (newlyAdded) uniqueCount++;
+            if (distinctValues != null) distinctValues.add(value);
 
             if (trimValue.length() != 0) {
                 evaluateDataType(trimValue);
+                if (!isInteger) {
+                    releaseIntegerValueCounts();
+                }
             }
 
             if (nProcessed == ScanParameters.N_FOR_FREE_TEXT_CHECK && !isInteger && !isReal && !isDate) {
@@ -146,43 +499,252 @@ public class FieldInfo {
             valueCounts.addAll(StringUtilities.mapToWords(trimValue.toLowerCase()));
         }
 
-        // if over this large constant number, then trimmed back to size used in report (maxValues).
-        if (!tooManyValues && valueCounts.size() > ScanParameters.MAX_VALUES_IN_MEMORY) {
-            tooManyValues = true;
-            this.trim();
+        if (distinctValues == null && !isFreeText && getValueCountsSize() >= getValueCountsCapacity()) {
+            // All distinct values so far are still known, from here on they may only be estimated
+            distinctValues = getDistinctValueSketch();
         }
+        checkValueCountsTruncated();
 
         if (scanParameters.doCalculateNumericStats() && !trimValue.isEmpty()) {
             if (isInteger || isReal) {
-                samplingReservoir.add(Double.parseDouble(trimValue));
+                // the value has just been classified by evaluateDataType
+                numericSummary.add(valueClassifier.getNumber());
             } else if (isDate) {
-                samplingReservoir.add(DateUtilities.parseDate(trimValue));
+                numericSummary.add(valueClassifier.getEpochDay());
             }
         }
 
+        if (heapBudget != null && nProcessed % HEAP_BUDGET_CHECK_INTERVAL == 0) {
+            checkHeapBudget();
+        }
+    }
+
+    private void checkHeapBudget() {
+        if (!heapBudgetRegistered) {
+            heapBudget.register();
+            heapBudgetRegistered = true;
+        }
+        long size = estimateRetainedSize();
+        if (heapBudget.update(heapBudgetSize, size)) {
+            reduceMemory();
+            long reducedSize = estimateRetainedSize();
+            heapBudget.update(size, reducedSize);
+            size = reducedSize;
+        }
+        heapBudgetSize = size;
+    }
+
+    /**
+     * Reduce the memory used by the value counts, as the heap budget is exceeded. Exact counts are replaced by
+     * approximate counts of the most frequent values, and approximate counts are reduced to the values in the report.
+     */
+    private void reduceMemory() {
+        int capacity;
+        String decision;
+        if (!(valueCounts instanceof SpaceSavingSet)) {
+            capacity = getApproximateValueCountsCapacity();
+            decision = "value counts approximated";
+        } else if (getValueCountsCapacity() > Math.max(1, scanParameters.getMaxValues())) {
+            capacity = Math.max(1, scanParameters.getMaxValues());
+            decision = "value counts approximated for the reported values only";
+        } else {
+            return;
+        }
+        if (!isFreeText && distinctValues == null) {
+            // Not all distinct values will be known anymore, from here on they are estimated
+            distinctValues = getDistinctValueSketch();
+        }
+        releaseIntegerValueCounts();
+        valueCounts = SpaceSavingSet.ofTopCounts(valueCounts, capacity);
+        checkValueCountsTruncated();
+        memoryDecision = decision;
+        heapBudget.logDecision(name, decision);
+    }
+
+    /**
+     * @return a rough estimate of the number of bytes used by this field
+     */
+    public long estimateRetainedSize() {
+        long valueBytes = STRING_BYTES + (nProcessed == 0 ? 0 : 2 * sumLength / nProcessed);
+        long size;
+        if (valueCounts instanceof FingerprintCountingSet) {
+            size = valueCounts.size() * (long) LONG_ENTRY_BYTES + valueCounts.key2count.size() * (valueBytes + HASH_ENTRY_BYTES);
+        } else if (valueCounts instanceof CompactCountingSet) {
+            size = valueCounts.size() * (valueBytes + COMPACT_ENTRY_BYTES);
+        } else {
+            size = valueCounts.size() * (valueBytes + HASH_ENTRY_BYTES);
+        }
+        if (integerValueCounts != null) {
+            size += integerValueCounts.size() * (long) LONG_ENTRY_BYTES;
+        }
+        if (distinctValues != null) {
+            size += DISTINCT_VALUES_SKETCH_BYTES;
+        }
+        if (numericSummary instanceof QuantileSketch) {
+            size += ((QuantileSketch) numericSummary).getRetainedItems() * (long) Double.BYTES;
+        } else if (numericSummary != null) {
+            size += scanParameters.getNumStatsSamplerSize() * (long) Double.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * @return the maximum number of distinct values that are counted before values are dropped
+     */
+    private int getValueCountsCapacity() {
+        if (valueCounts instanceof SpaceSavingSet) {
+            return ((SpaceSavingSet<String>) valueCounts).getCapacity();
+        }
+        return ScanParameters.MAX_VALUES_IN_MEMORY;
+    }
+
+    private void checkValueCountsTruncated() {
+        if (tooManyValues) {
+            return;
+        }
+        if (valueCounts instanceof SpaceSavingSet) {
+            // Counts are kept in bounded memory, the most frequent values are still found
+            tooManyValues = ((SpaceSavingSet<String>) valueCounts).isTruncated();
+        } else if (getValueCountsSize() > ScanParameters.MAX_VALUES_IN_MEMORY) {
+            // if over this large constant number, then trimmed back to size used in report (maxValues).
+            tooManyValues = true;
+            trimValueCounts();
+        }
+    }
+
+    /**
+     * @return the number of distinct values that are counted, with and without integer representation
+     */
+    private int getValueCountsSize() {
+        return valueCounts.size() + (integerValueCounts == null ? 0 : integerValueCounts.size());
+    }
+
+    /**
+     * Move the counts of the integer values into valueCounts, after which all values are counted as strings
+     */
+    private void releaseIntegerValueCounts() {
+        if (integerValueCounts != null) {
+            addIntegerValueCounts(valueCounts, integerValueCounts);
+            integerValueCounts = null;
+        }
+    }
+
+    /**
+     * @return the counts of all values as strings, a copy if some values are kept as integers
+     */
+    private CountingSet<String> getAllValueCounts() {
+        if (integerValueCounts == null || integerValueCounts.isEmpty()) {
+            return valueCounts;
+        }
+        CountingSet<String> allValueCounts = new CompactCountingSet<>(valueCounts);
+        addIntegerValueCounts(allValueCounts, integerValueCounts);
+        return allValueCounts;
+    }
+
+    private static void addIntegerValueCounts(CountingSet<String> counts, LongCountingSet integerCounts) {
+        integerCounts.forEach((value, count) -> counts.add(Long.toString(value), count));
+    }
+
+    /**
+     * @return true if the value is written exactly as Long.toString() would write it, so that it can be counted
+     * as a long without changing the value reported. Longer numbers than fit in a long are not accepted.
+     */
+    private static boolean isPlainInteger(String value) {
+        int length = value.length();
+        int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        int nDigits = length - start;
+        if (nDigits == 0 || nDigits > 18) {
+            return false;
+        }
+        // No leading zeros, and no negative zero
+        if (value.charAt(start) == '0' && (nDigits > 1 || start == 1)) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the maximum amount by which the count of the value overestimates its true count
+     */
+    private static int getCountError(CountingSet<String> counts, String value) {
+        if (counts instanceof SpaceSavingSet) {
+            return ((SpaceSavingSet<String>) counts).getError(value);
+        }
+        return 0;
+    }
+
+    private static void addCount(CountingSet<String> counts, String value, int count, int error) {
+        if (counts instanceof SpaceSavingSet) {
+            ((SpaceSavingSet<String>) counts).add(value, count, error);
+        } else {
+            counts.add(value, count);
+        }
+    }
+
+    /**
+     * @return the sketch of the distinct values, or a new sketch of the values in valueCounts if there is none yet
+     */
+    private HyperLogLog getDistinctValueSketch() {
+        if (distinctValues != null) {
+            return distinctValues;
+        }
+        HyperLogLog sketch = new HyperLogLog();
+        if (valueCounts instanceof FingerprintCountingSet) {
+            // The fingerprints are the hashes of the sketch
+            ((FingerprintCountingSet<String>) valueCounts).forEachFingerprint(sketch::addHash);
+        } else {
+            for (String value : valueCounts) {
+                sketch.add(value);
+            }
+        }
+        if (integerValueCounts != null) {
+            integerValueCounts.forEach((value, count) -> sketch.add(Long.toString(value)));
+        }
+        return sketch;
+    }
+
+    public boolean isUniqueCountEstimated() {
+        return uniqueCountError > 0;
     }
 
     public List<Pair<String, Integer>> getSortedValuesWithoutSmallValues() {
-        List<Pair<String, Integer>> result = valueCounts.key2count.entrySet().stream()
-                .filter(e -> e.getValue().count >= scanParameters.getMinCellCount())
-                .sorted(Comparator.<Map.Entry<String, CountingSet.Count>>comparingInt(e -> e.getValue().count).reversed())
+        // Approximate counts are upper bounds, a value is only shown if its count is certainly not too small
+        CountingSet<String> valueCounts = getAllValueCounts();
+        List<Pair<String, Integer>> values = new ArrayList<>();
+        valueCounts.forEachCount((value, count) -> {
+            if (count - getCountError(valueCounts, value) >= scanParameters.getMinCellCount())
+                values.add(new Pair<>(value, count));
+        });
+        List<Pair<String, Integer>> result = values.stream()
+                .sorted(Comparator.<Pair<String, Integer>>comparingInt(Pair::getItem2).reversed())
                 .limit(scanParameters.getMaxValues())
-                .map(e -> new Pair<>(e.getKey(), e.getValue().count))
                 .collect(Collectors.toCollection(ArrayList::new));
 
-        if (result.size() < valueCounts.key2count.size()) {
+        int maxError = result.stream().mapToInt(p -> getCountError(valueCounts, p.getItem1())).max().orElse(0);
+        // In push-down mode only the listed values are fetched, but the number of distinct values is known
+        if (result.size() < valueCounts.key2count.size() || (!isFreeText && result.size() < uniqueCount)) {
             result.add(new Pair<>("List truncated...", -1));
         }
+        if (maxError > 0) {
+            result.add(new Pair<>(String.format("Frequencies overestimated by at most %d", maxError), -1));
+        }
         return result;
     }
 
     private void evaluateDataType(String value) {
-        if (isReal && !StringUtilities.isNumber(value))
-            isReal = false;
-        if (isInteger && !StringUtilities.isLong(value))
-            isInteger = false;
-        if (isDate && !StringUtilities.isDate(value))
-            isDate = false;
+        int candidates = (isInteger ? ValueClassifier.INTEGER : 0) | (isReal ? ValueClassifier.REAL : 0) | (isDate ? ValueClassifier.DATE : 0);
+        if (candidates == 0)
+            return;
+        int types = valueClassifier.classify(value, candidates);
+        isInteger &= (types & ValueClassifier.INTEGER) != 0;
+        isReal &= (types & ValueClassifier.REAL) != 0;
+        isDate &= (types & ValueClassifier.DATE) != 0;
     }
 
     private void doFreeTextCheck() {
@@ -190,14 +752,29 @@ public class FieldInfo {
         if (averageLength >= ScanParameters.MIN_AVERAGE_LENGTH_FOR_FREE_TEXT) {
             isFreeText = true;
             // Reset value count to word count
-            CountingSet<String> wordCounts = new CountingSet<>();
-            for (Map.Entry<String, CountingSet.Count> entry : valueCounts.key2count.entrySet())
-                for (String word : StringUtilities.mapToWords(entry.getKey().toLowerCase()))
-                    wordCounts.add(word, entry.getValue().count);
-            valueCounts = wordCounts;
+            valueCounts = toWordCounts(valueCounts);
         }
     }
 
+    private CountingSet<String> toWordCounts(CountingSet<String> valueCounts) {
+        CountingSet<String> wordCounts = createValueCounts();
+        // Add the words in the same order as they would be from a HashMap, see trimValueCounts()
+        CountingSet<String> hashedValueCounts = valueCounts instanceof CompactCountingSet ? toHashedValueCounts(valueCounts) : valueCounts;
+        hashedValueCounts.forEachCount((value, count) -> {
+            int error = getCountError(hashedValueCounts, value);
+            for (String word : StringUtilities.mapToWords(value.toLowerCase()))
+                addCount(wordCounts, word, count, error);
+        });
+        return wordCounts;
+    }
+
+    private static CountingSet<String> toHashedValueCounts(CountingSet<String> valueCounts) {
+        // Added one by one, as the copy constructor would put values with colliding hashes in a different order
+        CountingSet<String> hashedValueCounts = new CountingSet<>();
+        hashedValueCounts.merge(valueCounts);
+        return hashedValueCounts;
+    }
+
     private Object formatNumericValue(double value) {
         return formatNumericValue(value, false);
     }
@@ -219,37 +796,37 @@ public class FieldInfo {
     }
 
     private Object getMinimum() {
-        double min = samplingReservoir.getPopulationMinimum();
+        double min = numericSummary.getPopulationMinimum();
         return formatNumericValue(min);
     }
 
     private Object getMaximum() {
-        double max = samplingReservoir.getPopulationMaximum();
+        double max = numericSummary.getPopulationMaximum();
         return formatNumericValue(max);
     }
 
     private Object getAverage() {
-        double average = samplingReservoir.getPopulationMean();
+        double average = numericSummary.getPopulationMean();
         return formatNumericValue(average);
     }
 
     private Object getStandardDeviation() {
-        double stddev = samplingReservoir.getSampleStandardDeviation();
+        double stddev = numericSummary.getPopulationStandardDeviation();
         return formatNumericValue(stddev, true);
     }
 
     private Object getQ1() {
-        double q1 = samplingReservoir.getSampleQuartiles().get(0);
+        double q1 = numericSummary.getSampleQuartiles().get(0);
         return formatNumericValue(q1);
     }
 
     private Object getQ2() {
-        double q2 = samplingReservoir.getSampleQuartiles().get(1);
+        double q2 = numericSummary.getSampleQuartiles().get(1);
         return formatNumericValue(q2);
     }
 
     private Object getQ3() {
-        double q3 = samplingReservoir.getSampleQuartiles().get(2);
+        double q3 = numericSummary.getSampleQuartiles().get(2);
         return formatNumericValue(q3);
     }
 }
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory budget shared by all fields of a scan.
+ *
+ * <p>Each {@link FieldInfo} that is being profiled regularly reports an estimate of its size. When the total exceeds the
+ * budget, the fields that are at least as large as the average field that is still being profiled are asked to reduce
+ * their size. A field only ever reduces its own size, on the thread that profiles it, so no locking is needed.
+ */
+public class HeapBudget {
+    static Logger logger = LoggerFactory.getLogger(HeapBudget.class);
+
+    private final long budget;
+    // Estimated size of all fields, including those that are done
+    private final AtomicLong used = new AtomicLong();
+    // Estimated size and number of the fields that are still being profiled
+    private final AtomicLong activeUsed = new AtomicLong();
+    private final AtomicInteger activeFields = new AtomicInteger();
+
+    /**
+     * @param budget the total estimated size of all fields, in bytes
+     */
+    public HeapBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Heap budget must be strictly positive");
+        }
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Start accounting for a field that is being profiled.
+     */
+    public void register() {
+        activeFields.incrementAndGet();
+    }
+
+    /**
+     * Update the estimated size of a field that is being profiled.
+     * @return true if the budget is exceeded and the field is at least as large as the average field that is being
+     * profiled, so that it should reduce its size
+     */
+    public boolean update(long previousSize, long size) {
+        long total = used.addAndGet(size - previousSize);
+        long activeTotal = activeUsed.addAndGet(size - previousSize);
+        return total > budget && size >= activeTotal / Math.max(1, activeFields.get());
+    }
+
+    /**
+     * Stop accounting for a field as being profiled, when it is done or merged into another field.
+     * @param size the estimated size that the field keeps using, 0 if it is released
+     */
+    public void unregister(long previousSize, long size) {
+        activeFields.decrementAndGet();
+        activeUsed.addAndGet(-previousSize);
+        used.addAndGet(size - previousSize);
+    }
+
+    public void logDecision(String fieldName, String decision) {
+        logger.info("Estimated memory use of {} MB exceeds the budget of {} MB: {} for field {}",
+                used.get() >> 20, budget >> 20, decision, fieldName);
+    }
+}
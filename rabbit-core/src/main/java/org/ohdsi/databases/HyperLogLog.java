@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+/**
+ * HyperLogLog sketch, that estimates the number of distinct values in a stream in fixed memory.
+ *
+ * <p>A sketch with precision p keeps 2^p one byte registers, and its estimate has a relative standard error of about
+ * 1.04 / sqrt(2^p): with the default precision of 12 that is 4 KB and 1.6%. Small cardinalities are estimated with
+ * linear counting, which is close to exact. Sketches of the same precision can be merged, the result is the sketch of
+ * the union of both streams.
+ */
+public class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(String value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * Add a value by its hash, as computed by {@link #hash}.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // Position of the first 1 bit in the remaining bits; the marker bit caps it when they are all 0
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Merge another sketch into this one, as if the values added to the other sketch had been added to this one.
+     * @param other sketch with the same precision. It is not modified.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches with different precisions");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added to this sketch
+     */
+    public long getEstimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1d / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / (double) zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return the relative standard error of the estimate
+     */
+    public double getRelativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * 64 bit hash of the characters of a value: FNV-1a, followed by the MurmurHash3 finalizer to spread the bits.
+     * String.hashCode() has too few bits for the cardinalities of large tables.
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
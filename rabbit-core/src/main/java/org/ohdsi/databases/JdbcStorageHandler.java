@@ -228,6 +228,16 @@ public interface JdbcStorageHandler {
      */
     String getRowSampleQuery(String table, long rowCount, long sampleSize);
 
+    /**
+     * Returns the reference to a table as used in queries, for instance qualified with its catalog and schema.
+     *
+     * @param table name of the table
+     * @return table reference
+     */
+    default String getTableReference(String table) {
+        return table;
+    }
+
     /**
      * @return the DbSettings object used to initialize the database connection
      */
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+/**
+ * Accumulates the count, mean and variance of a stream of values, without allocating. The sum is kept with Neumaier's
+ * compensated summation, so that the mean stays accurate over long streams, and the variance with Welford's algorithm.
+ * Accumulators of different parts of a stream are merged with the pairwise formula of Chan et al.
+ */
+public class MeanVarianceAccumulator {
+    private static final double SPLITTER = 134217729d; // 2^27 + 1
+
+    private long count;
+    private double sum;
+    private double compensation;
+    private double mean;
+    private double squaredDeviations;
+
+    public void add(double value) {
+        count++;
+        addToSum(value);
+        double delta = value - mean;
+        mean += delta / count;
+        squaredDeviations += delta * (value - mean);
+    }
+
+    /**
+     * Merge another accumulator into this one, as if the values added to the other accumulator had been added to this one.
+     * @param other accumulator to merge into this one. It is not modified.
+     */
+    public void merge(MeanVarianceAccumulator other) {
+        if (other.count == 0) {
+            return;
+        }
+        long mergedCount = count + other.count;
+        double delta = other.mean - mean;
+        squaredDeviations += other.squaredDeviations + delta * delta * ((double) count * other.count / mergedCount);
+        mean += delta * other.count / mergedCount;
+        addToSum(other.sum);
+        addToSum(other.compensation);
+        count = mergedCount;
+    }
+
+    private void addToSum(double value) {
+        double newSum = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - newSum) + value;
+        } else {
+            compensation += (value - newSum) + sum;
+        }
+        sum = newSum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum + compensation;
+    }
+
+    public double getMean() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // Divide the sum with its compensation as a double-double, so that the mean is rounded only once
+        double quotient = sum / count;
+        double product = quotient * count;
+        double remainder = (sum - product) - productError(quotient, count, product) + compensation;
+        double mean = quotient + remainder / count;
+        return Double.isFinite(mean) ? mean : quotient;
+    }
+
+    /**
+     * @return the rounding error of the product of a and b, which was rounded to product (Dekker's algorithm)
+     */
+    private static double productError(double a, double b, double product) {
+        double t = SPLITTER * a;
+        double aHigh = t - (t - a);
+        double aLow = a - aHigh;
+        t = SPLITTER * b;
+        double bHigh = t - (t - b);
+        double bLow = b - bHigh;
+        return ((aHigh * bHigh - product) + aHigh * bLow + aLow * bHigh) + aLow * bLow;
+    }
+
+    public double getPopulationVariance() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return Math.max(0, squaredDeviations / count);
+    }
+
+    public double getPopulationStandardDeviation() {
+        return Math.sqrt(getPopulationVariance());
+    }
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import java.util.List;
+
+/**
+ * Streaming summary of the numeric values of a field, from which the numeric statistics of the scan report are
+ * computed. Summaries of the same kind that were built from different sets of rows can be merged.
+ */
+public interface NumericSummary {
+
+    /** Add a value to the summary. */
+    void add(double value);
+
+    /**
+     * Merge another summary into this one, as if the values added to the other summary had been added to this one.
+     * @param other summary of the same kind. It is not modified.
+     */
+    void merge(NumericSummary other);
+
+    /** Get the number of values that have been added. */
+    long getCount();
+
+    double getPopulationMean();
+
+    double getPopulationMinimum();
+
+    double getPopulationMaximum();
+
+    double getPopulationStandardDeviation();
+
+    /**
+     * Get the quartiles of the values. Depending on the summary and the number of values, these may be estimates.
+     * @return list with size three, of the 25, 50 and 75 percentiles.
+     */
+    List<Double> getSampleQuartiles();
+}
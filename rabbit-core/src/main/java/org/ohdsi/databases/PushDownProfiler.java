@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.ohdsi.databases.configuration.DbType;
+import org.ohdsi.utilities.files.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Profiles the fields of a table with aggregate queries that the database executes over all rows, instead of
+ * reading (a sample of) the rows and profiling the values.
+ *
+ * <p>For each group of columns, one query computes the number of rows, and for each column the number of empty
+ * values, the maximum length and the number of distinct values. Databases that have an approximate distinct count
+ * use it. When numeric statistics are calculated, the same query computes the minimum, maximum, mean, standard
+ * deviation and quartiles of the numeric and date columns, as found by their type. Dates are counted in days since
+ * 1970-01-01. The quartiles are left out for databases without a percentile aggregate function, or when computing
+ * them fails. Then one query per column fetches the most frequent values with their counts.
+ *
+ * <p>Values are formatted by the JDBC driver, as when the rows are read, but the database decides what is empty and
+ * how long a value is. Free text fields are not split into words.
+ */
+public class PushDownProfiler {
+    static Logger logger = LoggerFactory.getLogger(PushDownProfiler.class);
+
+    // Number of columns whose aggregates are computed by a single query
+    static final int COLUMNS_PER_QUERY = 50;
+
+    private static final Set<String> NUMERIC_TYPES = new HashSet<>(Arrays.asList(
+            "int", "integer", "bigint", "smallint", "tinyint", "mediumint", "int2", "int4", "int8", "int64",
+            "serial", "bigserial", "decimal", "numeric", "bignumeric", "number", "float", "float4", "float8",
+            "float64", "double", "double precision", "real"));
+    private static final Set<String> DATE_TYPES = new HashSet<>(Arrays.asList(
+            "date", "datetime", "datetime2", "smalldatetime", "timestamp", "timestamptz", "timestamp_ntz",
+            "timestamp_ltz", "timestamp_tz", "timestamp without time zone", "timestamp with time zone"));
+    private static final double[] QUARTILES = {0.25, 0.5, 0.75};
+
+    private final DBConnection connection;
+    private final DbType dbType;
+    private boolean percentiles;
+
+    PushDownProfiler(DBConnection connection, DbType dbType) {
+        this.connection = connection;
+        this.dbType = dbType;
+        // MySQL and SQL Server have percentiles only as window functions, which cannot be combined with aggregates
+        this.percentiles = dbType != DbType.MYSQL && dbType != DbType.SQL_SERVER && dbType != DbType.PDW;
+    }
+
+    public static boolean isSupported(DbType dbType) {
+        switch (dbType) {
+            case POSTGRESQL:
+            case REDSHIFT:
+            case MYSQL:
+            case ORACLE:
+            case SQL_SERVER:
+            case PDW:
+            case AZURE:
+            case BIGQUERY:
+            case SNOWFLAKE:
+            case DATABRICKS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets the counts, most frequent values and, if they are calculated, numeric statistics of the fields from
+     * aggregates over all rows of the table.
+     */
+    void profile(String table, List<FieldInfo> fieldInfos, ScanParameters scanParameters) {
+        String tableReference = connection.getTableReference(table);
+        boolean numericStats = scanParameters.doCalculateNumericStats();
+        for (int start = 0; start < fieldInfos.size(); start += COLUMNS_PER_QUERY) {
+            List<FieldInfo> group = fieldInfos.subList(start, Math.min(start + COLUMNS_PER_QUERY, fieldInfos.size()));
+            try {
+                profileAggregates(tableReference, group, numericStats);
+            } catch (RuntimeException e) {
+                if (!numericStats || !percentiles) {
+                    throw e;
+                }
+                // For instance an older database version, the other statistics can still be computed
+                logger.warn("Could not compute the quartiles of {}: {}", tableReference, e.getMessage());
+                percentiles = false;
+                profileAggregates(tableReference, group, numericStats);
+            }
+        }
+        for (FieldInfo fieldInfo : fieldInfos) {
+            profileTopValues(tableReference, fieldInfo, scanParameters.getMaxValues());
+        }
+    }
+
+    private void profileAggregates(String tableReference, List<FieldInfo> fieldInfos, boolean numericStats) {
+        QueryResult queryResult = connection.query(getAggregatesQuery(tableReference, fieldInfos, numericStats));
+        try {
+            // The cells are in the order in which getAggregatesQuery() adds the aggregates
+            Iterator<String> cells = queryResult.iterator().next().getCells().iterator();
+            long nRows = parseCount(cells.next());
+            for (FieldInfo fieldInfo : fieldInfos) {
+                long nonEmptyCount = parseCount(cells.next());
+                int maxLength = (int) parseCount(cells.next());
+                long distinctCount = parseCount(cells.next());
+                // Empty values are reported as one more distinct value, like the empty string they are read as
+                long uniqueCount = distinctCount + (nonEmptyCount < nRows ? 1 : 0);
+                fieldInfo.setAggregates(nRows, nRows - nonEmptyCount, maxLength, uniqueCount, getDistinctCountError());
+                if (numericStats && hasNumericStats(fieldInfo)) {
+                    double[] statistics = new double[4 + QUARTILES.length];
+                    Arrays.fill(statistics, Double.NaN);
+                    int nStatistics = percentiles ? statistics.length : 4;
+                    for (int i = 0; i < nStatistics; i++) {
+                        statistics[i] = parseStatistic(cells.next());
+                    }
+                    fieldInfo.setNumericAggregates(isDate(fieldInfo), statistics[0], statistics[1], statistics[2],
+                            statistics[3], statistics[4], statistics[5], statistics[6]);
+                }
+            }
+        } finally {
+            queryResult.close();
+        }
+    }
+
+    private void profileTopValues(String tableReference, FieldInfo fieldInfo, int maxValues) {
+        QueryResult queryResult = connection.query(getTopValuesQuery(tableReference, fieldInfo.name, maxValues));
+        try {
+            for (Row row : queryResult) {
+                // NULL is read as the empty string, so both may be counted for the same value
+                fieldInfo.addAggregateValueCount(row.getCells().get(0), parseCount(row.getCells().get(1)));
+            }
+        } catch (Exception e) {
+            // For instance a column type that cannot be grouped on, the counts are still known
+            logger.warn("Could not fetch the most frequent values of {}: {}", fieldInfo.name, e.getMessage());
+        } finally {
+            queryResult.close();
+        }
+    }
+
+    String getAggregatesQuery(String tableReference, List<FieldInfo> fieldInfos, boolean numericStats) {
+        List<String> aggregates = new ArrayList<>();
+        aggregates.add("COUNT(*)");
+        for (FieldInfo fieldInfo : fieldInfos) {
+            String column = DBConnection.quoteIdentifier(dbType, fieldInfo.name);
+            String value = getStringExpression(column);
+            aggregates.add("COUNT(NULLIF(" + getTrimExpression(value) + ", ''))");
+            aggregates.add("MAX(" + getLengthExpression(value) + ")");
+            aggregates.add(getDistinctCountExpression(column));
+            if (numericStats && hasNumericStats(fieldInfo)) {
+                addNumericAggregates(aggregates, isDate(fieldInfo) ? getEpochDayExpression(column) : column);
+            }
+        }
+        // Named, as the columns of a row need distinct names
+        for (int i = 0; i < aggregates.size(); i++) {
+            aggregates.set(i, aggregates.get(i) + " AS aggregate" + i);
+        }
+        return "SELECT " + String.join(", ", aggregates) + " FROM " + tableReference;
+    }
+
+    String getTopValuesQuery(String tableReference, String name, int maxValues) {
+        String column = DBConnection.quoteIdentifier(dbType, name);
+        String query = "SELECT " + column + ", COUNT(*) AS value_frequency FROM " + tableReference + " GROUP BY " + column + " ORDER BY COUNT(*) DESC";
+        if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE) {
+            return query.replaceFirst("SELECT ", "SELECT TOP " + maxValues + " ");
+        } else if (dbType == DbType.ORACLE) {
+            return query + " FETCH FIRST " + maxValues + " ROWS ONLY";
+        } else {
+            return query + " LIMIT " + maxValues;
+        }
+    }
+
+    /**
+     * Adds the minimum, maximum, mean, population standard deviation and, if supported, the quartiles of a value.
+     */
+    private void addNumericAggregates(List<String> aggregates, String value) {
+        aggregates.add("MIN(" + value + ")");
+        aggregates.add("MAX(" + value + ")");
+        if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE) {
+            // The average of an integer column would be rounded to an integer
+            aggregates.add("AVG(CAST(" + value + " AS FLOAT))");
+            aggregates.add("STDEVP(CAST(" + value + " AS FLOAT))");
+        } else {
+            aggregates.add("AVG(" + value + ")");
+            aggregates.add("STDDEV_POP(" + value + ")");
+        }
+        if (percentiles) {
+            for (int i = 0; i < QUARTILES.length; i++) {
+                aggregates.add(getPercentileExpression(value, QUARTILES[i], i + 1));
+            }
+        }
+    }
+
+    private String getPercentileExpression(String value, double percentile, int quartile) {
+        switch (dbType) {
+            case REDSHIFT:
+                return "APPROXIMATE PERCENTILE_DISC(" + percentile + ") WITHIN GROUP (ORDER BY " + value + ")";
+            case AZURE:
+                return "APPROX_PERCENTILE_CONT(" + percentile + ") WITHIN GROUP (ORDER BY " + value + ")";
+            case SNOWFLAKE:
+            case DATABRICKS:
+                return "APPROX_PERCENTILE(" + value + ", " + percentile + ")";
+            case BIGQUERY:
+                return "APPROX_QUANTILES(" + value + ", 4)[OFFSET(" + quartile + ")]";
+            default:
+                return "PERCENTILE_CONT(" + percentile + ") WITHIN GROUP (ORDER BY " + value + ")";
+        }
+    }
+
+    private String getEpochDayExpression(String column) {
+        switch (dbType) {
+            case REDSHIFT:
+            case SNOWFLAKE:
+                return "DATEDIFF(day, CAST('1970-01-01' AS DATE), " + column + ")";
+            case SQL_SERVER:
+            case PDW:
+            case AZURE:
+                return "DATEDIFF(day, '19700101', " + column + ")";
+            case MYSQL:
+                return "(TO_DAYS(" + column + ") - 719528)";
+            case ORACLE:
+                return "(TRUNC(" + column + ") - DATE '1970-01-01')";
+            case BIGQUERY:
+                return "UNIX_DATE(DATE(" + column + "))";
+            case DATABRICKS:
+                return "DATEDIFF(CAST(" + column + " AS DATE), DATE '1970-01-01')";
+            default:
+                return "(CAST(" + column + " AS DATE) - DATE '1970-01-01')";
+        }
+    }
+
+    private static boolean hasNumericStats(FieldInfo fieldInfo) {
+        return NUMERIC_TYPES.contains(getBaseType(fieldInfo)) || isDate(fieldInfo);
+    }
+
+    private static boolean isDate(FieldInfo fieldInfo) {
+        String baseType = getBaseType(fieldInfo);
+        return DATE_TYPES.contains(baseType) || baseType.startsWith("timestamp");
+    }
+
+    /**
+     * @return the type of the field without its precision or scale, in lower case
+     */
+    private static String getBaseType(FieldInfo fieldInfo) {
+        if (fieldInfo.type == null) {
+            return "";
+        }
+        String type = fieldInfo.type.toLowerCase();
+        int parenthesis = type.indexOf('(');
+        return (parenthesis == -1 ? type : type.substring(0, parenthesis)).trim();
+    }
+
+    private String getStringExpression(String column) {
+        switch (dbType) {
+            case MYSQL:
+                return "CAST(" + column + " AS CHAR)";
+            case ORACLE:
+                return "TO_CHAR(" + column + ")";
+            case SQL_SERVER:
+            case PDW:
+            case AZURE:
+                return "CAST(" + column + " AS NVARCHAR(MAX))";
+            case BIGQUERY:
+            case DATABRICKS:
+                return "CAST(" + column + " AS STRING)";
+            default:
+                return "CAST(" + column + " AS VARCHAR)";
+        }
+    }
+
+    private String getTrimExpression(String value) {
+        if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE) {
+            return "LTRIM(RTRIM(" + value + "))";
+        }
+        return "TRIM(" + value + ")";
+    }
+
+    private String getLengthExpression(String value) {
+        if (dbType == DbType.SQL_SERVER || dbType == DbType.PDW || dbType == DbType.AZURE) {
+            return "LEN(" + value + ")";
+        }
+        return "LENGTH(" + value + ")";
+    }
+
+    private String getDistinctCountExpression(String column) {
+        switch (dbType) {
+            case SNOWFLAKE:
+            case BIGQUERY:
+            case DATABRICKS:
+                return "APPROX_COUNT_DISTINCT(" + column + ")";
+            case REDSHIFT:
+                return "APPROXIMATE COUNT(DISTINCT " + column + ")";
+            default:
+                return "COUNT(DISTINCT " + column + ")";
+        }
+    }
+
+    /**
+     * @return the relative standard error of the distinct counts, as documented for each database, or 0 if they are
+     * exact
+     */
+    private double getDistinctCountError() {
+        switch (dbType) {
+            case SNOWFLAKE:
+                return 0.0162;
+            case BIGQUERY:
+                return 0.0057;
+            case DATABRICKS:
+                return 0.05;
+            case REDSHIFT:
+                return 0.02;
+            default:
+                return 0;
+        }
+    }
+
+    private static double parseStatistic(String value) {
+        if (value == null || value.isEmpty()) {
+            // No values that are not NULL
+            return Double.NaN;
+        }
+        return Double.parseDouble(value);
+    }
+
+    private static long parseCount(String value) {
+        if (value == null || value.isEmpty()) {
+            // For instance the maximum length of a column that only has NULL values
+            return 0;
+        }
+        // Some databases return counts and lengths as decimals
+        return (long) Double.parseDouble(value);
+    }
+}
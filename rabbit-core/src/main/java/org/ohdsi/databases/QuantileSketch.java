@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Mergeable quantile sketch made of compactors, as in the sketches of Manku, Rajagopalan and Lindsay and their
+ * successor KLL, with deterministic compaction.
+ *
+ * <p>Values are added to a buffer at level 0. When the buffer of a level holds k items, it is sorted, and every other
+ * item is moved to the next level, where it stands for twice as many values. Which half is kept alternates between
+ * compactions. The sketch keeps k items per level, so k * log2(n / k) items for n values, and an update takes
+ * O(log k) amortized time. KLL shrinks the lower levels and picks the half at random to save space, but then its
+ * error bound only holds with high probability.
+ *
+ * <p>A compaction of level h shifts the rank of any value by at most 2^h. The sketch adds these up, so that
+ * {@link #getRankError()} is a guaranteed (not probabilistic) bound on the error of the quantiles, at most about
+ * 2 * log2(n / k) / k. Until the first compaction, all values are kept and the quartiles are exact. The count,
+ * minimum and maximum are always exact, and so are the mean and standard deviation, up to rounding.
+ */
+public class QuantileSketch implements NumericSummary {
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] levelSizes = new int[1];
+    private boolean[] keepOdd = new boolean[1];
+    private final MeanVarianceAccumulator moments = new MeanVarianceAccumulator();
+    private long count;
+    private double minimum = Double.POSITIVE_INFINITY;
+    private double maximum = Double.NEGATIVE_INFINITY;
+    private long rankError;
+
+    /**
+     * Create an empty sketch.
+     * @param k capacity of each level. The rank error of the quantiles decreases proportionally to k.
+     */
+    public QuantileSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("Sketch size k must be at least 8");
+        }
+        this.k = k;
+        levels[0] = new double[k];
+    }
+
+    @Override
+    public void add(double value) {
+        append(0, value);
+        count++;
+        moments.add(value);
+        minimum = Math.min(minimum, value);
+        maximum = Math.max(maximum, value);
+        if (levelSizes[0] >= k) {
+            compress();
+        }
+    }
+
+    @Override
+    public void merge(NumericSummary other) {
+        if (!(other instanceof QuantileSketch)) {
+            throw new IllegalArgumentException("Cannot merge a " + other.getClass().getSimpleName() + " into a quantile sketch");
+        }
+        QuantileSketch otherSketch = (QuantileSketch) other;
+        while (levels.length < otherSketch.levels.length) {
+            addLevel();
+        }
+        for (int level = 0; level < otherSketch.levels.length; level++) {
+            for (int i = 0; i < otherSketch.levelSizes[level]; i++) {
+                append(level, otherSketch.levels[level][i]);
+            }
+        }
+        count += otherSketch.count;
+        moments.merge(otherSketch.moments);
+        minimum = Math.min(minimum, otherSketch.minimum);
+        maximum = Math.max(maximum, otherSketch.maximum);
+        rankError += otherSketch.rankError;
+        compress();
+    }
+
+    private void append(int level, double value) {
+        if (levelSizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(8, levels[level].length * 2));
+        }
+        levels[level][levelSizes[level]++] = value;
+    }
+
+    private void addLevel() {
+        int level = levels.length;
+        levels = Arrays.copyOf(levels, level + 1);
+        levelSizes = Arrays.copyOf(levelSizes, level + 1);
+        keepOdd = Arrays.copyOf(keepOdd, level + 1);
+        levels[level] = new double[8];
+    }
+
+    private void compress() {
+        // Compacting a level can fill the next one, which is compacted in turn
+        for (int level = 0; level < levels.length; level++) {
+            while (levelSizes[level] >= k) {
+                compact(level);
+            }
+        }
+    }
+
+    private void compact(int level) {
+        if (level + 1 == levels.length) {
+            addLevel();
+        }
+        double[] items = levels[level];
+        int size = levelSizes[level];
+        Arrays.sort(items, 0, size);
+        // With an odd number of items, the largest one stays behind
+        int pairs = size / 2;
+        int offset = keepOdd[level] ? 1 : 0;
+        keepOdd[level] = !keepOdd[level];
+        for (int i = 0; i < pairs; i++) {
+            append(level + 1, items[2 * i + offset]);
+        }
+        if (size % 2 == 1) {
+            items[0] = items[size - 1];
+            levelSizes[level] = 1;
+        } else {
+            levelSizes[level] = 0;
+        }
+        rankError += 1L << level;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public double getPopulationMean() {
+        return moments.getMean();
+    }
+
+    @Override
+    public double getPopulationMinimum() {
+        return minimum;
+    }
+
+    @Override
+    public double getPopulationMaximum() {
+        return maximum;
+    }
+
+    @Override
+    public double getPopulationStandardDeviation() {
+        return moments.getPopulationStandardDeviation();
+    }
+
+    /**
+     * Get the quartiles of the values. Until the first compaction they are exact, interpolated as in
+     * {@link UniformSamplingReservoir}. After that, the rank of each quartile differs from the true rank by at most
+     * {@link #getRankError()} times the count.
+     * @return list with size three, of the 25, 50 and 75 percentiles.
+     */
+    @Override
+    public List<Double> getSampleQuartiles() {
+        if (rankError == 0) {
+            double[] values = Arrays.copyOf(levels[0], levelSizes[0]);
+            Arrays.sort(values);
+            return UniformSamplingReservoir.getQuartiles(values, values.length);
+        }
+
+        List<double[]> weightedItems = new ArrayList<>();
+        for (int level = 0; level < levels.length; level++) {
+            for (int i = 0; i < levelSizes[level]; i++) {
+                weightedItems.add(new double[]{levels[level][i], 1L << level});
+            }
+        }
+        weightedItems.sort(Comparator.comparingDouble(item -> item[0]));
+
+        List<Double> quartiles = new ArrayList<>(3);
+        double cumulativeWeight = 0;
+        int index = 0;
+        for (int i = 1; i <= 3; i++) {
+            double rank = i * count * 0.25d;
+            while (index < weightedItems.size() - 1 && cumulativeWeight + weightedItems.get(index)[1] < rank) {
+                cumulativeWeight += weightedItems.get(index)[1];
+                index++;
+            }
+            quartiles.add(weightedItems.get(index)[0]);
+        }
+        return quartiles;
+    }
+
+    /**
+     * Get the guaranteed bound on the error of the quantiles, as a fraction of the count: the true rank of a returned
+     * quantile differs from the requested rank by at most this fraction of all values.
+     */
+    public double getRankError() {
+        if (rankError == 0) {
+            return 0;
+        }
+        // The compactions, plus the weight of a single item at the top level
+        return (rankError + (1L << (levels.length - 1))) / (double) count;
+    }
+
+    /** Get the number of items that the sketch keeps. */
+    public int getRetainedItems() {
+        return IntStream.of(levelSizes).sum();
+    }
+}
@@ -45,6 +45,16 @@ public class QueryResult implements Iterable<Row> {
         return iterator;
     }
 
+    /**
+     * Executes the query, and returns a reader for the values of the given fields, as an alternative to iterating over
+     * the rows.
+     */
+    public RowBatchReader batchReader(List<FieldInfo> fieldInfos) {
+        DBRowIterator iterator = new DBRowIterator(sql, dbConnection, false);
+        iterators.add(iterator);
+        return new RowBatchReader(iterator, fieldInfos);
+    }
+
     public void close() {
         for (DBRowIterator iterator : iterators) {
             iterator.close();
@@ -51,6 +51,11 @@ public class RichConnection implements Closeable {
 		this.dbType = dbSettings.dbType;
 	}
 
+	public RichConnection(DBConnection connection, DbType dbType) {
+		this.connection = connection;
+		this.dbType = dbType;
+	}
+
 	/**
 	 * Execute the given SQL statement.
 	 *
@@ -70,6 +75,15 @@ public class RichConnection implements Closeable {
 		return new QueryResult(sql, connection, verbose);
 	}
 
+	/**
+	 * Set the number of rows fetched from the database at a time by queries, 0 for the default of the JDBC driver.
+	 *
+	 * @param fetchSize
+	 */
+	public void setFetchSize(int fetchSize) {
+		connection.setFetchSize(fetchSize);
+	}
+
 	/**
 	 * Switch the database to use.
 	 *
@@ -91,6 +105,26 @@ public class RichConnection implements Closeable {
 		return this.connection.fetchRowsFromTable(table, rowCount, scanParameters);
 	}
 
+	public void scanRowsFromTable(String table, long rowCount, ScanParameters scanParameters, DBConnection.SampleScanner scanner) throws InterruptedException {
+		this.connection.scanRowsFromTable(table, rowCount, scanParameters, scanner);
+	}
+
+	public QueryResult fetchRowsFromTable(String table, TablePartition partition) {
+		return this.connection.fetchRowsFromTable(table, partition);
+	}
+
+	public List<TablePartition> createTablePartitions(String table, List<FieldInfo> fieldInfos, int count) {
+		return this.connection.createTablePartitions(table, fieldInfos, count);
+	}
+
+	public boolean supportsPushDownProfiling() {
+		return this.connection.supportsPushDownProfiling();
+	}
+
+	public void profileTable(String table, List<FieldInfo> fieldInfos, ScanParameters scanParameters) {
+		this.connection.profileTable(table, fieldInfos, scanParameters);
+	}
+
 	/**
 	 * Returns the row count of the specified table.
 	 * 
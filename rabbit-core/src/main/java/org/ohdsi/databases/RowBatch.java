@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+/**
+ * A batch of rows stored column by column, in the order of a table's list of FieldInfo objects.
+ *
+ * <p>Batches are used to hand over the values read from a source to the threads that profile them. Once a batch
+ * has been handed over, it should not be modified by the reader anymore.
+ */
+public class RowBatch {
+    // Number of rows per batch used by the scan, enough to keep the overhead per batch small
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final String[][] columns;
+    private final int capacity;
+    private int size = 0;
+
+    public RowBatch(int nColumns, int capacity) {
+        this.columns = new String[nColumns][capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the value of a column in the row after the last row. The row is added by {@link #endRow()}.
+     */
+    void set(int column, String value) {
+        columns[column][size] = value;
+    }
+
+    void endRow() {
+        size++;
+    }
+
+    public String[] getColumn(int column) {
+        return columns[column];
+    }
+
+    public String get(int column, int row) {
+        return columns[column][row];
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
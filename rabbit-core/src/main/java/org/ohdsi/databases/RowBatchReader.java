@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the rows of a query result into {@link RowBatch} objects, in the order of a table's list of FieldInfo objects.
+ *
+ * <p>The columns of the fields are looked up once, when the reader is created, and the values are copied straight
+ * into the columns of the batch. Unlike iterating over the {@link org.ohdsi.utilities.files.Row} objects of a
+ * QueryResult, this creates no objects per row apart from the values themselves, so batches can be reused.
+ */
+public class RowBatchReader {
+    private final DBRowIterator iterator;
+    private final int[] columns;
+
+    RowBatchReader(DBRowIterator iterator, List<FieldInfo> fieldInfos) {
+        this.iterator = iterator;
+        List<String> names = new ArrayList<>(fieldInfos.size());
+        for (FieldInfo fieldInfo : fieldInfos) {
+            names.add(fieldInfo.name);
+        }
+        this.columns = iterator.findColumns(names);
+    }
+
+    /**
+     * Adds the values of the next rows to the batch, until the batch is full, maxRows rows have been added, or no rows
+     * are left.
+     * @return the number of rows added, 0 if no rows are left (or the batch is full)
+     */
+    public int read(RowBatch batch, int maxRows) {
+        return iterator.readBatch(batch, columns, maxRows);
+    }
+
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+}
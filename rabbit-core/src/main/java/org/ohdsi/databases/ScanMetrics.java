@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the timings of a scan, table by table (see {@link TableScanMetrics}).
+ *
+ * <p>While a scan runs, the totals can be followed live with a JMX client such as JConsole or VisualVM, under the
+ * name {@value #OBJECT_NAME}, once {@link #register()} has been called.
+ */
+public class ScanMetrics implements ScanMetricsMBean {
+    static Logger logger = LoggerFactory.getLogger(ScanMetrics.class);
+
+    public static final String OBJECT_NAME = "org.ohdsi.whiterabbit:type=ScanMetrics";
+
+    private final long startNanos = System.nanoTime();
+    private final List<TableScanMetrics> tables = new ArrayList<>();
+    private ObjectName objectName;
+
+    /**
+     * Starts collecting the metrics of a table. Can be called from multiple threads.
+     */
+    public synchronized TableScanMetrics startTable(String table) {
+        TableScanMetrics tableScanMetrics = new TableScanMetrics(table);
+        tables.add(tableScanMetrics);
+        return tableScanMetrics;
+    }
+
+    /**
+     * @return the metrics of the tables, in the order in which they were started
+     */
+    public synchronized List<TableScanMetrics> getTables() {
+        return new ArrayList<>(tables);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server. A failure to do so is logged, as the scan does not
+     * depend on it.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // e.g. left behind by a scan that was started earlier in the same application
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            logger.warn("Could not register the scan metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.warn("Could not unregister the scan metrics MBean: {}", e.getMessage());
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public int getTablesStarted() {
+        return getTables().size();
+    }
+
+    @Override
+    public int getTablesFinished() {
+        return (int) getTables().stream().filter(TableScanMetrics::isFinished).count();
+    }
+
+    @Override
+    public String[] getTablesInProgress() {
+        return getTables().stream()
+                .filter(table -> !table.isFinished())
+                .map(TableScanMetrics::getTable)
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public long getRowsProcessed() {
+        return getTables().stream().mapToLong(TableScanMetrics::getRows).sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return getTables().stream().mapToLong(TableScanMetrics::getBytes).sum();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return elapsedNanos == 0 ? 0 : getRowsProcessed() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String[] getTableSummaries() {
+        return getTables().stream().map(TableScanMetrics::toString).toArray(String[]::new);
+    }
+}
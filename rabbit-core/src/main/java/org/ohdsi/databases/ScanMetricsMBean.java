@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+/**
+ * The attributes of a running scan that are exposed over JMX by {@link ScanMetrics}.
+ */
+public interface ScanMetricsMBean {
+    long getElapsedMillis();
+
+    int getTablesStarted();
+
+    int getTablesFinished();
+
+    String[] getTablesInProgress();
+
+    long getRowsProcessed();
+
+    long getBytesRead();
+
+    double getRowsPerSecond();
+
+    /**
+     * @return a one line summary of the timings of every table started so far
+     */
+    String[] getTableSummaries();
+}
@@ -31,8 +31,20 @@ public interface ScanParameters {
 
     public int getSampleSize();
 
+    public boolean doApproximateValueCounts();
+
+    public boolean doFingerprintValueCounts();
+
+    public boolean doUseQuantileSketch();
+
+    /**
+     * @return the memory budget shared by all fields of the scan, or null if there is none
+     */
+    public HeapBudget getHeapBudget();
+
     public static int	MAX_VALUES_IN_MEMORY				= 100000;
     public static int	MIN_CELL_COUNT_FOR_CSV				= 1000000;
     public static int	N_FOR_FREE_TEXT_CHECK				= 1000;
     public static int	MIN_AVERAGE_LENGTH_FOR_FREE_TEXT	= 100;
+    public static int	APPROXIMATE_VALUE_COUNTS_FACTOR		= 10;
 }
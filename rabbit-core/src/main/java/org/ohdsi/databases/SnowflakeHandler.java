@@ -108,7 +108,20 @@ public enum SnowflakeHandler implements JdbcStorageHandler {
     }
 
     public String getRowSampleQuery(String tableName, long rowCount, long sampleSize) {
-        return String.format("SELECT * FROM %s ORDER BY RANDOM() LIMIT %s", resolveTableName(tableName), sampleSize);
+        return getRowSampleQueryStaticForResolvedTableName(resolveTableName(tableName), rowCount, sampleSize);
+    }
+
+    // A fixed-size sample of rows, so that the rows do not have to be sorted in a random order to pick the sample
+    public static String getRowSampleQueryStaticForResolvedTableName(String tableName, long rowCount, long sampleSize) {
+        if (sampleSize < 0 || sampleSize >= rowCount) {
+            return String.format("SELECT * FROM %s", tableName);
+        }
+        return String.format("SELECT * FROM %s SAMPLE (%d ROWS)", tableName, sampleSize);
+    }
+
+    @Override
+    public String getTableReference(String tableName) {
+        return resolveTableName(tableName);
     }
 
     private String resolveTableName(String tableName) {
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One of the partitions a table is split into, so that it can be read over several connections at the same time.
+ * A partition is either a range of values of an integer key column, or the set of rows for which the key column
+ * modulo the number of partitions equals the index of the partition. Rows with a NULL key always belong to the first
+ * partition, so that together the partitions cover every row of the table exactly once.
+ */
+public class TablePartition {
+    private static final Set<String> INTEGER_TYPES = new HashSet<>(Arrays.asList(
+            "int", "integer", "bigint", "smallint", "tinyint", "mediumint", "int2", "int4", "int8", "int64",
+            "serial", "bigserial", "i", "i1", "i2", "i8"));
+
+    private final String column;
+    private final int index;
+    private final int count;
+    private final Long lowerBound;
+    private final Long upperBound;
+
+    private TablePartition(String column, int index, int count, Long lowerBound, Long upperBound) {
+        this.column = column;
+        this.index = index;
+        this.count = count;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    /**
+     * Split the values of a column into at most count ranges of (about) equal width. The first range is unbounded
+     * below and the last one unbounded above, so rows outside the given minimum and maximum are not lost.
+     */
+    public static List<TablePartition> byRange(String column, long minimum, long maximum, int count) {
+        double width = ((double) maximum - (double) minimum) / count;
+        List<Long> boundaries = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            long boundary = minimum + (long) Math.ceil(width * i);
+            if (boundary > minimum && boundary <= maximum && (boundaries.isEmpty() || boundary > boundaries.get(boundaries.size() - 1))) {
+                boundaries.add(boundary);
+            }
+        }
+
+        List<TablePartition> partitions = new ArrayList<>();
+        int nPartitions = boundaries.size() + 1;
+        for (int i = 0; i < nPartitions; i++) {
+            Long lowerBound = i == 0 ? null : boundaries.get(i - 1);
+            Long upperBound = i == nPartitions - 1 ? null : boundaries.get(i);
+            partitions.add(new TablePartition(column, i, nPartitions, lowerBound, upperBound));
+        }
+        return partitions;
+    }
+
+    /**
+     * Split the rows of a table on the value of a column modulo count.
+     */
+    public static List<TablePartition> byModulo(String column, int count) {
+        List<TablePartition> partitions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            partitions.add(new TablePartition(column, i, count, null, null));
+        }
+        return partitions;
+    }
+
+    /**
+     * @return true if a column of the given (database specific) type can be used as partitioning key
+     */
+    public static boolean isPartitionKeyType(String type) {
+        return type != null && INTEGER_TYPES.contains(type.trim().toLowerCase());
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isRange() {
+        return lowerBound != null || upperBound != null;
+    }
+
+    /** Inclusive lower bound of the range, or null if the range is unbounded below. */
+    public Long getLowerBound() {
+        return lowerBound;
+    }
+
+    /** Exclusive upper bound of the range, or null if the range is unbounded above. */
+    public Long getUpperBound() {
+        return upperBound;
+    }
+
+    @Override
+    public String toString() {
+        return "partition " + (index + 1) + " of " + count + " on " + column;
+    }
+}
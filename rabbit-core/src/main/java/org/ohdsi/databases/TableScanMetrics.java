@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The timings of the scan of a single table, collected by {@link ScanMetrics}. All methods can be called from
+ * multiple threads, e.g. by the scans of the partitions of a table.
+ *
+ * <p>The time spent reading rows and profiling them is measured by the thread that reads the rows: fetch time is
+ * the time spent waiting for the next row (or batch of rows), and profiling time is everything in between. Timings
+ * that were not measured, such as the row count query for a delimited text file, are reported as -1.
+ */
+public class TableScanMetrics {
+    private final String table;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = -1;
+    private final AtomicLong metadataNanos = new AtomicLong(-1);
+    private final AtomicLong countNanos = new AtomicLong(-1);
+    private final AtomicLong firstRowNanos = new AtomicLong(-1);
+    private final LongAdder fetchNanos = new LongAdder();
+    private final LongAdder profilingNanos = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean rowsTimed = false;
+
+    TableScanMetrics(String table) {
+        this.table = table;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public void addMetadataTime(long nanos) {
+        metadataNanos.accumulateAndGet(nanos, TableScanMetrics::addTime);
+    }
+
+    public void addCountTime(long nanos) {
+        countNanos.accumulateAndGet(nanos, TableScanMetrics::addTime);
+    }
+
+    private static long addTime(long total, long nanos) {
+        return total < 0 ? nanos : total + nanos;
+    }
+
+    /**
+     * Records that rows were fetched.
+     *
+     * @param nRows      the number of rows
+     * @param sinceNanos the System.nanoTime() at which the reader started waiting for them
+     * @return the current System.nanoTime(), to be passed to {@link #profiled}
+     */
+    public long fetched(int nRows, long sinceNanos) {
+        long now = System.nanoTime();
+        rowsTimed = true;
+        firstRowNanos.compareAndSet(-1, now - sinceNanos);
+        fetchNanos.add(now - sinceNanos);
+        rows.add(nRows);
+        return now;
+    }
+
+    /**
+     * Records that fetched rows were profiled (or handed over to be profiled).
+     *
+     * @param sinceNanos the System.nanoTime() returned by {@link #fetched}
+     * @return the current System.nanoTime(), to be passed to the next call of {@link #fetched}
+     */
+    public long profiled(long sinceNanos) {
+        long now = System.nanoTime();
+        profilingNanos.add(now - sinceNanos);
+        return now;
+    }
+
+    /**
+     * Adds rows that were read without timing them separately, e.g. from a file.
+     */
+    public void addRows(long nRows) {
+        rows.add(nRows);
+    }
+
+    public void addBytes(long nBytes) {
+        bytes.add(nBytes);
+    }
+
+    public void finish() {
+        if (endNanos == -1) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    public boolean isFinished() {
+        return endNanos != -1;
+    }
+
+    public long getMetadataMillis() {
+        return toMillis(metadataNanos.get());
+    }
+
+    public long getCountMillis() {
+        return toMillis(countNanos.get());
+    }
+
+    public long getFirstRowMillis() {
+        return toMillis(firstRowNanos.get());
+    }
+
+    public long getFetchMillis() {
+        return rowsTimed ? toMillis(fetchNanos.sum()) : -1;
+    }
+
+    public long getProfilingMillis() {
+        return rowsTimed ? toMillis(profilingNanos.sum()) : -1;
+    }
+
+    public long getTotalMillis() {
+        return toMillis(getElapsedNanos());
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * @return the number of bytes read, counted as the total length of the (non-empty) values that were profiled
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public double getRowsPerSecond() {
+        long elapsedNanos = getElapsedNanos();
+        return elapsedNanos == 0 ? 0 : getRows() * 1e9 / elapsedNanos;
+    }
+
+    private long getElapsedNanos() {
+        long end = endNanos;
+        return (end == -1 ? System.nanoTime() : end) - startNanos;
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d rows in %d ms (%.0f rows/s, %d bytes); metadata %d ms, count %d ms, first row %d ms, fetch %d ms, profiling %d ms%s",
+                table, getRows(), getTotalMillis(), getRowsPerSecond(), getBytes(), getMetadataMillis(), getCountMillis(),
+                getFirstRowMillis(), getFetchMillis(), getProfilingMillis(), isFinished() ? "" : " (in progress)");
+    }
+}
@@ -20,8 +20,6 @@ package org.ohdsi.databases;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -34,16 +32,16 @@ import java.util.concurrent.ThreadLocalRandom;
  *
  * <p>The maximum size of the reservoir can be increased to get more accurate quartile estimations.
  * As long as the number of samples is lower than the maximum size of the reservoir, the quartiles
- * are computed exactly. Otherwise they are an estimate. The minimum, maximum and average are always
- * calculated exactly.
+ * are computed exactly. Otherwise they are an estimate. The minimum, maximum, average and population
+ * standard deviation are always calculated exactly.
  */
-public class UniformSamplingReservoir {
+public class UniformSamplingReservoir implements NumericSummary {
     static Logger logger = LoggerFactory.getLogger(UniformSamplingReservoir.class);
 
     private double[] samples;
     private int maxSize;
     private long populationCount;
-    private BigDecimal populationSum;
+    private MeanVarianceAccumulator populationMoments;
     private double populationMinimum = Double.POSITIVE_INFINITY;
     private double populationMaximum = Double.NEGATIVE_INFINITY;
     private int currentSampleLength;
@@ -59,12 +57,13 @@ public class UniformSamplingReservoir {
         }
         this.maxSize = maxSize;
         this.samples = new double[maxSize];
-        this.populationSum = new BigDecimal(0);
+        this.populationMoments = new MeanVarianceAccumulator();
         this.populationCount = 0;
         this.currentSampleLength = 0;
     }
 
     /** Add a sample to the reservoir. */
+    @Override
     public void add(double value) {
         if (currentSampleLength == maxSize) {
             long removeIndex = ThreadLocalRandom.current().nextLong(populationCount);
@@ -76,12 +75,68 @@ public class UniformSamplingReservoir {
             currentSampleLength++;
         }
 
-        populationSum = populationSum.add(new BigDecimal(value));
+        populationMoments.add(value);
         populationMinimum = Math.min(value, populationMinimum);
         populationMaximum = Math.max(value, populationMaximum);
         populationCount++;
     }
 
+    /**
+     * Merge another reservoir into this one, as if the values added to the other reservoir had been added to this one.
+     * The population count, sum, minimum and maximum are combined exactly. The merged samples are a uniform sample
+     * of the combined population: the number of samples taken from each reservoir is drawn from a hypergeometric
+     * distribution weighted by the population counts, and those samples are picked at random from each reservoir.
+     * @param other reservoir to merge into this one. It is not modified.
+     */
+    @Override
+    public void merge(NumericSummary other) {
+        if (!(other instanceof UniformSamplingReservoir)) {
+            throw new IllegalArgumentException("Cannot merge a " + other.getClass().getSimpleName() + " into a reservoir");
+        }
+        merge((UniformSamplingReservoir) other);
+    }
+
+    public void merge(UniformSamplingReservoir other) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long remainingThis = populationCount;
+        long remaining = populationCount + other.populationCount;
+        int newLength = (int) Math.min(maxSize, remaining);
+        int fromThis = 0;
+        for (int i = 0; i < newLength; i++) {
+            if (random.nextLong(remaining) < remainingThis) {
+                fromThis++;
+                remainingThis--;
+            }
+            remaining--;
+        }
+        int fromOther = Math.min(newLength - fromThis, other.currentSampleLength);
+
+        double[] merged = new double[maxSize];
+        pickRandomSamples(samples, currentSampleLength, fromThis, merged, 0);
+        pickRandomSamples(other.samples, other.currentSampleLength, fromOther, merged, fromThis);
+        currentSampleLength = fromThis + fromOther;
+        Arrays.sort(merged, 0, currentSampleLength);
+        samples = merged;
+
+        populationMoments.merge(other.populationMoments);
+        populationMinimum = Math.min(populationMinimum, other.populationMinimum);
+        populationMaximum = Math.max(populationMaximum, other.populationMaximum);
+        populationCount += other.populationCount;
+    }
+
+    private static void pickRandomSamples(double[] source, int sourceLength, int count, double[] target, int targetOffset) {
+        // Partial Fisher-Yates shuffle on a copy, so the source stays sorted
+        double[] candidates = Arrays.copyOf(source, sourceLength);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(sourceLength - i);
+            double swap = candidates[j];
+            candidates[j] = candidates[i];
+            candidates[i] = swap;
+            target[targetOffset + i] = swap;
+        }
+    }
+
     private void removeAndAdd(int removeIndex, double value) {
         int addIndex = Arrays.binarySearch(samples, 0, currentSampleLength, value);
         if (addIndex < 0) {
@@ -115,7 +170,16 @@ public class UniformSamplingReservoir {
      * the maximum size of the reservoir, this will be an estimate.
      * @return list with size three, of the 25, 50 and 75 percentiles.
      */
+    @Override
     public List<Double> getSampleQuartiles() {
+        return getQuartiles(samples, currentSampleLength);
+    }
+
+    /**
+     * Get the quartiles of sorted values, interpolating between the values around each quartile.
+     * @return list with size three, of the 25, 50 and 75 percentiles.
+     */
+    static List<Double> getQuartiles(double[] samples, int currentSampleLength) {
         List<Double> quartiles = new ArrayList<>(3);
 
         switch (currentSampleLength) {
@@ -154,8 +218,7 @@ public class UniformSamplingReservoir {
     }
 
     /**
-     * Get the standard deviation of the underlying distribution. If the number of samples is larger than
-     * the maximum size of the reservoir, this will be an estimate.
+     * Get the standard deviation of the underlying distribution, estimated from the samples.
      * @return double standard deviation
      */
     public double getSampleStandardDeviation() {
@@ -164,18 +227,22 @@ public class UniformSamplingReservoir {
         return Math.sqrt(varianceSum / (currentSampleLength-1));
     }
 
+    @Override
     public double getPopulationMean() {
-        if (populationCount == 0) {
-            return Double.NaN;
-        }
-        BigDecimal popCount = BigDecimal.valueOf(populationCount);
-        return populationSum.divide(popCount, populationSum.scale() + popCount.precision(), RoundingMode.HALF_UP).doubleValue();
+        return populationMoments.getMean();
+    }
+
+    @Override
+    public double getPopulationStandardDeviation() {
+        return populationMoments.getPopulationStandardDeviation();
     }
 
+    @Override
     public double getPopulationMinimum() {
         return populationMinimum;
     }
 
+    @Override
     public double getPopulationMaximum() {
         return populationMaximum;
     }
@@ -195,6 +262,7 @@ public class UniformSamplingReservoir {
     }
 
     /** Get the number of samples that are being represented by the reservoir. */
+    @Override
     public long getCount() {
         return populationCount;
     }
@@ -237,12 +305,13 @@ public class UniformSamplingReservoir {
             logger.info(us.getSamples().toString());
             logger.info(String.valueOf(us.getCount()));
             logger.info(us.getSampleQuartiles().toString());
-            logger.info(String.valueOf(us.populationSum.doubleValue()));
+            logger.info(String.valueOf(us.populationMoments.getSum()));
             logger.info(String.valueOf(us.getPopulationMean()));
             logger.info(String.valueOf(us.getPopulationMinimum()));
             logger.info(String.valueOf(us.getPopulationMaximum()));
             logger.info(String.valueOf(us.getSampleMean()));
             logger.info(String.valueOf(us.getSampleStandardDeviation()));
+            logger.info(String.valueOf(us.getPopulationStandardDeviation()));
         }
     }
 }
\ No newline at end of file
@@ -17,30 +17,165 @@
  ******************************************************************************/
 package org.ohdsi.utilities;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public class DateUtilities {
     /**
-     * Parses a date to millis. Copies behaviour of StringUtilities.isDate()
-     * Two recognised date formats:
-     *  - yyyy*dd*MM
-     *  - MM*dd*yy
+     * Returned by {@link #toEpochDay} for a value that is not a date.
+     */
+    public static final long NOT_A_DATE = Long.MIN_VALUE;
+
+    private static final long DAYS_0000_TO_1970 = 719528;
+    private static final int MAX_YEAR = 999_999_999;
+
+    /**
+     * Parses a date to the number of days since 1970-01-01. Accepts the same dates as StringUtilities.isDate().
      * If the time included, the value is NOT recognised as a date.
      * @param dateString value to be parsed
-     * @return long date as time in millis
+     * @return long date as epoch day
+     * @throws DateTimeParseException if the value is not a date
      */
     public static long parseDate(String dateString) {
-        String pattern = "";
-        if (dateString.length() == 10) {
-            char separator = dateString.charAt(4);
-            pattern = "yyyy" + separator + "MM" + separator + "dd";
-        } else if (dateString.length() == 8) {
-            char separator = dateString.charAt(2);
-            pattern = "MM" + separator + "dd" + separator + "yy";
+        long epochDay = toEpochDay(dateString);
+        if (epochDay == NOT_A_DATE) {
+            throw new DateTimeParseException("Text '" + dateString + "' is not a recognised date", dateString, 0);
+        }
+        return epochDay;
+    }
+
+    /**
+     * Recognises a date in one of the formats of StringUtilities.isDate(), and converts it to an epoch day without
+     * creating any objects.
+     *
+     * <p>A date consists of a year, month and day, separated by the same separator, one of "/", ".", "-" or " ". The
+     * parts may be in the order year-month-day, day-month-year or month-day-year, and the year has 2 digits (20xx) or
+     * 4 digits (or more digits after a "+"). The first interpretation that gives a valid date is used, trying the
+     * three orders with a 2 digit year first, and then with a 4 digit year. This is the order in which the
+     * formats were tried with DateTimeFormatter, and it gives the same results: a day that does not exist in its month
+     * (e.g. 2023-02-30) is moved back to the last day of the month, like the SMART resolver does.
+     *
+     * @param value value to be recognised
+     * @return the epoch day, or {@link #NOT_A_DATE}
+     */
+    public static long toEpochDay(String value) {
+        int length = value.length();
+        char separator = 0;
+        int end1 = -1;
+        int end2 = -1;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '+') {
+                continue;
+            }
+            if (c != '/' && c != '.' && c != '-' && c != ' ') {
+                return NOT_A_DATE;
+            }
+            if (separator == 0) {
+                separator = c;
+                end1 = i;
+            } else if (c == separator && end2 == -1) {
+                end2 = i;
+            } else {
+                return NOT_A_DATE;
+            }
+        }
+        if (end2 == -1) {
+            return NOT_A_DATE;
+        }
+
+        long part1 = parsePart(value, 0, end1);
+        long part2 = parsePart(value, end1 + 1, end2);
+        long part3 = parsePart(value, end2 + 1, length);
+        if (part1 == -1 || part2 == -1 || part3 == -1) {
+            return NOT_A_DATE;
         }
+        if (value.charAt(end1 + 1) == '+') {
+            // the middle part is always a month or day, which cannot have a sign
+            return NOT_A_DATE;
+        }
+        // the lengths include a leading "+"
+        int length1 = end1;
+        int length3 = length - end2 - 1;
+        boolean plus1 = value.charAt(0) == '+';
+        boolean plus3 = value.charAt(end2 + 1) == '+';
 
-        LocalDate localDate = LocalDate.from(DateTimeFormatter.ofPattern(pattern).parse(dateString));
-        return localDate.toEpochDay();
+        // 2 digit years
+        if (!plus1 && length1 == 2 && isMonthOrDay(part2, 12) && !plus3 && isMonthOrDay(part3, 31)) {
+            return epochDay(2000 + part1, part2, part3); // yy.M.d
+        }
+        if (!plus3 && length3 == 2 && !plus1) {
+            if (isMonthOrDay(part1, 31) && isMonthOrDay(part2, 12)) {
+                return epochDay(2000 + part3, part2, part1); // d.M.yy
+            }
+            if (isMonthOrDay(part1, 12) && isMonthOrDay(part2, 31)) {
+                return epochDay(2000 + part3, part1, part2); // M.d.yy
+            }
+        }
+        // 4 digit years
+        if (isLongYear(plus1, length1, part1) && isMonthOrDay(part2, 12) && !plus3 && isMonthOrDay(part3, 31)) {
+            return epochDay(part1, part2, part3); // yyyy.M.d
+        }
+        if (isLongYear(plus3, length3, part3) && !plus1) {
+            if (isMonthOrDay(part1, 31) && isMonthOrDay(part2, 12)) {
+                return epochDay(part3, part2, part1); // d.M.yyyy
+            }
+            if (isMonthOrDay(part1, 12) && isMonthOrDay(part2, 31)) {
+                return epochDay(part3, part1, part2); // M.d.yyyy
+            }
+        }
+        return NOT_A_DATE;
+    }
+
+    /*
+     * Returns the value of 1 to 19 digits, optionally preceded by a "+", as a number of at most MAX_YEAR + 1, or -1 if
+     * the part is not a number. The plus sign is only valid for long years, so it is checked by the caller.
+     */
+    private static long parsePart(String value, int start, int end) {
+        if (start < end && value.charAt(start) == '+') {
+            start++;
+        }
+        if (start == end || end - start > 19) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '+') {
+                return -1;
+            }
+            number = Math.min(number * 10 + (c - '0'), MAX_YEAR + 1);
+        }
+        return number;
+    }
+
+    private static boolean isMonthOrDay(long part, int max) {
+        // a month or day may have any number of digits, e.g. 001
+        return part >= 1 && part <= max;
+    }
+
+    private static boolean isLongYear(boolean plus, int length, long part) {
+        // 4 digits, or more digits after a "+" (as the year is printed when it exceeds 4 digits)
+        boolean valid = plus ? length > 5 : length == 4;
+        return valid && part >= 1 && part <= MAX_YEAR;
+    }
+
+    private static long epochDay(long year, long month, long day) {
+        boolean leap = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+        if (month == 4 || month == 6 || month == 9 || month == 11) {
+            day = Math.min(day, 30);
+        } else if (month == 2) {
+            day = Math.min(day, leap ? 29 : 28);
+        }
+        // see LocalDate.toEpochDay(), for positive years
+        long total = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!leap) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
     }
 }
@@ -20,4 +20,5 @@ package org.ohdsi.utilities;
 public interface ScanSheetName {
     String FIELD_OVERVIEW = "Field Overview"; // RiaH requires this is the first sheet in the workbook
     String TABLE_OVERVIEW = "Table Overview";
+    String TIMING = "_timing"; // timings of the scan, next to the "_" sheet with the scan settings
 }
@@ -24,7 +24,6 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.zip.DataFormatException;
 
@@ -43,33 +42,6 @@ public class StringUtilities {
 	
 	private static Calendar	calendar		= new GregorianCalendar();
 
-	private static List<String> dateFormats = generateDateFormats();
-
-	private static List<String> generateDateFormats(){
-		List<String> formats = new ArrayList<>();
-		String[] yearFormats = new String[]{"yy", "yyyy"};
-		String[] monthFormats = new String[]{"M", "MM"};
-		String[] dayFormats = new String[]{"d", "dd"};
-
-		String[] separatorFormats = new String[]{"/", ".", "-", " "};
-
-		for (String sep : separatorFormats){
-			for (String year : yearFormats){
-				for (String month : monthFormats){
-					for (String day : dayFormats){
-						// YMD
-						formats.add(year + sep + month + sep + day);
-						//DMY
-						formats.add(day + sep + month + sep + year);
-						//MDY
-						formats.add(month + sep + day + sep + year);
-					}
-				}
-			}
-		}
-		return formats;
-	}
-
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public static String joinSorted(Collection<? extends Comparable> s, String delimiter) {
 		List list = new ArrayList(s);
@@ -859,15 +831,12 @@ public class StringUtilities {
 	}
 
 
+	/**
+	 * Recognises dates as year-month-day, day-month-year or month-day-year, with a 2 or 4 digit year and "/", ".", "-"
+	 * or " " as separator. See DateUtilities.toEpochDay().
+	 */
 	public static boolean isDate(String string) {
-		for (String dateFormat : dateFormats){
-			DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(dateFormat);
-			try {
-				dateFormatter.parse(string);
-				return true;
-			} catch (Exception ignored){}
-		}
-		return false;
+		return string != null && DateUtilities.toEpochDay(string) != DateUtilities.NOT_A_DATE;
 	}
 
 	public static int numericOptionToInt(String option) {
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities;
+
+/**
+ * Decides in a single pass over a value whether it can be an integer, a real number and/or a date, without the
+ * exceptions thrown by {@link Long#parseLong}, {@link Double#parseDouble} and the date parsers for values that are
+ * not.
+ *
+ * <p>The outcome is the same as that of {@link StringUtilities#isLong}, {@link StringUtilities#isNumber} and
+ * {@link StringUtilities#isDate}. The rare values that need the full grammar of those methods (e.g. "NaN", hexadecimal
+ * numbers or non-ASCII digits) are handed to them. A value that consists of digits and date separators only is a date
+ * candidate, and is checked with {@link DateUtilities#toEpochDay}.
+ *
+ * <p>An instance holds the number or date parsed from the last value that was classified, and is therefore not thread
+ * safe.
+ */
+public class ValueClassifier {
+	public static final int INTEGER = 1;
+	public static final int REAL = 2;
+	public static final int DATE = 4;
+
+	// States of the decimal number grammar
+	private static final int MANTISSA = 0;
+	private static final int FRACTION = 1;
+	private static final int EXPONENT = 2;
+	private static final int EXPONENT_SIGN = 3;
+	private static final int EXPONENT_DIGITS = 4;
+	private static final int SUFFIX = 5;
+	private static final int INVALID = 6;
+
+	private String value;
+	private double number;
+	private boolean numberParsed;
+	private long epochDay;
+
+	/**
+	 * Classifies a trimmed, non-empty value.
+	 *
+	 * @param value      the value
+	 * @param candidates the types to check for, a combination of {@link #INTEGER}, {@link #REAL} and {@link #DATE}
+	 * @return the candidate types that the value qualifies for
+	 */
+	public int classify(String value, int candidates) {
+		this.value = value;
+		this.numberParsed = false;
+		int length = value.length();
+
+		boolean dateCandidate = (candidates & DATE) != 0;
+		int state = (candidates & (INTEGER | REAL)) != 0 ? MANTISSA : INVALID;
+		boolean negative = false;
+		boolean decimalPoint = false;
+		int mantissaDigits = 0;
+		// accumulated negatively, like Long.parseLong does, so that Long.MIN_VALUE fits
+		long integer = 0;
+		boolean overflow = false;
+
+		for (int i = 0; i < length && (state != INVALID || dateCandidate); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				return classifyFully(candidates);
+			}
+			boolean digit = c >= '0' && c <= '9';
+			if (dateCandidate && !digit && c != '/' && c != '.' && c != '-' && c != ' ' && c != '+') {
+				dateCandidate = false;
+			}
+			switch (state) {
+				case MANTISSA:
+					if (digit) {
+						mantissaDigits++;
+						if (!overflow) {
+							long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+							int digitValue = c - '0';
+							if (integer < limit / 10 || integer * 10 < limit + digitValue) {
+								overflow = true;
+							} else {
+								integer = integer * 10 - digitValue;
+							}
+						}
+					} else if (i == 0 && (c == '+' || c == '-')) {
+						negative = c == '-';
+					} else if (c == '.') {
+						decimalPoint = true;
+						state = FRACTION;
+					} else if (mantissaDigits == 0 && (c == 'N' || c == 'I')) {
+						// NaN or Infinity
+						return classifyFully(candidates);
+					} else if (mantissaDigits == 1 && (c == 'x' || c == 'X')) {
+						// hexadecimal floating point
+						return classifyFully(candidates);
+					} else {
+						state = afterMantissa(c, mantissaDigits);
+					}
+					break;
+				case FRACTION:
+					if (digit) {
+						mantissaDigits++;
+					} else {
+						state = afterMantissa(c, mantissaDigits);
+					}
+					break;
+				case EXPONENT:
+					state = digit ? EXPONENT_DIGITS : (c == '+' || c == '-') ? EXPONENT_SIGN : INVALID;
+					break;
+				case EXPONENT_SIGN:
+					state = digit ? EXPONENT_DIGITS : INVALID;
+					break;
+				case EXPONENT_DIGITS:
+					state = digit ? EXPONENT_DIGITS : isSuffix(c) ? SUFFIX : INVALID;
+					break;
+				default:
+					state = INVALID;
+			}
+		}
+
+		int result = 0;
+		boolean real = mantissaDigits > 0 && (state == MANTISSA || state == FRACTION || state == EXPONENT_DIGITS || state == SUFFIX);
+		if (real && (candidates & REAL) != 0) {
+			result |= REAL;
+		}
+		if (real && state == MANTISSA && !decimalPoint && !overflow) {
+			if ((candidates & INTEGER) != 0) {
+				result |= INTEGER;
+			}
+			// -0 is -0.0 for Double.parseDouble
+			number = negative ? (integer == 0 ? -0.0 : integer) : -integer;
+			numberParsed = true;
+		}
+		if (dateCandidate && isDate()) {
+			result |= DATE;
+		}
+		return result;
+	}
+
+	private static int afterMantissa(char c, int mantissaDigits) {
+		if (mantissaDigits == 0) {
+			return INVALID;
+		} else if (c == 'e' || c == 'E') {
+			return EXPONENT;
+		} else if (isSuffix(c)) {
+			return SUFFIX;
+		} else {
+			return INVALID;
+		}
+	}
+
+	private static boolean isSuffix(char c) {
+		return c == 'f' || c == 'F' || c == 'd' || c == 'D';
+	}
+
+	private int classifyFully(int candidates) {
+		int result = 0;
+		if ((candidates & INTEGER) != 0 && StringUtilities.isLong(value)) {
+			result |= INTEGER;
+		}
+		if ((candidates & REAL) != 0 && StringUtilities.isNumber(value)) {
+			result |= REAL;
+		}
+		if ((candidates & DATE) != 0 && isDate()) {
+			result |= DATE;
+		}
+		return result;
+	}
+
+	private boolean isDate() {
+		epochDay = DateUtilities.toEpochDay(value);
+		return epochDay != DateUtilities.NOT_A_DATE;
+	}
+
+	/**
+	 * @return the number of the last value that was classified as {@link #INTEGER} or {@link #REAL}. Integers are
+	 * converted while classifying, other numbers are only parsed when asked for.
+	 */
+	public double getNumber() {
+		if (!numberParsed) {
+			number = Double.parseDouble(value);
+			numberParsed = true;
+		}
+		return number;
+	}
+
+	/**
+	 * @return the date of the last value that was classified as {@link #DATE}, as the number of days since 1970-01-01
+	 */
+	public long getEpochDay() {
+		return epochDay;
+	}
+}
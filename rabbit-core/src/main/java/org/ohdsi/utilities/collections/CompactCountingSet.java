@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Counting set that keeps its keys and counts in two parallel arrays instead of a HashMap with a
+ * {@link CountingSet.Count} per key. The keys are kept in the order in which they were first added, and are found
+ * through an open addressing table of indices into the arrays.
+ *
+ * <p>It has the same public API as {@link CountingSet}, and iterates over the keys in the order in which they were
+ * first added. {@link #key2count} is a view of the counts: a Count is only created for a key once it is looked up
+ * through the view, and from then on holds the count of that key, so that changing it changes the count in the set.
+ * Looking up many keys through the view therefore costs the memory that this class saves; {@link #forEachCount}
+ * goes over the counts without creating any Count. Replacing a Count with {@link Map.Entry#setValue}, and removing
+ * keys through {@link #iterator()} or the iterators of the view, are not supported.
+ *
+ * @param <T>
+ */
+public class CompactCountingSet<T> extends CountingSet<T> {
+	private static final int	DEFAULT_TABLE_SIZE	= 16;
+	private static final double	MAX_LOAD_FACTOR		= 0.75;
+	// Stands in for the null key, as a null key marks a removed key
+	private static final Object	NULL_KEY			= new Object();
+
+	private Object[]			keys;
+	private int[]				counts;
+	// The Count of every key that was looked up through key2count, which holds its count instead of counts
+	private Count[]				boxedCounts;
+	// Index in keys plus one for every slot, 0 marks an empty slot
+	private int[]				table;
+	// Number of positions in keys that are used, including those of removed keys
+	private int					used				= 0;
+	private int					size				= 0;
+
+	public CompactCountingSet() {
+		this(0);
+	}
+
+	public CompactCountingSet(int capacity) {
+		super((Map<T, Count>) null);
+		key2count = new CountView();
+		allocate(tableSizeFor(capacity));
+	}
+
+	public CompactCountingSet(CountingSet<T> set) {
+		this(set.size());
+		merge(set);
+	}
+
+	@Override
+	public int getCount(T key) {
+		int index = table[findSlot(maskNull(key))] - 1;
+		return index < 0 ? 0 : countAt(index);
+	}
+
+	@Override
+	public void forEachCount(ObjIntConsumer<? super T> action) {
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null)
+				action.accept(unmaskNull(keys[i]), countAt(i));
+	}
+
+	@Override
+	public int getSum() {
+		int sum = 0;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null)
+				sum += countAt(i);
+		return sum;
+	}
+
+	@Override
+	public int getMax() {
+		int max = 0;
+		boolean first = true;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null && (first || countAt(i) > max)) {
+				max = countAt(i);
+				first = false;
+			}
+		return max;
+	}
+
+	@Override
+	public double getSD() {
+		double mean = getMean();
+		double sqSum = 0;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null)
+				sqSum += (countAt(i) - mean) * (countAt(i) - mean);
+		return Math.sqrt(sqSum / size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object key) {
+		return table[findSlot(maskNull(key))] != 0;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new KeyIndexIterator<>(i -> unmaskNull(keys[i]));
+	}
+
+	@Override
+	public boolean add(T key) {
+		return add(key, 1);
+	}
+
+	@Override
+	public boolean add(T key, int inc) {
+		Object maskedKey = maskNull(key);
+		int slot = findSlot(maskedKey);
+		if (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (boxedCounts != null && boxedCounts[index] != null)
+				boxedCounts[index].count += inc;
+			else
+				counts[index] += inc;
+			return false;
+		}
+		if (used == keys.length) {
+			// Reuse the positions of removed keys if there are many, otherwise grow
+			compact(used - size >= used / 2 ? table.length : table.length * 2);
+			slot = findSlot(maskedKey);
+		}
+		keys[used] = maskedKey;
+		counts[used] = inc;
+		table[slot] = ++used;
+		size++;
+		return true;
+	}
+
+	@Override
+	public void merge(CountingSet<T> other) {
+		if (other instanceof CompactCountingSet) {
+			CompactCountingSet<T> compactOther = (CompactCountingSet<T>) other;
+			for (int i = 0; i < compactOther.used; i++)
+				if (compactOther.keys[i] != null)
+					add(unmaskNull(compactOther.keys[i]), compactOther.countAt(i));
+		} else {
+			super.merge(other);
+		}
+	}
+
+	@Override
+	public boolean remove(Object key) {
+		int slot = findSlot(maskNull(key));
+		if (table[slot] == 0)
+			return false;
+		int index = table[slot] - 1;
+		keys[index] = null;
+		counts[index] = 0;
+		if (boxedCounts != null)
+			boxedCounts[index] = null;
+		size--;
+		removeSlot(slot);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		allocate(DEFAULT_TABLE_SIZE);
+		used = 0;
+		size = 0;
+	}
+
+	@Override
+	public void keepTopN(int n) {
+		if (size <= n)
+			return;
+
+		int[] selectedCounts = new int[size];
+		int nSelected = 0;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null)
+				selectedCounts[nSelected++] = countAt(i);
+		int threshold = selectNthLargest(selectedCounts, size, n);
+		int nAboveThreshold = 0;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null && countAt(i) > threshold)
+				nAboveThreshold++;
+
+		// Of the keys with the threshold count, only keep as many as still fit
+		int nAtThreshold = n - nAboveThreshold;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null && !(countAt(i) > threshold || (countAt(i) == threshold && nAtThreshold-- > 0))) {
+				keys[i] = null;
+				size--;
+			}
+		compact(tableSizeFor(n));
+	}
+
+	private int findSlot(Object maskedKey) {
+		int mask = table.length - 1;
+		int slot = hash(maskedKey) & mask;
+		while (table[slot] != 0 && !maskedKey.equals(keys[table[slot] - 1]))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Empties the slot, and moves the slots after it that would no longer be found back into the gap
+	 */
+	private void removeSlot(int slot) {
+		int mask = table.length - 1;
+		int gap = slot;
+		for (int next = (gap + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+			int home = hash(keys[table[next] - 1]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				table[gap] = table[next];
+				gap = next;
+			}
+		}
+		table[gap] = 0;
+	}
+
+	/**
+	 * Moves the remaining keys to the front of the arrays, keeping their order, and rebuilds the table
+	 */
+	private void compact(int tableSize) {
+		int kept = 0;
+		for (int i = 0; i < used; i++)
+			if (keys[i] != null) {
+				keys[kept] = keys[i];
+				counts[kept] = counts[i];
+				if (boxedCounts != null)
+					boxedCounts[kept] = boxedCounts[i];
+				kept++;
+			}
+		keys = Arrays.copyOf(keys, capacityFor(tableSize));
+		counts = Arrays.copyOf(counts, capacityFor(tableSize));
+		Arrays.fill(keys, kept, Math.min(used, keys.length), null);
+		if (boxedCounts != null) {
+			boxedCounts = Arrays.copyOf(boxedCounts, capacityFor(tableSize));
+			Arrays.fill(boxedCounts, kept, Math.min(used, boxedCounts.length), null);
+		}
+		used = kept;
+		table = new int[tableSize];
+		for (int i = 0; i < used; i++)
+			table[findSlot(keys[i])] = i + 1;
+	}
+
+	private void allocate(int tableSize) {
+		keys = new Object[capacityFor(tableSize)];
+		counts = new int[capacityFor(tableSize)];
+		boxedCounts = null;
+		table = new int[tableSize];
+	}
+
+	private int countAt(int index) {
+		return boxedCounts != null && boxedCounts[index] != null ? boxedCounts[index].count : counts[index];
+	}
+
+	/**
+	 * Returns the Count that holds the count of the key at the index, creating it when it is first asked for
+	 */
+	private Count boxCountAt(int index) {
+		if (boxedCounts == null)
+			boxedCounts = new Count[keys.length];
+		if (boxedCounts[index] == null)
+			boxedCounts[index] = new Count(counts[index]);
+		return boxedCounts[index];
+	}
+
+	private static int capacityFor(int tableSize) {
+		return (int) (tableSize * MAX_LOAD_FACTOR);
+	}
+
+	private static int tableSizeFor(int n) {
+		int tableSize = DEFAULT_TABLE_SIZE;
+		while (capacityFor(tableSize) < n)
+			tableSize *= 2;
+		return tableSize;
+	}
+
+	private static int hash(Object maskedKey) {
+		// Spread the bits of the hash code, as linear probing is sensitive to clustered hash codes
+		int h = maskedKey.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static Object maskNull(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T unmaskNull(Object maskedKey) {
+		return maskedKey == NULL_KEY ? null : (T) maskedKey;
+	}
+
+	/**
+	 * Iterates over the positions of the keys that are in the set, in the order in which they were first added
+	 */
+	private class KeyIndexIterator<E> implements Iterator<E> {
+		private final IntFunction<E>	element;
+		private int						index	= nextIndex(0);
+
+		KeyIndexIterator(IntFunction<E> element) {
+			this.element = element;
+		}
+
+		private int nextIndex(int from) {
+			while (from < used && keys[from] == null)
+				from++;
+			return from;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < used;
+		}
+
+		@Override
+		public E next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			E result = element.apply(index);
+			index = nextIndex(index + 1);
+			return result;
+		}
+	}
+
+	/**
+	 * View of the counts as a map, with a Count per key that is looked up
+	 */
+	private class CountView extends AbstractMap<T, Count> {
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return contains(key);
+		}
+
+		@Override
+		public Count get(Object key) {
+			int index = table[findSlot(maskNull(key))] - 1;
+			return index < 0 ? null : boxCountAt(index);
+		}
+
+		@Override
+		public Count put(T key, Count value) {
+			Objects.requireNonNull(value);
+			Count previous = get(key);
+			if (previous == null)
+				add(key, 0);
+			int index = table[findSlot(maskNull(key))] - 1;
+			boxCountAt(index);
+			boxedCounts[index] = value;
+			return previous;
+		}
+
+		@Override
+		public Count remove(Object key) {
+			Count previous = get(key);
+			if (previous != null)
+				CompactCountingSet.this.remove(key);
+			return previous;
+		}
+
+		@Override
+		public void clear() {
+			CompactCountingSet.this.clear();
+		}
+
+		@Override
+		public Set<Entry<T, Count>> entrySet() {
+			return new AbstractSet<Entry<T, Count>>() {
+				@Override
+				public int size() {
+					return size;
+				}
+
+				@Override
+				public Iterator<Entry<T, Count>> iterator() {
+					return new KeyIndexIterator<>(i -> new SimpleImmutableEntry<>(unmaskNull(keys[i]), boxCountAt(i)));
+				}
+			};
+		}
+	}
+}
@@ -22,11 +22,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -38,6 +41,9 @@ import java.util.stream.Stream;
 public class CountingSet<T> extends AbstractSet<T> {
 	static Logger logger = LoggerFactory.getLogger(CountingSet.class);
 
+	// Below this number of keys, aggregates are computed sequentially, as a parallel stream costs more than it saves
+	private static final int	PARALLEL_THRESHOLD	= 10_000;
+
 	public Map<T, Count>	key2count;
 	
 	public CountingSet() {
@@ -48,6 +54,10 @@ public class CountingSet<T> extends AbstractSet<T> {
 		key2count = new HashMap<>(capacity);
 	}
 	
+	protected CountingSet(Map<T, Count> key2count) {
+		this.key2count = key2count;
+	}
+
 	public CountingSet(CountingSet<T> set) {
 		key2count = set.key2count.entrySet().stream()
 				.collect(Collectors.toMap(
@@ -65,15 +75,24 @@ public class CountingSet<T> extends AbstractSet<T> {
 			return count.count;
 	}
 	
+	/**
+	 * Performs the action for every key and its count. Unlike going over {@link #key2count}, this does not need a
+	 * Count object for every key.
+	 * 
+	 * @param action
+	 */
+	public void forEachCount(ObjIntConsumer<? super T> action) {
+		for (Map.Entry<T, Count> entry : key2count.entrySet())
+			action.accept(entry.getKey(), entry.getValue().count);
+	}
+
 	/**
 	 * Computes the sum of the counts
 	 * 
 	 * @return
 	 */
 	public int getSum() {
-		return key2count.values().parallelStream()
-				.mapToInt(c -> c.count)
-				.sum();
+		return countStream().sum();
 	}
 
 	/**
@@ -82,8 +101,7 @@ public class CountingSet<T> extends AbstractSet<T> {
 	 * @return
 	 */
 	public int getMax() {
-		return key2count.values().parallelStream()
-				.mapToInt(c -> c.count)
+		return countStream()
 				.max()
 				.orElse(0);
 	}
@@ -104,8 +122,8 @@ public class CountingSet<T> extends AbstractSet<T> {
 	 */
 	public double getSD() {
 		final double mean = getMean();
-		double sqSum = key2count.values().parallelStream()
-				.mapToDouble(c -> sqr(c.count - mean))
+		double sqSum = countStream()
+				.mapToDouble(c -> sqr(c - mean))
 				.sum();
 		return Math.sqrt(sqSum / key2count.size());
 	}
@@ -113,6 +131,11 @@ public class CountingSet<T> extends AbstractSet<T> {
 	private static double sqr(double d) {
 		return d * d;
 	}
+
+	private IntStream countStream() {
+		Stream<Count> counts = key2count.size() < PARALLEL_THRESHOLD ? key2count.values().stream() : key2count.values().parallelStream();
+		return counts.mapToInt(c -> c.count);
+	}
 	
 	public int size() {
 		return key2count.size();
@@ -148,6 +171,15 @@ public class CountingSet<T> extends AbstractSet<T> {
 		}
 	}
 	
+	/**
+	 * Adds the counts of another set to the counts in this set
+	 * 
+	 * @param other
+	 */
+	public void merge(CountingSet<T> other) {
+		other.forEachCount(this::add);
+	}
+	
 	public boolean remove(Object arg0) {
 		return (key2count.remove(arg0) != null);
 	}
@@ -162,12 +194,77 @@ public class CountingSet<T> extends AbstractSet<T> {
 	 * @param n
 	 */
 	public void keepTopN(int n) {
-		if (size() < n)
+		if (size() <= n)
 			return;
 
-		key2count = decliningCountStream()
-				.limit(n)
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2) -> v1, HashMap::new));
+		int[] counts = key2count.values().stream().mapToInt(c -> c.count).toArray();
+		int threshold = selectNthLargest(counts, counts.length, n);
+		int nAboveThreshold = 0;
+		for (Count count : key2count.values())
+			if (count.count > threshold)
+				nAboveThreshold++;
+
+		// Of the keys with the threshold count, only keep as many as still fit
+		int nAtThreshold = n - nAboveThreshold;
+		Map<T, Count> topN = new HashMap<>((int) (n / 0.75f) + 1);
+		for (Map.Entry<T, Count> entry : key2count.entrySet()) {
+			int count = entry.getValue().count;
+			if (count > threshold || (count == threshold && nAtThreshold-- > 0))
+				topN.put(entry.getKey(), entry.getValue());
+		}
+		key2count = topN;
+	}
+
+	/**
+	 * Finds the n-th largest of the first length values by quickselect, in linear expected time. The order of the
+	 * values is changed.
+	 * 
+	 * @return the n-th largest value, or Integer.MAX_VALUE if n is 0
+	 */
+	static int selectNthLargest(int[] values, int length, int n) {
+		if (n <= 0)
+			return Integer.MAX_VALUE;
+		int target = length - n;
+		int left = 0;
+		int right = length - 1;
+		// Fall back to sorting if the pivots keep being poor, so that the worst case stays O(n log n)
+		int maxRounds = 2 * (32 - Integer.numberOfLeadingZeros(length));
+		for (int round = 0; left < right; round++) {
+			if (round == maxRounds) {
+				Arrays.sort(values, left, right + 1);
+				break;
+			}
+			int pivot = medianOfThree(values[left], values[(left + right) >>> 1], values[right]);
+			// Three-way partition: [left, lt) < pivot, [lt, gt] == pivot, (gt, right] > pivot
+			int lt = left;
+			int gt = right;
+			int i = left;
+			while (i <= gt) {
+				if (values[i] < pivot)
+					swap(values, lt++, i++);
+				else if (values[i] > pivot)
+					swap(values, i, gt--);
+				else
+					i++;
+			}
+			if (target < lt)
+				right = lt - 1;
+			else if (target > gt)
+				left = gt + 1;
+			else
+				return pivot;
+		}
+		return values[target];
+	}
+
+	private static int medianOfThree(int a, int b, int c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+
+	private static void swap(int[] values, int i, int j) {
+		int value = values[i];
+		values[i] = values[j];
+		values[j] = value;
 	}
 
 	public static class Count implements Comparable<Count> {
@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counting set that counts 64 bit fingerprints of the keys, and only keeps the keys themselves for the keys with the
+ * highest counts.
+ *
+ * <p>The counts of all fingerprints are kept in a {@link LongCountingSet}. {@link #key2count} only holds the keys of
+ * the (at most capacity) fingerprints with the highest counts: a key is added to it when its count exceeds the lowest
+ * count in it, which is the moment that key is being added. The keys with the highest counts are therefore always
+ * known, while the other keys take no more memory than their fingerprint. Two keys with the same fingerprint are
+ * counted as one; with 64 bit fingerprints that is very unlikely below billions of keys. A fingerprint and its count
+ * take 17 to 35 bytes, depending on how full its arrays are, against about 100 bytes for a short String key with
+ * its count in a HashMap. The saving is larger for longer keys.
+ *
+ * <p>The statistics of the counts, like {@link #getSum} and {@link #getSD}, cover the counts of all fingerprints, not
+ * just the counts of the keys that are kept.
+ *
+ * <p>After a merge, a key can be among the most frequent keys of the union without having been among them in either
+ * set. Its fingerprint is counted, but the key itself is only known if it is added again.
+ *
+ * @param <T>
+ */
+public class FingerprintCountingSet<T> extends CountingSet<T> {
+	private final int					capacity;
+	private final ToLongFunction<T>		fingerprintFunction;
+	private LongCountingSet				fingerprintCounts	= new LongCountingSet();
+	// Min-heap on count of the entries in key2count
+	private final List<Entry<T>>		heap;
+
+	/**
+	 * @param capacity the maximum number of keys that are kept
+	 * @param fingerprintFunction function that gives the 64 bit fingerprint of a key
+	 */
+	public FingerprintCountingSet(int capacity, ToLongFunction<T> fingerprintFunction) {
+		super(new HashMap<>(capacity));
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be strictly positive");
+		}
+		this.capacity = capacity;
+		this.fingerprintFunction = fingerprintFunction;
+		this.heap = new ArrayList<>(capacity);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Calls the consumer with the fingerprint of every key that was counted, in the order in which they were first added
+	 */
+	public void forEachFingerprint(LongConsumer consumer) {
+		fingerprintCounts.forEach((fingerprint, count) -> consumer.accept(fingerprint));
+	}
+
+	@Override
+	public int getCount(T key) {
+		return fingerprintCounts.getCount(fingerprintFunction.applyAsLong(key));
+	}
+
+	@Override
+	public int size() {
+		return fingerprintCounts.size();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean contains(Object key) {
+		return getCount((T) key) != 0 || key2count.containsKey(key);
+	}
+
+	@Override
+	public boolean add(T key) {
+		return add(key, 1);
+	}
+
+	@Override
+	public boolean add(T key, int inc) {
+		long fingerprint = fingerprintFunction.applyAsLong(key);
+		boolean added = fingerprintCounts.add(fingerprint, inc);
+		Entry<T> entry = asEntry(key2count.get(key));
+		if (entry != null) {
+			entry.count += inc;
+			siftDown(entry.heapIndex);
+		} else {
+			offer(key, fingerprint, fingerprintCounts.getCount(fingerprint));
+		}
+		return added;
+	}
+
+	/**
+	 * Adds the counts of another set to the counts in this set. The keys of both sets are kept if their count in the
+	 * union is high enough.
+	 */
+	@Override
+	public void merge(CountingSet<T> other) {
+		if (!(other instanceof FingerprintCountingSet)) {
+			super.merge(other);
+			return;
+		}
+		FingerprintCountingSet<T> otherSet = (FingerprintCountingSet<T>) other;
+		fingerprintCounts.merge(otherSet.fingerprintCounts);
+		for (Entry<T> entry : heap) {
+			entry.count = fingerprintCounts.getCount(entry.fingerprint);
+		}
+		heapify();
+		for (Entry<T> otherEntry : otherSet.heap) {
+			if (!key2count.containsKey(otherEntry.key)) {
+				offer(otherEntry.key, otherEntry.fingerprint, fingerprintCounts.getCount(otherEntry.fingerprint));
+			}
+		}
+	}
+
+	/**
+	 * Removes the count of the key, and the key itself if it is kept. A key with the same fingerprint is removed as well.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean remove(Object key) {
+		boolean removed = fingerprintCounts.remove(fingerprintFunction.applyAsLong((T) key));
+		Entry<T> entry = asEntry(key2count.get(key));
+		if (entry != null) {
+			removeEntry(entry);
+		}
+		return removed;
+	}
+
+	@Override
+	public int getSum() {
+		return fingerprintCounts.counts().sum();
+	}
+
+	@Override
+	public int getMax() {
+		return fingerprintCounts.counts().max().orElse(0);
+	}
+
+	@Override
+	public double getMean() {
+		return getSum() / (double) size();
+	}
+
+	@Override
+	public double getSD() {
+		double mean = getMean();
+		double sqSum = fingerprintCounts.counts().mapToDouble(count -> (count - mean) * (count - mean)).sum();
+		return Math.sqrt(sqSum / size());
+	}
+
+	@Override
+	public void clear() {
+		fingerprintCounts = new LongCountingSet();
+		key2count.clear();
+		heap.clear();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		// Only the keys with the highest counts are known. Removing through the iterator would bypass the heap.
+		Iterator<T> iterator = key2count.keySet().iterator();
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public T next() {
+				return iterator.next();
+			}
+		};
+	}
+
+	/**
+	 * Keep the n most frequent values, remove the rest
+	 *
+	 * @param n
+	 */
+	@Override
+	public void keepTopN(int n) {
+		fingerprintCounts.keepTopN(n);
+		while (heap.size() > n) {
+			removeEntry(heap.get(0));
+		}
+		// Of keys with equal counts, the fingerprint and the key may have been dropped for different keys
+		List<Entry<T>> dropped = new ArrayList<>();
+		for (Entry<T> entry : heap) {
+			if (fingerprintCounts.getCount(entry.fingerprint) == 0) {
+				dropped.add(entry);
+			}
+		}
+		dropped.forEach(this::removeEntry);
+	}
+
+	/**
+	 * Keeps the key if there is room for it, or if its count is higher than the lowest count of the keys that are kept
+	 */
+	private void offer(T key, long fingerprint, int count) {
+		Entry<T> entry;
+		if (heap.size() < capacity) {
+			entry = new Entry<>();
+			entry.heapIndex = heap.size();
+			heap.add(entry);
+		} else if (count > heap.get(0).count) {
+			// Replace the key with the lowest count, reusing its entry
+			entry = heap.get(0);
+			key2count.remove(entry.key);
+		} else {
+			return;
+		}
+		entry.key = key;
+		entry.fingerprint = fingerprint;
+		entry.count = count;
+		key2count.put(key, entry);
+		siftUp(entry.heapIndex);
+		siftDown(entry.heapIndex);
+	}
+
+	private void removeEntry(Entry<T> entry) {
+		key2count.remove(entry.key);
+		Entry<T> last = heap.remove(heap.size() - 1);
+		if (last != entry) {
+			last.heapIndex = entry.heapIndex;
+			heap.set(entry.heapIndex, last);
+			siftUp(last.heapIndex);
+			siftDown(last.heapIndex);
+		}
+	}
+
+	private void heapify() {
+		for (int i = heap.size() / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	private void siftUp(int index) {
+		Entry<T> entry = heap.get(index);
+		while (index > 0) {
+			int parentIndex = (index - 1) / 2;
+			Entry<T> parent = heap.get(parentIndex);
+			if (parent.count <= entry.count) {
+				break;
+			}
+			place(parent, index);
+			index = parentIndex;
+		}
+		place(entry, index);
+	}
+
+	private void siftDown(int index) {
+		Entry<T> entry = heap.get(index);
+		int size = heap.size();
+		while (true) {
+			int childIndex = 2 * index + 1;
+			if (childIndex >= size) {
+				break;
+			}
+			if (childIndex + 1 < size && heap.get(childIndex + 1).count < heap.get(childIndex).count) {
+				childIndex++;
+			}
+			Entry<T> child = heap.get(childIndex);
+			if (entry.count <= child.count) {
+				break;
+			}
+			place(child, index);
+			index = childIndex;
+		}
+		place(entry, index);
+	}
+
+	private void place(Entry<T> entry, int index) {
+		heap.set(index, entry);
+		entry.heapIndex = index;
+	}
+
+	// All counts in the map of this set are entries, with keys of the type of the set
+	@SuppressWarnings("unchecked")
+	private static <T> Entry<T> asEntry(Count count) {
+		return (Entry<T>) count;
+	}
+
+	private static class Entry<T> extends Count {
+		private T key;
+		private long fingerprint;
+		private int heapIndex;
+
+		private Entry() {
+			super(0);
+		}
+	}
+}
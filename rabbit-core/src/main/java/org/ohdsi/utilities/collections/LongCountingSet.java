@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Class for counting recurring long values, without boxing them.
+ *
+ * <p>The keys and counts are kept in two primitive arrays, in the order in which the keys were first added, and are
+ * found through an open addressing table of indices into them. A key takes about 17 bytes of allocated capacity,
+ * instead of the roughly 100 bytes of a String key with a {@link CountingSet.Count} in a HashMap.
+ */
+public class LongCountingSet {
+	private static final int	DEFAULT_TABLE_SIZE	= 16;
+	private static final double	MAX_LOAD_FACTOR		= 0.75;
+
+	private long[]				keys;
+	private int[]				counts;
+	// Index in keys plus one for every slot, 0 marks an empty slot
+	private int[]				table;
+	private int					size				= 0;
+
+	public LongCountingSet() {
+		allocate(DEFAULT_TABLE_SIZE);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getCount(long key) {
+		int index = table[findSlot(key)] - 1;
+		return index < 0 ? 0 : counts[index];
+	}
+
+	public boolean add(long key) {
+		return add(key, 1);
+	}
+
+	/**
+	 * Adds inc to the count of the key
+	 * 
+	 * @return true if the key was not in the set yet
+	 */
+	public boolean add(long key, int inc) {
+		int slot = findSlot(key);
+		if (table[slot] != 0) {
+			counts[table[slot] - 1] += inc;
+			return false;
+		}
+		if (size == keys.length) {
+			resize(table.length * 2);
+			slot = findSlot(key);
+		}
+		keys[size] = key;
+		counts[size] = inc;
+		table[slot] = ++size;
+		return true;
+	}
+
+	/**
+	 * Adds the counts of another set to the counts in this set
+	 * 
+	 * @param other
+	 */
+	public void merge(LongCountingSet other) {
+		other.forEach(this::add);
+	}
+
+	/**
+	 * Removes the key and its count. Takes time linear in the size of the set, to keep the order of the other keys.
+	 * 
+	 * @return true if the key was in the set
+	 */
+	public boolean remove(long key) {
+		int index = table[findSlot(key)] - 1;
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+		size--;
+		resize(table.length);
+		return true;
+	}
+
+	/**
+	 * @return the counts of all keys, in the order in which the keys were first added
+	 */
+	public IntStream counts() {
+		return Arrays.stream(counts, 0, size);
+	}
+
+	public void clear() {
+		allocate(DEFAULT_TABLE_SIZE);
+		size = 0;
+	}
+
+	/**
+	 * Keep the n most frequent values, remove the rest
+	 * 
+	 * @param n
+	 */
+	public void keepTopN(int n) {
+		if (size <= n)
+			return;
+
+		int threshold = CountingSet.selectNthLargest(Arrays.copyOf(counts, size), size, n);
+		int nAboveThreshold = 0;
+		for (int i = 0; i < size; i++) {
+			if (counts[i] > threshold) {
+				nAboveThreshold++;
+			}
+		}
+		// Of the keys with the threshold count, only keep as many as still fit
+		int nAtThreshold = n - nAboveThreshold;
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (counts[i] > threshold || (counts[i] == threshold && nAtThreshold-- > 0)) {
+				keys[kept] = keys[i];
+				counts[kept] = counts[i];
+				kept++;
+			}
+		}
+		size = kept;
+		resize(tableSizeFor(n));
+	}
+
+	/**
+	 * Calls the consumer for every key in the set, in the order in which the keys were first added
+	 */
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i < size; i++) {
+			consumer.accept(keys[i], counts[i]);
+		}
+	}
+
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, int count);
+	}
+
+	private int findSlot(long key) {
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		while (table[slot] != 0 && keys[table[slot] - 1] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void resize(int tableSize) {
+		keys = Arrays.copyOf(keys, capacityFor(tableSize));
+		counts = Arrays.copyOf(counts, capacityFor(tableSize));
+		table = new int[tableSize];
+		for (int i = 0; i < size; i++) {
+			table[findSlot(keys[i])] = i + 1;
+		}
+	}
+
+	private void allocate(int tableSize) {
+		keys = new long[capacityFor(tableSize)];
+		counts = new int[capacityFor(tableSize)];
+		table = new int[tableSize];
+	}
+
+	private static int capacityFor(int tableSize) {
+		return (int) (tableSize * MAX_LOAD_FACTOR);
+	}
+
+	private static int tableSizeFor(int n) {
+		int tableSize = DEFAULT_TABLE_SIZE;
+		while (capacityFor(tableSize) < n) {
+			tableSize *= 2;
+		}
+		return tableSize;
+	}
+
+	private static int hash(long key) {
+		// Finalizer of MurmurHash3, so that sequential keys are spread over the table
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
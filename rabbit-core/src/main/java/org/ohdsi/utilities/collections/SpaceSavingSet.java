@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Counting set that keeps at most a fixed number of keys, using the Space-Saving algorithm (Metwally et al.).
+ *
+ * <p>When a new key is added to a full set, the key with the lowest count is replaced by it, and the new key inherits
+ * that count as its error. The count of every key in the set is therefore an upper bound of its true count, that
+ * overestimates it by at most {@link #getError}. Every key that occurs more often than the lowest count in the set is
+ * guaranteed to be in it, so the most frequent keys and their counts are found in bounded memory.
+ *
+ * @param <T>
+ */
+public class SpaceSavingSet<T> extends CountingSet<T> {
+	private final int capacity;
+	private final List<Entry<T>> heap;
+	// Upper bound of the count of a key that is not in the set
+	private int absentCount = 0;
+	private boolean truncated = false;
+
+	public SpaceSavingSet(int capacity) {
+		super(capacity);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be strictly positive");
+		}
+		this.capacity = capacity;
+		this.heap = new ArrayList<>(capacity);
+	}
+
+	/**
+	 * Creates a set with the keys of another set that have the highest counts. Keys that do not fit are accounted for as
+	 * if this set had dropped them. If the other set does not know all keys it counted, as a
+	 * {@link FingerprintCountingSet}, the unknown keys are accounted for with the lowest count of its known keys.
+	 */
+	public static <T> SpaceSavingSet<T> ofTopCounts(CountingSet<T> counts, int capacity) {
+		SpaceSavingSet<T> set = new SpaceSavingSet<>(capacity);
+		SpaceSavingSet<T> otherSet = counts instanceof SpaceSavingSet ? (SpaceSavingSet<T>) counts : null;
+		List<Pair<T, Integer>> entries = new ArrayList<>();
+		counts.forEachCount((key, count) -> entries.add(new Pair<>(key, count)));
+		entries.sort(Comparator.<Pair<T, Integer>>comparingInt(Pair::getItem2).reversed());
+		int droppedCount = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			T key = entries.get(i).getItem1();
+			int count = entries.get(i).getItem2();
+			if (i < capacity) {
+				set.add(key, count, otherSet == null ? 0 : otherSet.getError(key));
+			} else {
+				droppedCount = Math.max(droppedCount, count);
+				set.truncated = true;
+			}
+		}
+		if (counts.size() > entries.size() && !entries.isEmpty()) {
+			droppedCount = Math.max(droppedCount, entries.get(entries.size() - 1).getItem2());
+			set.truncated = true;
+		}
+		if (otherSet != null) {
+			droppedCount = Math.max(droppedCount, otherSet.absentCount);
+			set.truncated |= otherSet.truncated;
+		}
+		// Only set now, as keys that are added get the absent count on top of their count
+		set.absentCount = droppedCount;
+		return set;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return true if keys were dropped from the set, so that not all keys that were added are known anymore
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the maximum amount by which the count of the key overestimates its true count, 0 if the key is not in the set
+	 */
+	public int getError(T key) {
+		Count count = key2count.get(key);
+		return count == null ? 0 : asEntry(count).error;
+	}
+
+	@Override
+	public boolean add(T key) {
+		return add(key, 1, 0);
+	}
+
+	@Override
+	public boolean add(T key, int inc) {
+		return add(key, inc, 0);
+	}
+
+	/**
+	 * Add a key with a count that may already overestimate its true count by at most the given error.
+	 * @return true if the key was not in the set
+	 */
+	public boolean add(T key, int inc, int error) {
+		Entry<T> entry = asEntry(key2count.get(key));
+		if (entry != null) {
+			entry.count += inc;
+			entry.error += error;
+			siftDown(entry.heapIndex);
+			return false;
+		}
+		if (heap.size() < capacity) {
+			entry = new Entry<>(key);
+			entry.heapIndex = heap.size();
+			heap.add(entry);
+		} else {
+			// Replace the key with the lowest count, reusing its entry
+			entry = heap.get(0);
+			key2count.remove(entry.key);
+			absentCount = Math.max(absentCount, entry.count);
+			truncated = true;
+			entry.key = key;
+		}
+		// The key may have been added before, as often as the count of a dropped key
+		entry.count = absentCount + inc;
+		entry.error = absentCount + error;
+		key2count.put(key, entry);
+		siftUp(entry.heapIndex);
+		siftDown(entry.heapIndex);
+		return true;
+	}
+
+	/**
+	 * Adds the counts of another set to the counts in this set. If the other set is a SpaceSavingSet, its errors are
+	 * added as well, and the counts of keys that the other set dropped are accounted for in the errors.
+	 */
+	@Override
+	public void merge(CountingSet<T> other) {
+		int otherAbsentCount = 0;
+		SpaceSavingSet<T> otherSet = other instanceof SpaceSavingSet ? (SpaceSavingSet<T>) other : null;
+		if (otherSet != null) {
+			otherAbsentCount = otherSet.absentCount;
+			truncated |= otherSet.truncated;
+		}
+		if (otherAbsentCount > 0) {
+			// Keys that are missing in the other set may have been counted there as often as its dropped keys
+			for (Entry<T> entry : heap) {
+				if (!other.key2count.containsKey(entry.key)) {
+					entry.count += otherAbsentCount;
+					entry.error += otherAbsentCount;
+				}
+			}
+			heapify();
+		}
+		other.forEachCount((key, count) -> add(key, count, otherSet == null ? 0 : otherSet.getError(key)));
+		absentCount += otherAbsentCount;
+	}
+
+	@Override
+	public boolean remove(Object key) {
+		Entry<T> entry = asEntry(key2count.remove(key));
+		if (entry == null) {
+			return false;
+		}
+		absentCount = Math.max(absentCount, entry.count);
+		truncated = true;
+		Entry<T> last = heap.remove(heap.size() - 1);
+		if (last != entry) {
+			last.heapIndex = entry.heapIndex;
+			heap.set(entry.heapIndex, last);
+			siftUp(last.heapIndex);
+			siftDown(last.heapIndex);
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		key2count.clear();
+		heap.clear();
+		absentCount = 0;
+		truncated = false;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		// Removing through the iterator would bypass the heap
+		Iterator<T> iterator = key2count.keySet().iterator();
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public T next() {
+				return iterator.next();
+			}
+		};
+	}
+
+	/**
+	 * Keep the n most frequent values, remove the rest
+	 *
+	 * @param n
+	 */
+	@Override
+	public void keepTopN(int n) {
+		while (heap.size() > n) {
+			remove(heap.get(0).key);
+		}
+	}
+
+	private void heapify() {
+		for (int i = heap.size() / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	private void siftUp(int index) {
+		Entry<T> entry = heap.get(index);
+		while (index > 0) {
+			int parentIndex = (index - 1) / 2;
+			Entry<T> parent = heap.get(parentIndex);
+			if (parent.count <= entry.count) {
+				break;
+			}
+			place(parent, index);
+			index = parentIndex;
+		}
+		place(entry, index);
+	}
+
+	private void siftDown(int index) {
+		Entry<T> entry = heap.get(index);
+		int size = heap.size();
+		while (true) {
+			int childIndex = 2 * index + 1;
+			if (childIndex >= size) {
+				break;
+			}
+			if (childIndex + 1 < size && heap.get(childIndex + 1).count < heap.get(childIndex).count) {
+				childIndex++;
+			}
+			Entry<T> child = heap.get(childIndex);
+			if (entry.count <= child.count) {
+				break;
+			}
+			place(child, index);
+			index = childIndex;
+		}
+		place(entry, index);
+	}
+
+	private void place(Entry<T> entry, int index) {
+		heap.set(index, entry);
+		entry.heapIndex = index;
+	}
+
+	// All counts in the map of this set are entries, with keys of the type of the set
+	@SuppressWarnings("unchecked")
+	private static <T> Entry<T> asEntry(Count count) {
+		return (Entry<T>) count;
+	}
+
+	private static class Entry<T> extends Count {
+		private T key;
+		private int error;
+		private int heapIndex;
+
+		private Entry(T key) {
+			super(0);
+			this.key = key;
+		}
+	}
+}
@@ -54,6 +54,14 @@ public class IniFile {
 		settings.put(fieldName.trim().toLowerCase(), value);
 	}
 
+	public int getInt(String fieldName, int defaultValue) {
+		String value = this.get(fieldName);
+		if (StringUtils.isEmpty(value)) {
+			return defaultValue;
+		}
+		return Integer.parseInt(value);
+	}
+
 	public String getOrFail(String fieldName){
 		String value = this.get(fieldName);
 		if (StringUtils.isEmpty(value)) {
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a (UTF-8) delimited text file from a memory mapped file, without creating objects for the
+ * records or cells that are read.
+ *
+ * <p>Quoting follows RFC 4180: a cell that starts with a double quote runs until the next double quote that is not
+ * doubled, and can contain delimiters and line breaks. Records end at \n, \r\n or \r. After {@link #nextRecord()},
+ * the cells of the record can be inspected in place. A cell only becomes a String when {@link #getCell(int)} is
+ * called, or when a {@link CellInterner} sees it for the first time.
+ *
+ * <p>The file is mapped in windows, so files of any size can be read. A record must fit in a single window, which
+ * is grown if needed.
+ */
+public class MappedCsvTokenizer implements Closeable {
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	private static final int INCOMPLETE = -1;
+
+	private final FileChannel channel;
+	private final byte delimiter;
+	private final long end;
+	private int windowSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int windowLimit;
+	private boolean windowAtEnd;
+	private long position;
+
+	private int cellCount = 0;
+	private int[] cellStarts = new int[16];
+	private int[] cellEnds = new int[16];
+	private boolean[] cellEscapes = new boolean[16];
+	private byte[] scratch = new byte[256];
+
+	public MappedCsvTokenizer(Path file, char delimiter) throws IOException {
+		this(file, delimiter, 0, -1, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Reads the records in a range of bytes of a file. The range should start at the start of a record.
+	 *
+	 * @param start position of the first byte to read
+	 * @param end   position after the last byte to read, or -1 to read to the end of the file
+	 */
+	public MappedCsvTokenizer(Path file, char delimiter, long start, long end) throws IOException {
+		this(file, delimiter, start, end, DEFAULT_WINDOW_SIZE);
+	}
+
+	MappedCsvTokenizer(Path file, char delimiter, long start, long end, int windowSize) throws IOException {
+		if (delimiter > 127) {
+			throw new IllegalArgumentException("Only single byte delimiters are supported, not '" + delimiter + "'");
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.delimiter = (byte) delimiter;
+		this.end = end == -1 ? channel.size() : Math.min(end, channel.size());
+		this.windowSize = windowSize;
+		this.position = start;
+		if (start == 0) {
+			skipByteOrderMark();
+		}
+	}
+
+	private void skipByteOrderMark() throws IOException {
+		if (end >= 3) {
+			map(0);
+			if (window.get(0) == (byte) 0xEF && window.get(1) == (byte) 0xBB && window.get(2) == (byte) 0xBF) {
+				position = 3;
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false if there are no more records
+	 */
+	public boolean nextRecord() throws IOException {
+		if (position >= end) {
+			return false;
+		}
+		while (true) {
+			if (window == null || position < windowStart || position >= windowStart + windowLimit) {
+				map(position);
+			}
+			int recordEnd = tokenize((int) (position - windowStart));
+			if (recordEnd != INCOMPLETE) {
+				position = windowStart + recordEnd;
+				return true;
+			}
+			if (position == windowStart) {
+				// The record does not fit in a window
+				windowSize = (int) Math.min(Integer.MAX_VALUE - 8, windowSize * 2L);
+			}
+			map(position);
+		}
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		windowLimit = (int) Math.min(windowSize, end - start);
+		windowAtEnd = start + windowLimit >= end;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowLimit);
+	}
+
+	/**
+	 * Finds the cells of the record starting at index i of the window.
+	 *
+	 * @return the index after the end of the record, or INCOMPLETE if the window ends before the record does
+	 */
+	private int tokenize(int i) {
+		cellCount = 0;
+		int limit = windowLimit;
+		while (true) {
+			int cellEnd = i < limit && window.get(i) == '"' ? tokenizeQuotedCell(i) : tokenizeCell(i, i);
+			if (cellEnd == INCOMPLETE) {
+				return INCOMPLETE;
+			}
+			i = cellEnd;
+			if (i >= limit) {
+				return limit;
+			}
+			byte current = window.get(i);
+			if (current == delimiter) {
+				i++;
+			} else if (current == '\r') {
+				if (i + 1 < limit) {
+					return window.get(i + 1) == '\n' ? i + 2 : i + 1;
+				}
+				return windowAtEnd ? i + 1 : INCOMPLETE;
+			} else {
+				return i + 1;
+			}
+		}
+	}
+
+	private int tokenizeCell(int start, int i) {
+		int limit = windowLimit;
+		while (i < limit) {
+			byte current = window.get(i);
+			if (current == delimiter || current == '\n' || current == '\r') {
+				break;
+			}
+			i++;
+		}
+		if (i >= limit && !windowAtEnd) {
+			return INCOMPLETE;
+		}
+		addCell(start, i, false);
+		return i;
+	}
+
+	private int tokenizeQuotedCell(int start) {
+		int limit = windowLimit;
+		boolean escapes = false;
+		int i = start + 1;
+		while (true) {
+			if (i >= limit) {
+				if (!windowAtEnd) {
+					return INCOMPLETE;
+				}
+				// Unterminated quote at the end of the file: take the rest of the file as the value
+				addCell(start + 1, limit, escapes);
+				return limit;
+			}
+			if (window.get(i) == '"') {
+				if (i + 1 >= limit && !windowAtEnd) {
+					return INCOMPLETE;
+				}
+				if (i + 1 < limit && window.get(i + 1) == '"') {
+					escapes = true;
+					i += 2;
+					continue;
+				}
+				break;
+			}
+			i++;
+		}
+		int next = i + 1;
+		if (next < limit) {
+			byte current = window.get(next);
+			if (current != delimiter && current != '\n' && current != '\r') {
+				// Text after the closing quote, so this was not a quoted value after all. Read it as is.
+				return tokenizeCell(start, next);
+			}
+		}
+		addCell(start + 1, i, escapes);
+		return next;
+	}
+
+	private void addCell(int start, int end, boolean escapes) {
+		if (cellCount == cellStarts.length) {
+			cellStarts = Arrays.copyOf(cellStarts, cellCount * 2);
+			cellEnds = Arrays.copyOf(cellEnds, cellCount * 2);
+			cellEscapes = Arrays.copyOf(cellEscapes, cellCount * 2);
+		}
+		cellStarts[cellCount] = start;
+		cellEnds[cellCount] = end;
+		cellEscapes[cellCount] = escapes;
+		cellCount++;
+	}
+
+	/**
+	 * @return the number of cells in the current record
+	 */
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * @return the length in bytes of a cell of the current record, as it appears in the file
+	 */
+	public int getCellLength(int cell) {
+		return cellEnds[cell] - cellStarts[cell];
+	}
+
+	/**
+	 * @return the value of a cell of the current record, with doubled quotes replaced by single ones
+	 */
+	public String getCell(int cell) {
+		int start = cellStarts[cell];
+		int length = cellEnds[cell] - start;
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		int n = 0;
+		boolean escapes = cellEscapes[cell];
+		for (int i = 0; i < length; i++) {
+			byte current = window.get(start + i);
+			scratch[n++] = current;
+			if (escapes && current == '"') {
+				i++;
+			}
+		}
+		return new String(scratch, 0, n, StandardCharsets.UTF_8);
+	}
+
+	boolean hasEscapes(int cell) {
+		return cellEscapes[cell];
+	}
+
+	int hashCell(int cell) {
+		int hash = 1;
+		for (int i = cellStarts[cell]; i < cellEnds[cell]; i++) {
+			hash = 31 * hash + window.get(i);
+		}
+		return hash;
+	}
+
+	boolean cellEquals(int cell, byte[] bytes) {
+		int start = cellStarts[cell];
+		if (cellEnds[cell] - start != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (window.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	byte[] copyCell(int cell) {
+		int start = cellStarts[cell];
+		byte[] bytes = new byte[cellEnds[cell] - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = window.get(start + i);
+		}
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	/**
+	 * Maps the cells of a column to String objects, reusing the same String for cells with the same bytes. A String
+	 * is only created for a cell the first time its value is seen. Once maxSize values are known, new values are
+	 * no longer remembered. Cells with doubled quotes are not interned, as their bytes differ from their value.
+	 */
+	public static class CellInterner {
+		private final int maxSize;
+		private byte[][] keys = new byte[64][];
+		private int[] hashes = new int[64];
+		private String[] values = new String[64];
+		private int size = 0;
+
+		public CellInterner(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public String intern(MappedCsvTokenizer tokenizer, int cell) {
+			if (tokenizer.hasEscapes(cell)) {
+				// The same bytes without quotes around them would be a different value
+				return tokenizer.getCell(cell);
+			}
+			int hash = tokenizer.hashCell(cell);
+			int mask = keys.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (keys[slot] != null) {
+				if (hashes[slot] == hash && tokenizer.cellEquals(cell, keys[slot])) {
+					return values[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			String value = tokenizer.getCell(cell);
+			if (size < maxSize) {
+				keys[slot] = tokenizer.copyCell(cell);
+				hashes[slot] = hash;
+				values[slot] = value;
+				size++;
+				if (size * 2 > keys.length) {
+					grow();
+				}
+			}
+			return value;
+		}
+
+		private void grow() {
+			byte[][] oldKeys = keys;
+			int[] oldHashes = hashes;
+			String[] oldValues = values;
+			keys = new byte[oldKeys.length * 2][];
+			hashes = new int[oldKeys.length * 2];
+			values = new String[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+					while (keys[slot] != null) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					hashes[slot] = oldHashes[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.files;
+
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes of a (UTF-8) text file that starts at the beginning of a line, and ends at the end of a line.
+ * Splitting a large file into chunks allows it to be read by multiple threads at the same time.
+ */
+public class TextFileChunk {
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final String filename;
+	private final long start;
+	private final long end;
+	private final long firstLineNr;
+
+	public TextFileChunk(String filename, long start, long end, long firstLineNr) {
+		this.filename = filename;
+		this.start = start;
+		this.end = end;
+		this.firstLineNr = firstLineNr;
+	}
+
+	/**
+	 * Splits a delimited text file into chunks of about the given size. Chunks only end at a line break outside of
+	 * a quoted value, so a value with a line break in it is never split over two chunks. Quotes that are escaped with
+	 * a backslash are ignored, like {@link org.ohdsi.utilities.StringUtilities#safeSplit}.
+	 *
+	 * @param filename  file to split
+	 * @param chunkSize minimum size of a chunk in bytes. Only the last chunk can be smaller.
+	 * @param maxLines  stop splitting after this number of lines, or -1 to split the whole file. The last chunk
+	 *                  then runs to the end of the file.
+	 */
+	public static List<TextFileChunk> split(String filename, long chunkSize, long maxLines) throws IOException {
+		return split(filename, chunkSize, maxLines, true);
+	}
+
+	/**
+	 * Same as {@link #split(String, long, long)}, but with the option to not treat backslashes as escape characters,
+	 * as in RFC 4180 (see {@link MappedCsvTokenizer}).
+	 */
+	public static List<TextFileChunk> split(String filename, long chunkSize, long maxLines, boolean backslashEscapes) throws IOException {
+		List<TextFileChunk> chunks = new ArrayList<>();
+		long chunkStart = 0;
+		long chunkFirstLineNr = 1;
+		long lineCount = 0;
+		long position = 0;
+		boolean quoted = false;
+		boolean escape = false;
+		byte previous = 0;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream inputStream = new FileInputStream(filename)) {
+			int length;
+			scan:
+			while ((length = inputStream.read(buffer)) != -1) {
+				for (int i = 0; i < length; i++, position++) {
+					byte current = buffer[i];
+					if (current == '"' && !escape) {
+						quoted = !quoted;
+					}
+					escape = backslashEscapes && current == '\\' && !escape;
+					// Line breaks are counted like BufferedReader.readLine(): \n, \r or \r\n
+					if (current == '\r' || (current == '\n' && previous != '\r')) {
+						lineCount++;
+					}
+					previous = current;
+					if (current == '\n' && !quoted && position + 1 - chunkStart >= chunkSize) {
+						chunks.add(new TextFileChunk(filename, chunkStart, position + 1, chunkFirstLineNr));
+						chunkStart = position + 1;
+						chunkFirstLineNr = lineCount + 1;
+					}
+					if (maxLines != -1 && lineCount >= maxLines) {
+						break scan;
+					}
+				}
+			}
+		}
+		long fileLength = new File(filename).length();
+		if (chunkStart < fileLength) {
+			chunks.add(new TextFileChunk(filename, chunkStart, fileLength, chunkFirstLineNr));
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return the lines in this chunk. A byte order mark at the start of the file is skipped.
+	 */
+	public ReadTextFile read() throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(filename);
+		fileInputStream.getChannel().position(start);
+		InputStream inputStream = BoundedInputStream.builder()
+				.setInputStream(fileInputStream)
+				.setMaxCount(end - start)
+				.get();
+		return new ReadTextFile(BOMInputStream.builder().setInputStream(inputStream).get());
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the number of the first line in this chunk, counting from 1 for the first line of the file
+	 */
+	public long getFirstLineNr() {
+		return firstLineNr;
+	}
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.Test;
+import org.ohdsi.databases.configuration.DbType;
+import org.ohdsi.utilities.files.Row;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestDBConnection {
+
+    @Test
+    void testRandomFilterSampleIsCappedAtSampleSize() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:sampling;sql.syntax_mys=true", "SA", "")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE sampled (id INTEGER)");
+            }
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO sampled VALUES (?)")) {
+                for (int i = 0; i < 10000; i++) {
+                    statement.setInt(1, i);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            DBConnection dbConnection = new DBConnection(connection, DbType.MYSQL, false);
+            TestFieldInfo.TestScanParameters scanParameters = new TestFieldInfo.TestScanParameters();
+            scanParameters.sampleSize = 1000;
+
+            int nRows = 0;
+            int maxId = 0;
+            QueryResult queryResult = dbConnection.fetchRowsFromTable("sampled", 10000, scanParameters);
+            for (Row row : queryResult) {
+                nRows++;
+                maxId = Math.max(maxId, row.getInt("ID"));
+            }
+            queryResult.close();
+            // The margin makes a sample smaller than the sample size unlikely, and leaves out little of the table
+            assertTrue(nRows > 900 && nRows <= 1000, "sampled rows: " + nRows);
+            assertTrue(maxId > 8000, "largest sampled id: " + maxId);
+
+            scanParameters.sampleSize = 20000;
+            queryResult = dbConnection.fetchRowsFromTable("sampled", 10000, scanParameters);
+            nRows = 0;
+            for (Row ignored : queryResult) {
+                nRows++;
+            }
+            queryResult.close();
+            assertEquals(10000, nRows);
+        }
+    }
+
+    @Test
+    void testShortSampleIsSampledAgain() throws SQLException, InterruptedException {
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:shortsample;sql.syntax_mys=true", "SA", "")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE sampled (id INTEGER)");
+            }
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO sampled VALUES (?)")) {
+                for (int i = 0; i < 10000; i++) {
+                    statement.setInt(1, i);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            DBConnection dbConnection = new DBConnection(connection, DbType.MYSQL, false);
+            TestFieldInfo.TestScanParameters scanParameters = new TestFieldInfo.TestScanParameters();
+            scanParameters.sampleSize = 1000;
+
+            // A sample of blocks that comes back short is scanned again from a sample over all rows
+            List<Long> scannedRows = new ArrayList<>();
+            DBConnection.SampleScanner scanner = queryResult -> {
+                long nRows = 0;
+                for (Row ignored : queryResult) {
+                    nRows++;
+                }
+                scannedRows.add(nRows);
+                return nRows;
+            };
+            QueryResult shortSample = new QueryResult("SELECT * FROM sampled WHERE id < 400", dbConnection);
+            dbConnection.scanSample("sampled", shortSample, () -> new QueryResult(
+                    DBConnection.getRandomFilterSampleQuery("sampled", "RAND()", 10000, 1000), dbConnection), 1000, scanner);
+            assertEquals(2, scannedRows.size());
+            assertEquals(400, scannedRows.get(0));
+            assertTrue(scannedRows.get(1) > 900 && scannedRows.get(1) <= 1000, "sampled rows: " + scannedRows.get(1));
+
+            // A complete sample is scanned once
+            scannedRows.clear();
+            dbConnection.scanRowsFromTable("sampled", 10000, scanParameters, scanner);
+            assertTrue(scannedRows.get(scannedRows.size() - 1) > 900);
+            scannedRows.clear();
+            scanParameters.sampleSize = -1;
+            dbConnection.scanRowsFromTable("sampled", 10000, scanParameters, scanner);
+            assertEquals(Collections.singletonList(10000L), scannedRows);
+        }
+    }
+
+    @Test
+    void testShortSampleIsKeptWithoutRandomFilter() throws SQLException, InterruptedException {
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:keptsample;sql.syntax_mys=true", "SA", "")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE sampled (id INTEGER)");
+            }
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO sampled VALUES (?)")) {
+                for (int i = 0; i < 400; i++) {
+                    statement.setInt(1, i);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            // Stands in for the SAMPLE clause of Oracle, which comes back short
+            List<String> queriedTables = new ArrayList<>();
+            DBConnection dbConnection = new DBConnection(connection, DbType.ORACLE, false) {
+                @Override
+                public QueryResult fetchRowsFromTable(String table, long rowCount, ScanParameters scanParameters) {
+                    queriedTables.add(table);
+                    return new QueryResult("SELECT * FROM " + table, this);
+                }
+            };
+            TestFieldInfo.TestScanParameters scanParameters = new TestFieldInfo.TestScanParameters();
+            scanParameters.sampleSize = 1000;
+
+            List<Long> scannedRows = new ArrayList<>();
+            dbConnection.scanRowsFromTable("sampled", 10000, scanParameters, queryResult -> {
+                long nRows = 0;
+                for (Row ignored : queryResult) {
+                    nRows++;
+                }
+                scannedRows.add(nRows);
+                return nRows;
+            });
+            // Sampling again in the same way would not fill the sample, so the short sample is kept
+            assertEquals(Collections.singletonList("sampled"), queriedTables);
+            assertEquals(Collections.singletonList(400L), scannedRows);
+        }
+    }
+
+    @Test
+    void testSampleQueriesFollowDialect() {
+        // 1% of the rows, with a margin of 3 standard deviations of 316 rows, rounded up
+        assertEquals("SELECT * FROM t TABLESAMPLE BERNOULLI (1.01) LIMIT 100000",
+                DBConnection.getTableSampleQuery("t", "TABLESAMPLE BERNOULLI (%s)", 1, 10000000, 100000));
+        // Blocks of 10000 rows vary a hundred times more in number of rows: 3 standard deviations of 31623 rows
+        assertEquals("SELECT * FROM t TABLESAMPLE SYSTEM (0.0001949 PERCENT) LIMIT 100000",
+                DBConnection.getTableSampleQuery("t", "TABLESAMPLE SYSTEM (%s PERCENT)", 10000, 100000000000L, 100000));
+        assertEquals("SELECT * FROM t WHERE RANDOM() < 0.515 LIMIT 10000",
+                DBConnection.getRandomFilterSampleQuery("t", "RANDOM()", 20000, 10000));
+        assertEquals("SELECT * FROM t WHERE RANDOM() < 1 LIMIT 10000",
+                DBConnection.getRandomFilterSampleQuery("t", "RANDOM()", 10001, 10000));
+        assertEquals("SELECT * FROM t", DBConnection.getTableSampleQuery("t", "TABLESAMPLE BERNOULLI (%s)", 1, 100, 100));
+    }
+}
@@ -0,0 +1,384 @@
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.Test;
+import org.ohdsi.utilities.collections.Pair;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFieldInfo {
+
+    static class TestScanParameters implements ScanParameters {
+        private boolean approximateValueCounts = false;
+        private boolean fingerprintValueCounts = false;
+        private boolean useQuantileSketch = false;
+        private int numStatsSamplerSize = 50;
+        int sampleSize = -1;
+        int maxValues = 1000;
+        private HeapBudget heapBudget = null;
+
+        @Override
+        public boolean doCalculateNumericStats() {
+            return true;
+        }
+
+        @Override
+        public int getNumStatsSamplerSize() {
+            return numStatsSamplerSize;
+        }
+
+        @Override
+        public int getMaxValues() {
+            return maxValues;
+        }
+
+        @Override
+        public boolean doScanValues() {
+            return true;
+        }
+
+        @Override
+        public int getMinCellCount() {
+            return 0;
+        }
+
+        @Override
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        @Override
+        public boolean doApproximateValueCounts() {
+            return approximateValueCounts;
+        }
+
+        @Override
+        public boolean doFingerprintValueCounts() {
+            return fingerprintValueCounts;
+        }
+
+        @Override
+        public boolean doUseQuantileSketch() {
+            return useQuantileSketch;
+        }
+
+        @Override
+        public HeapBudget getHeapBudget() {
+            return heapBudget;
+        }
+    }
+
+    @Test
+    void testMergeGivesSameResultAsSerialScan() {
+        ScanParameters scanParameters = new TestScanParameters();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            values.add(i % 7 == 0 ? "" : String.valueOf(i % 300));
+        }
+
+        FieldInfo serial = new FieldInfo(scanParameters, "field");
+        values.forEach(serial::processValue);
+
+        FieldInfo merged = new FieldInfo(scanParameters, "field");
+        for (int part = 0; part < 3; part++) {
+            FieldInfo partial = new FieldInfo(scanParameters, "field");
+            for (int i = part; i < values.size(); i += 3) {
+                partial.processValue(values.get(i));
+            }
+            merged.merge(partial);
+        }
+
+        assertEquals(serial.nProcessed, merged.nProcessed);
+        assertEquals(serial.emptyCount, merged.emptyCount);
+        assertEquals(serial.uniqueCount, merged.uniqueCount);
+        assertEquals(serial.sumLength, merged.sumLength);
+        assertEquals(serial.maxLength, merged.maxLength);
+        assertEquals(serial.getTypeDescription(), merged.getTypeDescription());
+        assertEquals(toMap(serial.getSortedValuesWithoutSmallValues()), toMap(merged.getSortedValuesWithoutSmallValues()));
+
+        UniformSamplingReservoir serialReservoir = (UniformSamplingReservoir) serial.numericSummary;
+        UniformSamplingReservoir mergedReservoir = (UniformSamplingReservoir) merged.numericSummary;
+        assertEquals(serialReservoir.getCount(), mergedReservoir.getCount());
+        assertEquals(serialReservoir.getPopulationMean(), mergedReservoir.getPopulationMean(), 1e-9);
+        assertEquals(serialReservoir.getPopulationMinimum(), mergedReservoir.getPopulationMinimum());
+        assertEquals(serialReservoir.getPopulationMaximum(), mergedReservoir.getPopulationMaximum());
+        List<Double> samples = mergedReservoir.getSamples();
+        assertEquals(50, samples.size());
+        for (int i = 1; i < samples.size(); i++) {
+            assertTrue(samples.get(i - 1) <= samples.get(i), "merged samples should be sorted");
+        }
+    }
+
+    @Test
+    void testIntegerValuesAreCountedUntilFirstOtherValue() {
+        ScanParameters scanParameters = new TestScanParameters();
+        FieldInfo fieldInfo = new FieldInfo(scanParameters, "field");
+        String[] values = {"7", "007", "-3", "", " 7", "7", "-3", "1234567890123456789"};
+        for (String value : values) {
+            fieldInfo.processValue(value);
+        }
+        assertTrue(fieldInfo.isInteger);
+        assertEquals(6, fieldInfo.uniqueCount);
+        // Plain integers are not counted as strings
+        assertFalse(fieldInfo.valueCounts.contains("7"));
+        assertTrue(fieldInfo.valueCounts.contains("007"));
+
+        fieldInfo.processValue("seven");
+        assertFalse(fieldInfo.isInteger);
+        assertEquals(7, fieldInfo.uniqueCount);
+        assertEquals(2, fieldInfo.valueCounts.getCount("7"));
+        assertEquals(2, fieldInfo.valueCounts.getCount("-3"));
+        assertEquals(1, fieldInfo.valueCounts.getCount("007"));
+        assertEquals(1, fieldInfo.valueCounts.getCount(" 7"));
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("7", 2);
+        expected.put("-3", 2);
+        expected.put("007", 1);
+        expected.put(" 7", 1);
+        expected.put("", 1);
+        expected.put("1234567890123456789", 1);
+        expected.put("seven", 1);
+        fieldInfo.trim();
+        assertEquals(expected, toMap(fieldInfo.getSortedValuesWithoutSmallValues()));
+    }
+
+    @Test
+    void testMergeOfFreeTextWithValues() {
+        ScanParameters scanParameters = new TestScanParameters();
+        String longText = "the quick brown fox jumps over the lazy dog, and keeps on running for a long long time after that.";
+
+        FieldInfo freeText = new FieldInfo(scanParameters, "field");
+        for (int i = 0; i < ScanParameters.N_FOR_FREE_TEXT_CHECK; i++) {
+            freeText.processValue(longText + i);
+        }
+        assertTrue(freeText.isFreeText);
+
+        FieldInfo values = new FieldInfo(scanParameters, "field");
+        values.processValue("Lazy Dog");
+
+        values.merge(freeText);
+        assertTrue(values.isFreeText);
+        assertEquals(ScanParameters.N_FOR_FREE_TEXT_CHECK + 1, values.valueCounts.getCount("lazy"));
+        assertEquals(ScanParameters.N_FOR_FREE_TEXT_CHECK + 1, values.nProcessed);
+    }
+
+    @Test
+    void testUniqueCountIsEstimatedWhenValuesDoNotFitInMemory() {
+        ScanParameters scanParameters = new TestScanParameters();
+        int n = 3 * ScanParameters.MAX_VALUES_IN_MEMORY;
+        FieldInfo serial = new FieldInfo(scanParameters, "field");
+        FieldInfo merged = new FieldInfo(scanParameters, "field");
+        FieldInfo[] parts = new FieldInfo[4];
+        for (int part = 0; part < parts.length; part++) {
+            parts[part] = new FieldInfo(scanParameters, "field");
+        }
+        for (int i = 0; i < n; i++) {
+            String value = "code" + (i % (n / 2));
+            serial.processValue(value);
+            parts[i % parts.length].processValue(value);
+        }
+        for (FieldInfo part : parts) {
+            merged.merge(part);
+        }
+
+        for (FieldInfo fieldInfo : new FieldInfo[]{serial, merged}) {
+            fieldInfo.trim();
+            assertTrue(fieldInfo.hasValuesTrimmed());
+            assertTrue(fieldInfo.isUniqueCountEstimated());
+            assertEquals(n / 2.0, fieldInfo.uniqueCount, 3 * fieldInfo.uniqueCountError * n / 2);
+        }
+    }
+
+    @Test
+    void testApproximateValueCountsFindMostFrequentValues() {
+        TestScanParameters scanParameters = new TestScanParameters();
+        scanParameters.approximateValueCounts = true;
+        FieldInfo serial = new FieldInfo(scanParameters, "field");
+        FieldInfo merged = new FieldInfo(scanParameters, "field");
+        FieldInfo[] parts = {new FieldInfo(scanParameters, "field"), new FieldInfo(scanParameters, "field")};
+        int n = 100_000;
+        for (int i = 0; i < n; i++) {
+            // 100 frequent codes, and a tail of 50,000 codes that occur once
+            String value = i % 2 == 0 ? "frequent" + (i / 2 % 100) : "rare" + i;
+            serial.processValue(value);
+            parts[i % 2 == 0 ? 0 : 1].processValue(value);
+        }
+        for (FieldInfo part : parts) {
+            merged.merge(part);
+        }
+
+        for (FieldInfo fieldInfo : new FieldInfo[]{serial, merged}) {
+            assertTrue(fieldInfo.hasValuesTrimmed());
+            assertTrue(fieldInfo.valueCounts.size() <= scanParameters.getMaxValues() * ScanParameters.APPROXIMATE_VALUE_COUNTS_FACTOR);
+            fieldInfo.trim();
+            assertTrue(fieldInfo.isUniqueCountEstimated());
+            assertEquals(50_100, fieldInfo.uniqueCount, 3 * fieldInfo.uniqueCountError * 50_100);
+
+            List<Pair<String, Integer>> values = fieldInfo.getSortedValuesWithoutSmallValues();
+            for (int i = 0; i < 100; i++) {
+                String value = values.get(i).getItem1();
+                assertTrue(value.startsWith("frequent"), value);
+                int count = values.get(i).getItem2();
+                assertTrue(count >= 500 && count <= 500 + n / 10_000, value + ": " + count);
+            }
+            assertTrue(values.get(values.size() - 1).getItem1().startsWith("Frequencies overestimated by at most"));
+        }
+    }
+
+    @Test
+    void testFingerprintValueCountsGiveSameValuesAsExactCounts() {
+        TestScanParameters exactParameters = new TestScanParameters();
+        TestScanParameters fingerprintParameters = new TestScanParameters();
+        fingerprintParameters.fingerprintValueCounts = true;
+        FieldInfo exact = new FieldInfo(exactParameters, "field");
+        FieldInfo serial = new FieldInfo(fingerprintParameters, "field");
+        FieldInfo merged = new FieldInfo(fingerprintParameters, "field");
+        FieldInfo[] parts = {new FieldInfo(fingerprintParameters, "field"), new FieldInfo(fingerprintParameters, "field")};
+        // As many descriptions that occur three times as are reported, and a tail of descriptions that occur once
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < fingerprintParameters.getMaxValues(); i++) {
+            Collections.addAll(values, "frequent description " + i, "frequent description " + i, "frequent description " + i);
+        }
+        for (int i = 0; i < 50_000; i++) {
+            values.add("rare description " + i);
+        }
+        Collections.shuffle(values, new Random(1));
+        for (int i = 0; i < values.size(); i++) {
+            exact.processValue(values.get(i));
+            serial.processValue(values.get(i));
+            parts[i % 2].processValue(values.get(i));
+        }
+        for (FieldInfo part : parts) {
+            merged.merge(part);
+        }
+
+        exact.trim();
+        for (FieldInfo fieldInfo : new FieldInfo[]{serial, merged}) {
+            assertFalse(fieldInfo.hasValuesTrimmed());
+            fieldInfo.trim();
+            assertEquals(exact.uniqueCount, fieldInfo.uniqueCount);
+            assertEquals(toMap(exact.getSortedValuesWithoutSmallValues()), toMap(fieldInfo.getSortedValuesWithoutSmallValues()));
+        }
+    }
+
+    @Test
+    void testHeapBudgetApproximatesLargestFields() {
+        TestScanParameters scanParameters = new TestScanParameters();
+        scanParameters.heapBudget = new HeapBudget(2 << 20);
+        FieldInfo small = new FieldInfo(scanParameters, "small");
+        FieldInfo large = new FieldInfo(scanParameters, "large");
+        int n = 100_000;
+        for (int i = 0; i < n; i++) {
+            small.processValue(String.valueOf(i % 10));
+            // 100 frequent codes, and a tail of 50,000 codes that occur once
+            large.processValue(i % 2 == 0 ? "frequent" + (i / 2 % 100) : "rare" + i);
+        }
+        assertTrue(scanParameters.heapBudget.getUsed() <= scanParameters.heapBudget.getBudget());
+
+        small.trim();
+        large.trim();
+        assertNull(small.memoryDecision);
+        assertEquals(10, small.uniqueCount);
+        assertNotNull(large.memoryDecision);
+        assertTrue(large.hasValuesTrimmed());
+        assertEquals(50_100, large.uniqueCount, 3 * large.uniqueCountError * 50_100);
+        List<Pair<String, Integer>> values = large.getSortedValuesWithoutSmallValues();
+        for (int i = 0; i < 100; i++) {
+            String value = values.get(i).getItem1();
+            assertTrue(value.startsWith("frequent"), value);
+            int count = values.get(i).getItem2();
+            assertTrue(count >= 500 && count <= 500 + n / 10_000, value + ": " + count);
+        }
+    }
+
+    @Test
+    void testQuantileSketchGivesNumericStats() {
+        TestScanParameters scanParameters = new TestScanParameters();
+        scanParameters.useQuantileSketch = true;
+        scanParameters.numStatsSamplerSize = 1000;
+        FieldInfo serial = new FieldInfo(scanParameters, "field");
+        FieldInfo merged = new FieldInfo(scanParameters, "field");
+        FieldInfo[] parts = {new FieldInfo(scanParameters, "field"), new FieldInfo(scanParameters, "field")};
+        int n = 100_000;
+        for (int i = 0; i < n; i++) {
+            String value = String.valueOf((i * 7919L) % n);
+            serial.processValue(value);
+            parts[i % 2].processValue(value);
+        }
+        for (FieldInfo part : parts) {
+            merged.merge(part);
+        }
+
+        for (FieldInfo fieldInfo : new FieldInfo[]{serial, merged}) {
+            QuantileSketch sketch = (QuantileSketch) fieldInfo.numericSummary;
+            double tolerance = sketch.getRankError() * n;
+            assertTrue(sketch.getRankError() > 0 && sketch.getRankError() < 0.05, "rank error " + sketch.getRankError());
+            fieldInfo.trim();
+            assertEquals(0d, fieldInfo.minimum);
+            assertEquals(n - 1d, fieldInfo.maximum);
+            assertEquals((n - 1) / 2d, (Double) fieldInfo.average, 1e-6);
+            assertEquals(n * 0.25, (Double) fieldInfo.q1, tolerance);
+            assertEquals(n * 0.5, (Double) fieldInfo.q2, tolerance);
+            assertEquals(n * 0.75, (Double) fieldInfo.q3, tolerance);
+        }
+    }
+
+    @Test
+    void testNumericAggregatesOfDates() {
+        FieldInfo fieldInfo = new FieldInfo(new TestScanParameters(), "field");
+        fieldInfo.type = "DATE";
+        fieldInfo.setAggregates(100, 10, 10, 50, 0);
+        fieldInfo.setNumericAggregates(true, 18262, 18628, 18445.5, 105.2, Double.NaN, Double.NaN, Double.NaN);
+        fieldInfo.trim();
+
+        assertEquals("2020-01-01", fieldInfo.minimum);
+        assertEquals("2021-01-01", fieldInfo.maximum);
+        assertEquals("2020-07-02", fieldInfo.average);
+        assertEquals(105.2, fieldInfo.stdev);
+        assertTrue(Double.isNaN((Double) fieldInfo.q2));
+    }
+
+    @Test
+    void testWriteAndReadGiveSameField() throws IOException {
+        ScanParameters scanParameters = new TestScanParameters();
+        FieldInfo original = new FieldInfo(scanParameters, "field");
+        original.label = "Label";
+        for (int i = 0; i < 1000; i++) {
+            original.processValue(i % 11 == 0 ? "" : String.valueOf(i % 40) + ".5");
+        }
+        original.trim();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        original.write(new DataOutputStream(bytes));
+        FieldInfo copy = FieldInfo.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), scanParameters);
+
+        assertEquals(original.name, copy.name);
+        assertEquals(original.label, copy.label);
+        assertEquals(original.nProcessed, copy.nProcessed);
+        assertEquals(original.emptyCount, copy.emptyCount);
+        assertEquals(original.uniqueCount, copy.uniqueCount);
+        assertEquals(original.uniqueCountError, copy.uniqueCountError);
+        assertEquals(original.sumLength, copy.sumLength);
+        assertEquals(original.maxLength, copy.maxLength);
+        assertEquals(original.getTypeDescription(), copy.getTypeDescription());
+        assertEquals(original.average, copy.average);
+        assertEquals(original.q2, copy.q2);
+        assertEquals(original.valueCounts.size(), copy.valueCounts.size());
+        for (String value : original.valueCounts) {
+            assertEquals(original.valueCounts.getCount(value), copy.valueCounts.getCount(value));
+        }
+    }
+
+    static Map<String, Integer> toMap(List<Pair<String, Integer>> values) {
+        return values.stream().collect(Collectors.toMap(Pair::getItem1, Pair::getItem2));
+    }
+}
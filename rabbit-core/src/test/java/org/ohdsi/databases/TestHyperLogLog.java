@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestHyperLogLog {
+
+    @Test
+    void testSmallCardinalityIsNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.getEstimate());
+        for (int i = 0; i < 3; i++) {
+            for (int value = 0; value < 100; value++) {
+                sketch.add("value " + value);
+            }
+        }
+        assertEquals(100, sketch.getEstimate(), 2);
+    }
+
+    @Test
+    void testEstimateIsWithinErrorBound() {
+        HyperLogLog sketch = new HyperLogLog();
+        int n = 1_000_000;
+        for (int i = 0; i < n; i++) {
+            sketch.add(Integer.toString(i));
+            // Duplicates do not change the estimate
+            sketch.add(Integer.toString(i / 2));
+        }
+        assertEquals(0.016, sketch.getRelativeError(), 0.001);
+        // Three standard errors
+        assertEquals(n, sketch.getEstimate(), 3 * sketch.getRelativeError() * n);
+    }
+
+    @Test
+    void testMergeGivesUnion() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 200_000; i++) {
+            String value = "id" + i;
+            // Half of the values are in both sketches
+            if (i < 150_000) {
+                first.add(value);
+            }
+            if (i >= 50_000) {
+                second.add(value);
+            }
+            all.add(value);
+        }
+        first.merge(second);
+        assertEquals(all.getEstimate(), first.getEstimate());
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new HyperLogLog(10)));
+    }
+}
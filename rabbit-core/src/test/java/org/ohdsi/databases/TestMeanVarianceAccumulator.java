@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestMeanVarianceAccumulator {
+
+    @Test
+    void testEmptyAndSingleValue() {
+        MeanVarianceAccumulator accumulator = new MeanVarianceAccumulator();
+        assertTrue(Double.isNaN(accumulator.getMean()));
+        assertTrue(Double.isNaN(accumulator.getPopulationStandardDeviation()));
+        accumulator.add(3.5);
+        assertEquals(3.5, accumulator.getMean());
+        assertEquals(0, accumulator.getPopulationStandardDeviation());
+    }
+
+    @Test
+    void testMatchesExactArithmetic() {
+        // Large identifiers with a small spread lose precision with naive sums of squares
+        Random random = new Random(1);
+        MeanVarianceAccumulator accumulator = new MeanVarianceAccumulator();
+        double[] values = new double[1_000_000];
+        BigDecimal exactSum = BigDecimal.ZERO;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1e9 + random.nextInt(1000) + 0.1;
+            accumulator.add(values[i]);
+            exactSum = exactSum.add(new BigDecimal(values[i]));
+        }
+        BigDecimal exactMean = exactSum.divide(BigDecimal.valueOf(values.length), MathContext.DECIMAL128);
+        BigDecimal squaredDeviations = BigDecimal.ZERO;
+        for (double value : values) {
+            BigDecimal deviation = new BigDecimal(value).subtract(exactMean);
+            squaredDeviations = squaredDeviations.add(deviation.multiply(deviation));
+        }
+        double exactStandardDeviation = Math.sqrt(squaredDeviations.divide(BigDecimal.valueOf(values.length), MathContext.DECIMAL128).doubleValue());
+
+        assertEquals(exactMean.doubleValue(), accumulator.getMean(), 1e-6);
+        assertEquals(exactStandardDeviation, accumulator.getPopulationStandardDeviation(), 1e-6);
+    }
+
+    @Test
+    void testMergeGivesSameResultAsSerial() {
+        MeanVarianceAccumulator serial = new MeanVarianceAccumulator();
+        MeanVarianceAccumulator[] parts = {new MeanVarianceAccumulator(), new MeanVarianceAccumulator(), new MeanVarianceAccumulator()};
+        for (int i = 0; i < 10_000; i++) {
+            // The parts have very different means
+            double value = (i % 3) * 1000 + i * 0.01;
+            serial.add(value);
+            parts[i % 3].add(value);
+        }
+        MeanVarianceAccumulator merged = new MeanVarianceAccumulator();
+        for (MeanVarianceAccumulator part : parts) {
+            merged.merge(part);
+        }
+        merged.merge(new MeanVarianceAccumulator());
+
+        assertEquals(serial.getCount(), merged.getCount());
+        assertEquals(serial.getMean(), merged.getMean(), 1e-9);
+        assertEquals(serial.getPopulationStandardDeviation(), merged.getPopulationStandardDeviation(), 1e-9);
+    }
+}
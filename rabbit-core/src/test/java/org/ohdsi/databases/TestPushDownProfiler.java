@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ohdsi.databases.configuration.DbType;
+import org.ohdsi.utilities.collections.Pair;
+import org.ohdsi.utilities.files.Row;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestPushDownProfiler {
+    private static final String[] COLUMNS = {"ID", "CODE", "NOTE"};
+
+    private Connection connection;
+    private DBConnection dbConnection;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:pushdown;sql.syntax_pgs=true;get_column_name=false", "SA", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE profiled (id INTEGER, code VARCHAR(20), note VARCHAR(40))");
+        }
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO profiled VALUES (?, ?, ?)")) {
+            for (int i = 0; i < 1000; i++) {
+                statement.setInt(1, i);
+                // A skewed distribution of codes, and notes that are NULL, blank or one of a few values
+                statement.setString(2, "code " + (i % 7) * (i % 3));
+                statement.setString(3, i % 4 == 0 ? null : (i % 4 == 1 ? "  " : "note " + (i % 5)));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        dbConnection = new DBConnection(connection, DbType.POSTGRESQL, false);
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE profiled");
+            statement.execute("DROP TABLE quoted IF EXISTS");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testAggregatesGiveSameProfileAsValues() {
+        ScanParameters scanParameters = new TestFieldInfo.TestScanParameters();
+        List<FieldInfo> scanned = createFieldInfos(scanParameters);
+        QueryResult queryResult = dbConnection.query("SELECT * FROM profiled");
+        for (Row row : queryResult) {
+            for (FieldInfo fieldInfo : scanned) {
+                fieldInfo.processValue(row.get(fieldInfo.name));
+            }
+        }
+        queryResult.close();
+        List<FieldInfo> profiled = createFieldInfos(scanParameters);
+        dbConnection.profileTable("profiled", profiled, scanParameters);
+
+        for (int i = 0; i < COLUMNS.length; i++) {
+            FieldInfo expected = scanned.get(i);
+            FieldInfo actual = profiled.get(i);
+            expected.trim();
+            actual.trim();
+            assertEquals(expected.nProcessed, actual.nProcessed, expected.name);
+            assertEquals(expected.emptyCount, actual.emptyCount, expected.name);
+            assertEquals(expected.maxLength, actual.maxLength, expected.name);
+            assertEquals(expected.uniqueCount, actual.uniqueCount, expected.name);
+            assertFalse(actual.isUniqueCountEstimated());
+            assertEquals(TestFieldInfo.toMap(expected.getSortedValuesWithoutSmallValues()), TestFieldInfo.toMap(actual.getSortedValuesWithoutSmallValues()), expected.name);
+        }
+    }
+
+    @Test
+    void testColumnNamesAreQuoted() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE quoted (\"select\" INTEGER, \"Mixed Case\" VARCHAR(20))");
+            statement.execute("INSERT INTO quoted VALUES (1, 'a'), (2, 'b'), (3, 'b'), (NULL, NULL)");
+        }
+        ScanParameters scanParameters = new TestFieldInfo.TestScanParameters();
+        List<FieldInfo> fieldInfos = new ArrayList<>();
+        fieldInfos.add(new FieldInfo(scanParameters, "select"));
+        fieldInfos.add(new FieldInfo(scanParameters, "Mixed Case"));
+        fieldInfos.get(0).type = "integer";
+        dbConnection.profileTable("quoted", fieldInfos, scanParameters);
+
+        FieldInfo mixedCase = fieldInfos.get(1);
+        mixedCase.trim();
+        assertEquals(4, mixedCase.nProcessed);
+        assertEquals(1, mixedCase.emptyCount);
+        assertEquals(3, mixedCase.uniqueCount);
+        assertEquals(2, TestFieldInfo.toMap(mixedCase.getSortedValuesWithoutSmallValues()).get("b"));
+
+        // The key of the partitions is quoted as well
+        List<TablePartition> partitions = dbConnection.createTablePartitions("quoted", fieldInfos, 2);
+        assertEquals(2, partitions.size());
+        int nRows = 0;
+        for (TablePartition partition : partitions) {
+            QueryResult queryResult = dbConnection.fetchRowsFromTable("quoted", partition);
+            for (Row ignored : queryResult) {
+                nRows++;
+            }
+            queryResult.close();
+        }
+        assertEquals(4, nRows);
+    }
+
+    @Test
+    void testTruncatedValueListIsMarked() {
+        TestFieldInfo.TestScanParameters scanParameters = new TestFieldInfo.TestScanParameters();
+        scanParameters.maxValues = 3;
+        List<FieldInfo> profiled = createFieldInfos(scanParameters);
+        dbConnection.profileTable("profiled", profiled, scanParameters);
+
+        FieldInfo id = profiled.get(0);
+        id.trim();
+        List<Pair<String, Integer>> values = id.getSortedValuesWithoutSmallValues();
+        assertEquals(4, values.size());
+        assertEquals("List truncated...", values.get(3).getItem1());
+    }
+
+    @Test
+    void testNumericStatisticsAreAggregated() {
+        List<FieldInfo> fieldInfos = createFieldInfos(new TestFieldInfo.TestScanParameters());
+        fieldInfos.get(0).type = "INTEGER";
+        dbConnection.profileTable("profiled", fieldInfos, new TestFieldInfo.TestScanParameters());
+
+        FieldInfo id = fieldInfos.get(0);
+        id.trim();
+        assertEquals(0.0, id.minimum);
+        assertEquals(999.0, id.maximum);
+        // HSQLDB rounds the average of integers, PostgreSQL does not
+        assertEquals(499.5, (Double) id.average, 0.5);
+        assertEquals(Math.sqrt((1000.0 * 1000.0 - 1) / 12), (Double) id.stdev, 1e-6);
+        // HSQLDB has no PERCENTILE_CONT, so the statistics are computed again without the quartiles
+        assertTrue(Double.isNaN((Double) id.q1));
+        assertTrue(Double.isNaN((Double) id.q3));
+        assertNull(fieldInfos.get(1).minimum);
+    }
+
+    @Test
+    void testQueriesFollowDialect() {
+        List<FieldInfo> fieldInfos = createFieldInfos(new TestFieldInfo.TestScanParameters());
+        PushDownProfiler sqlServer = new PushDownProfiler(dbConnection, DbType.SQL_SERVER);
+        assertEquals("SELECT TOP 10 [CODE], COUNT(*) AS value_frequency FROM [t] GROUP BY [CODE] ORDER BY COUNT(*) DESC",
+                sqlServer.getTopValuesQuery("[t]", "CODE", 10));
+        assertTrue(sqlServer.getAggregatesQuery("[t]", fieldInfos, false).contains("MAX(LEN(CAST([CODE] AS NVARCHAR(MAX)))) AS aggregate5"));
+
+        PushDownProfiler oracle = new PushDownProfiler(dbConnection, DbType.ORACLE);
+        assertTrue(oracle.getTopValuesQuery("t", "CODE", 10).endsWith(" FETCH FIRST 10 ROWS ONLY"));
+
+        PushDownProfiler snowflake = new PushDownProfiler(dbConnection, DbType.SNOWFLAKE);
+        assertTrue(snowflake.getAggregatesQuery("t", fieldInfos, false).contains("APPROX_COUNT_DISTINCT(\"NOTE\")"));
+        assertTrue(snowflake.getTopValuesQuery("t", "CODE", 10).endsWith(" LIMIT 10"));
+    }
+
+    @Test
+    void testNumericStatisticsFollowDialect() {
+        List<FieldInfo> fieldInfos = createFieldInfos(new TestFieldInfo.TestScanParameters());
+        fieldInfos.get(0).type = "numeric(10,2)";
+        fieldInfos.get(1).type = "timestamp(6) without time zone";
+        assertFalse(new PushDownProfiler(dbConnection, DbType.POSTGRESQL).getAggregatesQuery("t", fieldInfos, false).contains("MIN("));
+
+        String sqlServer = new PushDownProfiler(dbConnection, DbType.SQL_SERVER).getAggregatesQuery("[t]", fieldInfos, true);
+        assertTrue(sqlServer.contains("STDEVP(CAST([ID] AS FLOAT))"));
+        assertTrue(sqlServer.contains("MIN(DATEDIFF(day, '19700101', [CODE]))"));
+        assertFalse(sqlServer.contains("PERCENTILE"));
+        assertFalse(sqlServer.contains("MIN([NOTE])"));
+
+        String bigQuery = new PushDownProfiler(dbConnection, DbType.BIGQUERY).getAggregatesQuery("t", fieldInfos, true);
+        assertTrue(bigQuery.contains("APPROX_QUANTILES(`ID`, 4)[OFFSET(2)]"));
+        assertTrue(bigQuery.contains("MAX(UNIX_DATE(DATE(`CODE`)))"));
+
+        String snowflake = new PushDownProfiler(dbConnection, DbType.SNOWFLAKE).getAggregatesQuery("t", fieldInfos, true);
+        assertTrue(snowflake.contains("APPROX_PERCENTILE(\"ID\", 0.75)"));
+    }
+
+    private static List<FieldInfo> createFieldInfos(ScanParameters scanParameters) {
+        List<FieldInfo> fieldInfos = new ArrayList<>();
+        for (String column : COLUMNS) {
+            fieldInfos.add(new FieldInfo(scanParameters, column));
+        }
+        return fieldInfos;
+    }
+}
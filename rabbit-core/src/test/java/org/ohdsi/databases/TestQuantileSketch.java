@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestQuantileSketch {
+
+    @Test
+    void testExactBeforeCompaction() {
+        QuantileSketch sketch = new QuantileSketch(100);
+        UniformSamplingReservoir reservoir = new UniformSamplingReservoir(100);
+        for (double value : new double[]{5, 1, 4, 2, 3, 9, 7}) {
+            sketch.add(value);
+            reservoir.add(value);
+        }
+        assertEquals(0, sketch.getRankError());
+        assertEquals(reservoir.getSampleQuartiles(), sketch.getSampleQuartiles());
+        assertEquals(Math.sqrt(334) / 7, sketch.getPopulationStandardDeviation(), 1e-12);
+        assertEquals(31 / 7d, sketch.getPopulationMean(), 1e-12);
+        assertEquals(1, sketch.getPopulationMinimum());
+        assertEquals(9, sketch.getPopulationMaximum());
+    }
+
+    @Test
+    void testQuartilesAreWithinRankError() {
+        int n = 200_000;
+        List<Double> values = new ArrayList<>(n);
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            values.add(random.nextGaussian() * 10 + (i % 3 == 0 ? 100 : 0));
+        }
+
+        QuantileSketch sketch = new QuantileSketch(200);
+        values.forEach(sketch::add);
+        assertEquals(n, sketch.getCount());
+        assertTrue(sketch.getRetainedItems() < 200 * 20);
+        assertQuartilesWithinRankError(sketch, values);
+    }
+
+    @Test
+    void testMergeKeepsRankError() {
+        int n = 100_000;
+        List<Double> values = new ArrayList<>(n);
+        List<QuantileSketch> parts = Arrays.asList(new QuantileSketch(200), new QuantileSketch(200), new QuantileSketch(200));
+        for (int i = 0; i < n; i++) {
+            // Sorted input, and each part gets a different range
+            double value = i;
+            values.add(value);
+            parts.get(i * parts.size() / n).add(value);
+        }
+
+        QuantileSketch merged = new QuantileSketch(200);
+        parts.forEach(merged::merge);
+        assertEquals(n, merged.getCount());
+        assertEquals(0, merged.getPopulationMinimum());
+        assertEquals(n - 1, merged.getPopulationMaximum());
+        assertQuartilesWithinRankError(merged, values);
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new UniformSamplingReservoir(10)));
+    }
+
+    private static void assertQuartilesWithinRankError(QuantileSketch sketch, List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        double rankError = sketch.getRankError();
+        assertTrue(rankError > 0 && rankError < 0.2, "rank error " + rankError);
+        List<Double> quartiles = sketch.getSampleQuartiles();
+        for (int i = 1; i <= 3; i++) {
+            double quartile = quartiles.get(i - 1);
+            // Range of ranks of the returned value in the data
+            int lowRank = Collections.binarySearch(sorted, quartile);
+            assertTrue(lowRank >= 0, "quartile should be one of the values");
+            int highRank = lowRank;
+            while (lowRank > 0 && sorted.get(lowRank - 1) == quartile) {
+                lowRank--;
+            }
+            while (highRank < n - 1 && sorted.get(highRank + 1) == quartile) {
+                highRank++;
+            }
+            double targetRank = i * n * 0.25;
+            double distance = Math.max(0, Math.max(lowRank - targetRank, targetRank - (highRank + 1)));
+            assertTrue(distance <= rankError * n, "quartile " + i + " is " + distance + " ranks off, bound " + rankError * n);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ohdsi.databases.configuration.DbType;
+import org.ohdsi.utilities.files.Row;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestRowBatchReader {
+    private static final String QUERY = "SELECT * FROM scanned ORDER BY id";
+    private static final int N_ROWS = 2500;
+
+    private Connection connection;
+    private DBConnection dbConnection;
+    private ScanParameters scanParameters;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:rowbatchreader", "SA", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE scanned (id INTEGER, name VARCHAR(20), note VARCHAR(40))");
+        }
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO scanned VALUES (?, ?, ?)")) {
+            for (int i = 0; i < N_ROWS; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "name " + (i % 10));
+                // Empty, with a time of midnight, or a plain note
+                statement.setString(3, i % 3 == 0 ? null : (i % 3 == 1 ? "2020-01-01 00:00:00" : "note " + i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        dbConnection = new DBConnection(connection, DbType.POSTGRESQL, false);
+        scanParameters = new TestFieldInfo.TestScanParameters();
+    }
+
+    @AfterEach
+    void dropTable() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE scanned");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testBatchesHoldSameValuesAsRows() {
+        List<FieldInfo> fieldInfos = Arrays.asList(new FieldInfo(scanParameters, "NOTE"), new FieldInfo(scanParameters, "ID"));
+        List<String> notes = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        QueryResult queryResult = dbConnection.query(QUERY);
+        for (Row row : queryResult) {
+            notes.add(row.get("NOTE"));
+            ids.add(row.get("ID"));
+        }
+        assertEquals("", notes.get(0));
+        assertEquals("2020-01-01", notes.get(1));
+
+        RowBatchReader reader = queryResult.batchReader(fieldInfos);
+        RowBatch batch = new RowBatch(fieldInfos.size(), 1000);
+        List<Integer> batchSizes = new ArrayList<>();
+        int rowCount = 0;
+        int nRows;
+        while ((nRows = reader.read(batch, Integer.MAX_VALUE)) > 0) {
+            batchSizes.add(nRows);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(notes.get(rowCount + i), batch.get(0, i));
+                assertEquals(ids.get(rowCount + i), batch.get(1, i));
+            }
+            rowCount += nRows;
+            batch.clear();
+        }
+        queryResult.close();
+        assertEquals(Arrays.asList(1000, 1000, 500), batchSizes);
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void testReadStopsAtMaxRows() {
+        QueryResult queryResult = dbConnection.query(QUERY);
+        RowBatchReader reader = queryResult.batchReader(Arrays.asList(new FieldInfo(scanParameters, "NAME")));
+        RowBatch batch = new RowBatch(1, 1000);
+        assertEquals(10, reader.read(batch, 10));
+        assertEquals(10, reader.read(batch, 10));
+        assertEquals(20, batch.size());
+        assertEquals("name 9", batch.get(0, 19));
+        assertTrue(reader.hasNext());
+        queryResult.close();
+    }
+
+    @Test
+    void testCursorIsReadInTransactionThatEndsWithResult() throws SQLException {
+        dbConnection.setFetchSize(100);
+        QueryResult queryResult = dbConnection.query(QUERY);
+        Iterator<Row> iterator = queryResult.iterator();
+        int rowCount = 0;
+        while (iterator.hasNext()) {
+            // A PostgreSQL connection reads through a cursor, which needs a transaction
+            assertFalse(connection.getAutoCommit());
+            iterator.next();
+            rowCount++;
+        }
+        assertEquals(N_ROWS, rowCount);
+        assertTrue(connection.getAutoCommit());
+
+        // Also when the result is closed before all rows have been read
+        queryResult.iterator().next();
+        assertFalse(connection.getAutoCommit());
+        queryResult.close();
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    void testUnknownFieldIsReported() {
+        QueryResult queryResult = dbConnection.query(QUERY);
+        List<FieldInfo> fieldInfos = Arrays.asList(new FieldInfo(scanParameters, "MISSING"));
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> queryResult.batchReader(fieldInfos));
+        assertTrue(exception.getMessage().contains("MISSING"));
+        queryResult.close();
+    }
+}
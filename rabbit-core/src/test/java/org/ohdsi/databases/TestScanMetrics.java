@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.databases;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestScanMetrics {
+
+    @Test
+    void testTableMetrics() {
+        ScanMetrics scanMetrics = new ScanMetrics();
+        TableScanMetrics table = scanMetrics.startTable("person");
+        assertEquals(-1, table.getFetchMillis(), "rows were not timed yet");
+        assertEquals(-1, table.getCountMillis());
+
+        table.addCountTime(2_000_000);
+        table.addCountTime(3_000_000);
+        long time = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            time = table.fetched(100, time);
+            time = table.profiled(time);
+        }
+        table.addBytes(1234);
+        assertArrayEquals(new String[]{"person"}, scanMetrics.getTablesInProgress());
+        table.finish();
+
+        assertEquals(5, table.getCountMillis());
+        assertEquals(-1, table.getMetadataMillis());
+        assertTrue(table.getFirstRowMillis() >= 0);
+        assertTrue(table.getFetchMillis() >= 0);
+        assertTrue(table.getProfilingMillis() >= 0);
+        assertEquals(1000, table.getRows());
+        assertEquals(1000, scanMetrics.getRowsProcessed());
+        assertEquals(1234, scanMetrics.getBytesRead());
+        assertEquals(1, scanMetrics.getTablesFinished());
+        assertEquals(0, scanMetrics.getTablesInProgress().length);
+    }
+
+    @Test
+    void testRegister() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ScanMetrics.OBJECT_NAME);
+        ScanMetrics scanMetrics = new ScanMetrics();
+        scanMetrics.startTable("person").addRows(42);
+        scanMetrics.register();
+        try {
+            assertEquals(42L, server.getAttribute(name, "RowsProcessed"));
+        } finally {
+            scanMetrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
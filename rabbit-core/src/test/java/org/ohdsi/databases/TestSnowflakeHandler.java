@@ -53,6 +53,14 @@ class TestSnowflakeHandler {
         }
     }
 
+    @Test
+    void testGetRowSampleQuery() {
+        assertEquals("SELECT * FROM db.schema.table SAMPLE (100 ROWS)",
+                getRowSampleQueryStaticForResolvedTableName("db.schema.table", 1000, 100));
+        assertEquals("SELECT * FROM db.schema.table", getRowSampleQueryStaticForResolvedTableName("db.schema.table", 100, 1000));
+        assertEquals("SELECT * FROM db.schema.table", getRowSampleQueryStaticForResolvedTableName("db.schema.table", 100, -1));
+    }
+
     @Test
     void testLoadAndValidateConfiguration() {
         ScanConfiguration snowflakeConfiguration = new SnowflakeConfiguration();
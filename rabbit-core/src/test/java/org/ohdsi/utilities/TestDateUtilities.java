@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestDateUtilities {
+
+    // The formats that StringUtilities.isDate() used to try one by one with a DateTimeFormatter
+    private static final List<DateTimeFormatter> REFERENCE_FORMATTERS = new ArrayList<>();
+
+    static {
+        for (String sep : new String[]{"/", ".", "-", " "}) {
+            for (String year : new String[]{"yy", "yyyy"}) {
+                for (String month : new String[]{"M", "MM"}) {
+                    for (String day : new String[]{"d", "dd"}) {
+                        REFERENCE_FORMATTERS.add(DateTimeFormatter.ofPattern(year + sep + month + sep + day));
+                        REFERENCE_FORMATTERS.add(DateTimeFormatter.ofPattern(day + sep + month + sep + year));
+                        REFERENCE_FORMATTERS.add(DateTimeFormatter.ofPattern(month + sep + day + sep + year));
+                    }
+                }
+            }
+        }
+    }
+
+    private static long referenceEpochDay(String value) {
+        for (DateTimeFormatter formatter : REFERENCE_FORMATTERS) {
+            try {
+                return LocalDate.from(formatter.parse(value)).toEpochDay();
+            } catch (Exception ignored) {
+            }
+        }
+        return DateUtilities.NOT_A_DATE;
+    }
+
+    private static void assertSameAsReference(String value) {
+        assertEquals(referenceEpochDay(value), DateUtilities.toEpochDay(value), "'" + value + "'");
+    }
+
+    @Test
+    void testToEpochDay() {
+        assertEquals(LocalDate.of(2023, 1, 31).toEpochDay(), DateUtilities.toEpochDay("2023-01-31"));
+        // a 2 digit year is tried first at the start, so this is 2031-01-23 rather than 2023-01-31
+        assertEquals(LocalDate.of(2031, 1, 23).toEpochDay(), DateUtilities.toEpochDay("31.01.23"));
+        assertEquals(LocalDate.of(2023, 12, 31).toEpochDay(), DateUtilities.toEpochDay("12/31/2023"));
+        assertEquals(LocalDate.of(1970, 1, 1).toEpochDay(), DateUtilities.parseDate("1970 1 1"));
+        assertEquals(DateUtilities.NOT_A_DATE, DateUtilities.toEpochDay("2023-13-01"));
+        assertThrows(RuntimeException.class, () -> DateUtilities.parseDate("not a date"));
+
+        List<String> values = Arrays.asList(
+                "2023-01-01", "01/02/03", "1/2/3", "2023-02-29", "2024-02-30", "2023-04-31", "2023-02-32", "1900-02-29",
+                "2000-02-29", "0000-01-01", "0001-01-01", "9999-12-31", "99-12-31", "00-01-01", "2023-001-01",
+                "0000000000000000001-1-2023", "00000000000000000001-1-2023", "+12345-01-01", "+2023-01-01",
+                "1-1-+12345", "1-1-+2023", "-2023-01-01", "2023-+1-01", "2023-1-+1", "2023/01-01", "2023--01-01",
+                "2023-01-01-01", "2023-01", "20230101", "2023-01-01 ", " 2023-01-01", "2023-01-01T00:00", "1.5",
+                "13-12-2023", "13-13-2023", "31 12 99", "+999999999-12-31", "+1000000000-01-01", "");
+        for (String value : values) {
+            assertSameAsReference(value);
+        }
+    }
+
+    @Test
+    void testToEpochDayRandomValues() {
+        Random random = new Random(0);
+        String characters = "0123456789/.- +";
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder value = new StringBuilder();
+            int length = 5 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                // mostly digits, so that many values are dates
+                value.append(characters.charAt(random.nextInt(random.nextBoolean() ? 10 : characters.length())));
+            }
+            assertSameAsReference(value.toString());
+        }
+        for (int i = 0; i < 2000; i++) {
+            String value = (1 + random.nextInt(40)) + "-" + (1 + random.nextInt(40)) + "-" + random.nextInt(3000);
+            assertSameAsReference(value);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestValueClassifier {
+    private static final int ALL = ValueClassifier.INTEGER | ValueClassifier.REAL | ValueClassifier.DATE;
+
+    private static void assertSameAsStringUtilities(ValueClassifier classifier, String value) {
+        int types = classifier.classify(value, ALL);
+        assertEquals(StringUtilities.isLong(value), (types & ValueClassifier.INTEGER) != 0, "integer: '" + value + "'");
+        assertEquals(StringUtilities.isNumber(value), (types & ValueClassifier.REAL) != 0, "real: '" + value + "'");
+        assertEquals(StringUtilities.isDate(value), (types & ValueClassifier.DATE) != 0, "date: '" + value + "'");
+        if ((types & ValueClassifier.REAL) != 0) {
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(classifier.getNumber()), "number: '" + value + "'");
+        }
+    }
+
+    @Test
+    void testClassify() {
+        ValueClassifier classifier = new ValueClassifier();
+        List<String> values = Arrays.asList(
+                "0", "-0", "+0", "007", "123", "-123", "+123", "-", "+", ".", "1.", ".5", "-.5", "+.5", "1.5", "1.5.1",
+                "1e5", "1E-5", "1e+5", "1e", "1e+", ".e5", "e5", "1.5f", "1d", "1.D", "1e5f", "1f5", "1x", "0x1p3",
+                "0x10", "NaN", "-Infinity", "Infinity", "Inf", "N",
+                "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+                "00000000000000000000000001", "123456789012345678901234567890",
+                "2023-01-31", "31.01.23", "01/01/2023", "2023 01 01", "2023-13-01", "1.2.3", "12-31-2023", "2023-001-01",
+                "١٢٣", "１２", "1é", "abc", "12abc", "1 2", "1,5", "--1");
+        for (String value : values) {
+            assertSameAsStringUtilities(classifier, value);
+        }
+    }
+
+    @Test
+    void testClassifyRandomValues() {
+        ValueClassifier classifier = new ValueClassifier();
+        Random random = new Random(0);
+        String characters = "0123456789+-.eEdDfx /N";
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder value = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                value.append(characters.charAt(random.nextInt(characters.length())));
+            }
+            String trimmed = value.toString().trim();
+            if (!trimmed.isEmpty()) {
+                assertSameAsStringUtilities(classifier, trimmed);
+            }
+        }
+    }
+
+    @Test
+    void testOnlyCandidatesAreReturned() {
+        ValueClassifier classifier = new ValueClassifier();
+        assertEquals(ValueClassifier.REAL, classifier.classify("42", ValueClassifier.REAL));
+        assertEquals(42.0, classifier.getNumber());
+        assertEquals(0, classifier.classify("42", ValueClassifier.DATE));
+        assertEquals(ValueClassifier.DATE, classifier.classify("2023-01-31", ValueClassifier.DATE | ValueClassifier.INTEGER));
+        assertEquals(java.time.LocalDate.of(2023, 1, 31).toEpochDay(), classifier.getEpochDay());
+    }
+}
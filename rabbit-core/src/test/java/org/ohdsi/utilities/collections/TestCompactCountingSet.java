@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestCompactCountingSet {
+
+    @Test
+    void testSameCountsAsCountingSet() {
+        CompactCountingSet<String> set = new CompactCountingSet<>();
+        CountingSet<String> reference = new CountingSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            String key = "key" + random.nextInt(3000);
+            if (random.nextInt(10) == 0) {
+                assertEquals(reference.remove(key), set.remove(key));
+            } else {
+                assertEquals(reference.add(key), set.add(key));
+            }
+        }
+        set.add(null, 2);
+        reference.add(null, 2);
+
+        assertEquals(reference.size(), set.size());
+        assertEquals(reference.getSum(), set.getSum());
+        assertEquals(reference.getMax(), set.getMax());
+        assertEquals(reference.getSD(), set.getSD(), 1e-9);
+        for (String key : reference) {
+            assertTrue(set.contains(key));
+            assertEquals(reference.getCount(key), set.getCount(key));
+            assertEquals(reference.getCount(key), set.key2count.get(key).count);
+        }
+        Set<String> keys = new HashSet<>();
+        for (String key : set) {
+            keys.add(key);
+        }
+        assertEquals(reference.key2count.keySet(), keys);
+        assertEquals(reference.size(), set.key2count.entrySet().size());
+        assertEquals(0, set.getCount("absent"));
+        assertNull(set.key2count.get("absent"));
+    }
+
+    @Test
+    void testMergeWithOtherImplementation() {
+        CompactCountingSet<String> set = new CompactCountingSet<>();
+        CountingSet<String> other = new CountingSet<>();
+        for (int i = 0; i < 100; i++) {
+            set.add("key" + i);
+            other.add("key" + (i + 50), 2);
+        }
+        set.merge(other);
+        set.merge(new CompactCountingSet<>(other));
+
+        assertEquals(150, set.size());
+        assertEquals(1, set.getCount("key0"));
+        assertEquals(5, set.getCount("key50"));
+        assertEquals(4, set.getCount("key149"));
+    }
+
+    @Test
+    void testChangesThroughKey2Count() {
+        for (CountingSet<String> set : Arrays.asList(new CountingSet<String>(), new CompactCountingSet<String>())) {
+            for (int i = 0; i < 100; i++) {
+                set.add("key" + i, 2);
+            }
+            set.key2count.get("key1").count++;
+            set.key2count.get("key2").add(10);
+            for (Map.Entry<String, CountingSet.Count> entry : set.key2count.entrySet()) {
+                if (entry.getKey().equals("key3")) {
+                    entry.getValue().increment();
+                }
+            }
+            assertNull(set.key2count.put("new", new CountingSet.Count(7)));
+            assertEquals(2, set.key2count.put("key4", new CountingSet.Count(5)).count);
+            assertEquals(2, set.key2count.remove("key5").count);
+            assertNull(set.key2count.remove("absent"));
+
+            assertEquals(3, set.getCount("key1"));
+            assertEquals(12, set.getCount("key2"));
+            assertEquals(3, set.getCount("key3"));
+            assertEquals(7, set.getCount("new"));
+            assertEquals(5, set.getCount("key4"));
+            assertFalse(set.contains("key5"));
+            assertEquals(100, set.size());
+            assertEquals(2 * 100 + 1 + 10 + 1 + 7 + 3 - 2, set.getSum());
+
+            // The changed counts are kept when the set grows, is merged and is trimmed
+            CountingSet.Count count = set.key2count.get("key1");
+            for (int i = 100; i < 1000; i++) {
+                set.add("key" + i);
+            }
+            count.add(100);
+            assertEquals(103, set.getCount("key1"));
+            CompactCountingSet<String> merged = new CompactCountingSet<>();
+            merged.merge(set);
+            assertEquals(103, merged.getCount("key1"));
+            assertEquals(12, merged.getCount("key2"));
+            set.keepTopN(3);
+            assertEquals(103, set.getCount("key1"));
+            assertEquals(12, set.getCount("key2"));
+            assertEquals(7, set.getCount("new"));
+            count.add(1);
+            assertEquals(104, set.getCount("key1"));
+
+            set.key2count.clear();
+            assertTrue(set.isEmpty());
+        }
+    }
+
+    @Test
+    void testForEachCount() {
+        for (CountingSet<String> set : Arrays.asList(new CountingSet<String>(), new CompactCountingSet<String>())) {
+            for (int i = 0; i < 100; i++) {
+                set.add("key" + i, i);
+            }
+            set.key2count.get("key1").count++;
+            Map<String, Integer> counts = new HashMap<>();
+            set.forEachCount(counts::put);
+            assertEquals(100, counts.size());
+            assertEquals(2, counts.get("key1"));
+            assertEquals(99, counts.get("key99"));
+        }
+    }
+
+    @Test
+    void testKeepTopN() {
+        for (CountingSet<String> set : Arrays.asList(new CountingSet<String>(), new CompactCountingSet<String>())) {
+            for (int i = 0; i < 1000; i++) {
+                set.add("key" + i, i < 10 ? 100 : (i < 20 ? 50 : 1 + i % 3));
+            }
+            set.keepTopN(15);
+
+            assertEquals(15, set.size());
+            Map<Integer, Integer> countFrequencies = new HashMap<>();
+            for (String key : set) {
+                countFrequencies.merge(set.getCount(key), 1, Integer::sum);
+            }
+            assertEquals(10, countFrequencies.get(100));
+            assertEquals(5, countFrequencies.get(50));
+
+            set.keepTopN(0);
+            assertTrue(set.isEmpty());
+        }
+    }
+
+    @Test
+    void testSelectNthLargest() {
+        Random random = new Random(2);
+        for (int length : new int[]{1, 2, 10, 1000}) {
+            int[] values = new int[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = random.nextInt(length / 2 + 1);
+            }
+            int[] sorted = values.clone();
+            java.util.Arrays.sort(sorted);
+            for (int n = 1; n <= length; n += Math.max(1, length / 7)) {
+                assertEquals(sorted[length - n], CountingSet.selectNthLargest(values.clone(), length, n));
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestFingerprintCountingSet {
+
+    @Test
+    void testCountsAllKeysAndKeepsMostFrequentKeys() {
+        int capacity = 100;
+        FingerprintCountingSet<String> set = new FingerprintCountingSet<>(capacity, TestFingerprintCountingSet::fingerprint);
+        CountingSet<String> reference = new CountingSet<>();
+        addSkewedKeys(set, reference, new Random(1), 100_000);
+
+        assertEquals(reference.size(), set.size());
+        for (String key : reference) {
+            assertEquals(reference.getCount(key), set.getCount(key));
+        }
+        assertEquals(capacity, set.key2count.size());
+        assertMostFrequentKeysKept(set, reference);
+    }
+
+    @Test
+    void testMergeKeepsMostFrequentKeys() {
+        int capacity = 100;
+        FingerprintCountingSet<String> first = new FingerprintCountingSet<>(capacity, TestFingerprintCountingSet::fingerprint);
+        FingerprintCountingSet<String> second = new FingerprintCountingSet<>(capacity, TestFingerprintCountingSet::fingerprint);
+        CountingSet<String> reference = new CountingSet<>();
+        addSkewedKeys(first, reference, new Random(2), 50_000);
+        addSkewedKeys(second, reference, new Random(3), 50_000);
+        first.merge(second);
+
+        assertEquals(reference.size(), first.size());
+        for (String key : reference) {
+            assertEquals(reference.getCount(key), first.getCount(key));
+        }
+        assertMostFrequentKeysKept(first, reference);
+    }
+
+    @Test
+    void testKeepTopN() {
+        FingerprintCountingSet<String> set = new FingerprintCountingSet<>(20, TestFingerprintCountingSet::fingerprint);
+        for (int i = 0; i < 1000; i++) {
+            set.add("key" + i, i < 10 ? 100 : 1);
+        }
+        set.keepTopN(10);
+
+        assertEquals(10, set.size());
+        assertEquals(10, set.key2count.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(100, set.key2count.get("key" + i).count);
+        }
+    }
+
+    @Test
+    void testRemoveAndCountStatistics() {
+        FingerprintCountingSet<String> set = new FingerprintCountingSet<>(2, TestFingerprintCountingSet::fingerprint);
+        CountingSet<String> reference = new CountingSet<>();
+        for (int i = 0; i < 10; i++) {
+            set.add("key" + i, i + 1);
+            reference.add("key" + i, i + 1);
+        }
+        // The statistics cover all counted keys, not only the two that are kept
+        assertEquals(reference.getSum(), set.getSum());
+        assertEquals(reference.getMax(), set.getMax());
+        assertEquals(reference.getMean(), set.getMean(), 1e-9);
+        assertEquals(reference.getSD(), set.getSD(), 1e-9);
+
+        assertTrue(set.remove("key9"));
+        assertTrue(set.remove("key0"));
+        assertFalse(set.remove("key0"));
+        reference.remove("key9");
+        reference.remove("key0");
+        assertEquals(8, set.size());
+        assertEquals(0, set.getCount("key9"));
+        assertFalse(set.key2count.containsKey("key9"));
+        assertEquals(9, set.getCount("key8"));
+        assertEquals(reference.getSum(), set.getSum());
+        assertEquals(reference.getSD(), set.getSD(), 1e-9);
+    }
+
+    private static void addSkewedKeys(CountingSet<String> set, CountingSet<String> reference, Random random, int n) {
+        for (int i = 0; i < n; i++) {
+            // Zipf-like: a few keys are frequent, most keys are rare
+            String key = "key" + (int) Math.floor(Math.pow(random.nextDouble(), 3) * 20_000);
+            set.add(key);
+            reference.add(key);
+        }
+    }
+
+    private static void assertMostFrequentKeysKept(CountingSet<String> set, CountingSet<String> reference) {
+        int lowestKeptCount = Integer.MAX_VALUE;
+        for (String key : set.key2count.keySet()) {
+            assertEquals(reference.getCount(key), set.key2count.get(key).count, key);
+            lowestKeptCount = Math.min(lowestKeptCount, set.key2count.get(key).count);
+        }
+        for (String key : reference) {
+            if (reference.getCount(key) > lowestKeptCount) {
+                assertTrue(set.key2count.containsKey(key), key);
+            }
+        }
+    }
+
+    private static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
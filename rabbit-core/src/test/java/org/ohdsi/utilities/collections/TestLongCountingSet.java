@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestLongCountingSet {
+
+    @Test
+    void testCountsAreSameAsCountingSet() {
+        LongCountingSet set = new LongCountingSet();
+        CountingSet<Long> reference = new CountingSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(5000) * 1_000_003L - 2_000_000_000L;
+            assertEquals(reference.add(key), set.add(key));
+        }
+        set.add(Long.MIN_VALUE, 3);
+        reference.add(Long.MIN_VALUE, 3);
+
+        assertEquals(reference.size(), set.size());
+        for (Long key : reference) {
+            assertEquals(reference.getCount(key), set.getCount(key));
+        }
+        assertEquals(0, set.getCount(42));
+    }
+
+    @Test
+    void testMerge() {
+        LongCountingSet first = new LongCountingSet();
+        LongCountingSet second = new LongCountingSet();
+        for (long key = 0; key < 1000; key++) {
+            first.add(key);
+            second.add(key + 500, 2);
+        }
+        first.merge(second);
+
+        assertEquals(1500, first.size());
+        assertEquals(1, first.getCount(0));
+        assertEquals(3, first.getCount(500));
+        assertEquals(2, first.getCount(1499));
+    }
+
+    @Test
+    void testRemoveKeepsOrderOfOtherKeys() {
+        LongCountingSet set = new LongCountingSet();
+        for (long key = 0; key < 100; key++) {
+            set.add(key * 1000, (int) key + 1);
+        }
+        assertTrue(set.remove(5000));
+        assertFalse(set.remove(5000));
+        assertFalse(set.remove(5));
+
+        assertEquals(99, set.size());
+        assertEquals(0, set.getCount(5000));
+        assertEquals(7, set.getCount(6000));
+        List<Long> keys = new ArrayList<>();
+        set.forEach((key, count) -> keys.add(key));
+        assertEquals(4000L, keys.get(4));
+        assertEquals(6000L, keys.get(5));
+        assertEquals(5050 - 6, set.counts().sum());
+    }
+
+    @Test
+    void testKeepTopN() {
+        LongCountingSet set = new LongCountingSet();
+        for (long key = 0; key < 1000; key++) {
+            set.add(key, key < 10 ? 100 : (key < 20 ? 50 : 1));
+        }
+        set.keepTopN(15);
+
+        assertEquals(15, set.size());
+        Map<Long, Integer> counts = new HashMap<>();
+        set.forEach(counts::put);
+        for (long key = 0; key < 10; key++) {
+            assertEquals(100, counts.get(key));
+        }
+        assertEquals(5, counts.values().stream().filter(count -> count == 50).count());
+
+        // the set remains usable after trimming
+        set.add(12345);
+        assertEquals(16, set.size());
+        assertEquals(1, set.getCount(12345));
+    }
+}
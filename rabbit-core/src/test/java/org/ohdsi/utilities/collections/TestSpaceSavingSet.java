@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.utilities.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestSpaceSavingSet {
+
+    @Test
+    void testCountsAreExactBelowCapacity() {
+        SpaceSavingSet<String> set = new SpaceSavingSet<>(10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i < 10, set.add("key" + (i % 10)));
+        }
+        assertEquals(10, set.size());
+        assertFalse(set.isTruncated());
+        for (String key : set) {
+            assertEquals(10, set.getCount(key));
+            assertEquals(0, set.getError(key));
+        }
+    }
+
+    @Test
+    void testCountsAreBoundedWhenTruncated() {
+        int capacity = 100;
+        Map<String, Integer> trueCounts = new HashMap<>();
+        SpaceSavingSet<String> set = new SpaceSavingSet<>(capacity);
+        int n = addSkewedKeys(set, trueCounts, new Random(1), 100_000);
+
+        assertTrue(set.isTruncated());
+        assertEquals(capacity, set.size());
+        assertBounded(set, trueCounts, n);
+    }
+
+    @Test
+    void testMergeKeepsBounds() {
+        int capacity = 100;
+        Map<String, Integer> trueCounts = new HashMap<>();
+        SpaceSavingSet<String> first = new SpaceSavingSet<>(capacity);
+        SpaceSavingSet<String> second = new SpaceSavingSet<>(capacity);
+        Random random = new Random(2);
+        int n = addSkewedKeys(first, trueCounts, random, 50_000);
+        n += addSkewedKeys(second, trueCounts, random, 50_000);
+        // A key that the second set has seen rarely, so that it was dropped there
+        first.add("only first", 1000);
+        trueCounts.put("only first", 1000);
+        n += 1000;
+
+        first.merge(second);
+        assertEquals(capacity, first.size());
+        assertBounded(first, trueCounts, n);
+    }
+
+    @Test
+    void testKeepTopN() {
+        SpaceSavingSet<String> set = new SpaceSavingSet<>(10);
+        for (int i = 1; i <= 10; i++) {
+            set.add("key" + i, i);
+        }
+        set.keepTopN(3);
+        assertEquals(3, set.size());
+        assertTrue(set.contains("key10") && set.contains("key9") && set.contains("key8"));
+        assertTrue(set.isTruncated());
+
+        // A dropped key is counted as if it occurred as often as the most frequent key that was dropped
+        set.add("key1");
+        assertEquals(8, set.getCount("key1"));
+        assertEquals(7, set.getError("key1"));
+    }
+
+    @Test
+    void testOfTopCounts() {
+        CountingSet<String> counts = new CountingSet<>();
+        for (int i = 1; i <= 10; i++) {
+            counts.add("key" + i, i);
+        }
+        SpaceSavingSet<String> set = SpaceSavingSet.ofTopCounts(counts, 3);
+        assertEquals(3, set.size());
+        assertEquals(10, set.getCount("key10"));
+        assertEquals(0, set.getError("key10"));
+        assertTrue(set.contains("key9") && set.contains("key8"));
+        assertTrue(set.isTruncated());
+
+        // The set is full, so a new key takes the place of the least frequent key
+        set.add("key1");
+        assertFalse(set.contains("key8"));
+        assertEquals(9, set.getCount("key1"));
+        assertEquals(8, set.getError("key1"));
+    }
+
+    private static int addSkewedKeys(SpaceSavingSet<String> set, Map<String, Integer> trueCounts, Random random, int n) {
+        for (int i = 0; i < n; i++) {
+            // Roughly Zipf distributed keys, with a long tail of rare ones
+            String key = "key" + (int) Math.floor(Math.exp(random.nextDouble() * Math.log(100_000)));
+            set.add(key);
+            trueCounts.merge(key, 1, Integer::sum);
+        }
+        return n;
+    }
+
+    private static void assertBounded(SpaceSavingSet<String> set, Map<String, Integer> trueCounts, int n) {
+        for (String key : set) {
+            int trueCount = trueCounts.get(key);
+            assertTrue(set.getCount(key) >= trueCount, key + " should not be underestimated");
+            assertTrue(set.getCount(key) - set.getError(key) <= trueCount, key + " error should bound the overestimation");
+        }
+        // Every key that occurs more than n / capacity times is guaranteed to be kept
+        for (Map.Entry<String, Integer> entry : trueCounts.entrySet()) {
+            if (entry.getValue() > n / set.getCapacity()) {
+                assertTrue(set.contains(entry.getKey()), entry.getKey() + " should be kept");
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.ohdsi.utilities.files;
+
+import org.ohdsi.databases.FieldInfo;
+import org.ohdsi.databases.HeapBudget;
+import org.ohdsi.databases.ScanParameters;
+import org.ohdsi.utilities.StringUtilities;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a delimited text file line by line (ReadTextFile and StringUtilities.safeSplit, as done by
+ * SourceDataScan.processCsvFile) with reading it through a MappedCsvTokenizer, both for tokenizing only and for
+ * tokenizing and profiling the values.
+ *
+ * <p>Not part of the unit tests. Run the main method from the IDE, or from the command line with:
+ * <pre>
+ * mvn -pl rabbit-core test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.ohdsi.utilities.files.CsvReaderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvReaderBenchmark {
+
+    @Param({"200000"})
+    public int rows;
+
+    private Path file;
+
+    @Setup
+    public void createFile() throws IOException {
+        file = Files.createTempFile("benchmark", ".csv");
+        Random random = new Random(0);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            writer.println("person_id,gender,year_of_birth,visit_date,amount,description");
+            for (int i = 0; i < rows; i++) {
+                writer.println(i + "," + (random.nextBoolean() ? "M" : "F") + "," + (1920 + random.nextInt(100)) +
+                        ",2020-" + (1 + random.nextInt(12)) + "-" + (1 + random.nextInt(28)) + "," +
+                        random.nextInt(10000) / 100.0 + ",\"visit, type " + random.nextInt(50) + "\"");
+            }
+        }
+    }
+
+    @TearDown
+    public void deleteFile() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public void tokenizeLines(Blackhole blackhole) {
+        for (String line : new ReadTextFile(file.toString())) {
+            for (String cell : parseLine(line)) {
+                blackhole.consume(cell);
+            }
+        }
+    }
+
+    @Benchmark
+    public void tokenizeMapped(Blackhole blackhole) throws IOException {
+        try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(file, ',')) {
+            while (tokenizer.nextRecord()) {
+                for (int i = 0; i < tokenizer.getCellCount(); i++) {
+                    blackhole.consume(tokenizer.getCellLength(i));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<FieldInfo> profileLines() {
+        List<FieldInfo> fieldInfos = null;
+        for (String line : new ReadTextFile(file.toString())) {
+            List<String> cells = parseLine(line);
+            if (fieldInfos == null) {
+                fieldInfos = createFieldInfos(cells);
+            } else if (cells.size() == fieldInfos.size()) {
+                for (int i = 0; i < cells.size(); i++) {
+                    fieldInfos.get(i).processValue(cells.get(i));
+                }
+            }
+        }
+        return fieldInfos;
+    }
+
+    @Benchmark
+    public List<FieldInfo> profileMapped() throws IOException {
+        try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(file, ',')) {
+            tokenizer.nextRecord();
+            List<String> header = new ArrayList<>();
+            for (int i = 0; i < tokenizer.getCellCount(); i++) {
+                header.add(tokenizer.getCell(i));
+            }
+            List<FieldInfo> fieldInfos = createFieldInfos(header);
+            MappedCsvTokenizer.CellInterner[] interners = new MappedCsvTokenizer.CellInterner[header.size()];
+            for (int i = 0; i < interners.length; i++) {
+                interners[i] = new MappedCsvTokenizer.CellInterner(ScanParameters.MAX_VALUES_IN_MEMORY);
+            }
+            while (tokenizer.nextRecord()) {
+                if (tokenizer.getCellCount() == fieldInfos.size()) {
+                    for (int i = 0; i < interners.length; i++) {
+                        fieldInfos.get(i).processValue(interners[i].intern(tokenizer, i));
+                    }
+                }
+            }
+            return fieldInfos;
+        }
+    }
+
+    // Same as SourceDataScan.parseCsvLine()
+    private static List<String> parseLine(String line) {
+        List<String> row = StringUtilities.safeSplit(line, ',');
+        for (int i = 0; i < row.size(); i++) {
+            String column = row.get(i);
+            if (column.startsWith("\"") && column.endsWith("\"") && column.length() > 1)
+                column = column.substring(1, column.length() - 1);
+            column = column.replace("\\\"", "\"");
+            row.set(i, column);
+        }
+        return row;
+    }
+
+    private static List<FieldInfo> createFieldInfos(List<String> header) {
+        ScanParameters scanParameters = new BenchmarkScanParameters();
+        List<FieldInfo> fieldInfos = new ArrayList<>();
+        for (String name : header) {
+            fieldInfos.add(new FieldInfo(scanParameters, name));
+        }
+        return fieldInfos;
+    }
+
+    private static class BenchmarkScanParameters implements ScanParameters {
+        public boolean doCalculateNumericStats() {
+            return false;
+        }
+
+        public int getNumStatsSamplerSize() {
+            return 0;
+        }
+
+        public int getMaxValues() {
+            return 1000;
+        }
+
+        public boolean doScanValues() {
+            return true;
+        }
+
+        public int getMinCellCount() {
+            return 5;
+        }
+
+        public int getSampleSize() {
+            return -1;
+        }
+
+        public boolean doApproximateValueCounts() {
+            return false;
+        }
+
+        public boolean doFingerprintValueCounts() {
+            return false;
+        }
+
+        public boolean doUseQuantileSketch() {
+            return false;
+        }
+
+        public HeapBudget getHeapBudget() {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CsvReaderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,95 @@
+package org.ohdsi.utilities.files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMappedCsvTokenizer {
+
+    @Test
+    void testRfc4180Quoting(@TempDir Path tempDir) throws IOException {
+        String content = "\uFEFFid,text,number\r\n" +
+                "1,plain,10\r\n" +
+                "2,\"with, delimiter\",20\n" +
+                "3,\"with \"\"quotes\"\"\",30\r" +
+                "4,\"multi\r\nline\",\n" +
+                "5,\"quote\"after,é\n" +
+                "\n" +
+                "6,,\"unterminated";
+        Path file = tempDir.resolve("test.csv");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+
+        List<List<String>> expected = Arrays.asList(
+                Arrays.asList("id", "text", "number"),
+                Arrays.asList("1", "plain", "10"),
+                Arrays.asList("2", "with, delimiter", "20"),
+                Arrays.asList("3", "with \"quotes\"", "30"),
+                Arrays.asList("4", "multi\r\nline", ""),
+                Arrays.asList("5", "\"quote\"after", "é"),
+                Arrays.asList(""),
+                Arrays.asList("6", "", "unterminated"));
+
+        // A small window forces records to be split over windows
+        for (int windowSize : new int[]{4, 16, 1024}) {
+            assertEquals(expected, readAll(new MappedCsvTokenizer(file, ',', 0, -1, windowSize)), "window size " + windowSize);
+        }
+    }
+
+    @Test
+    void testInternerReturnsSameString(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("test.csv");
+        Files.write(file, "a\nb\na\n\"a\"\n".getBytes(StandardCharsets.UTF_8));
+
+        MappedCsvTokenizer.CellInterner interner = new MappedCsvTokenizer.CellInterner(100);
+        List<String> values = new ArrayList<>();
+        try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(file, ',')) {
+            while (tokenizer.nextRecord()) {
+                values.add(interner.intern(tokenizer, 0));
+            }
+        }
+        assertEquals(Arrays.asList("a", "b", "a", "a"), values);
+        assertSame(values.get(0), values.get(2));
+        assertSame(values.get(0), values.get(3));
+    }
+
+    @Test
+    void testInternerKeepsEscapedCellsApart(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("test.csv");
+        // The same bytes a""b, once quoted with an escaped quote and once as is
+        Files.write(file, "\"a\"\"b\"\na\"\"b\n\"a\"\"b\"\n".getBytes(StandardCharsets.UTF_8));
+
+        MappedCsvTokenizer.CellInterner interner = new MappedCsvTokenizer.CellInterner(100);
+        List<String> values = new ArrayList<>();
+        try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(file, ',')) {
+            while (tokenizer.nextRecord()) {
+                values.add(interner.intern(tokenizer, 0));
+            }
+        }
+        assertEquals(Arrays.asList("a\"b", "a\"\"b", "a\"b"), values);
+    }
+
+    private static List<List<String>> readAll(MappedCsvTokenizer tokenizer) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try {
+            while (tokenizer.nextRecord()) {
+                List<String> record = new ArrayList<>();
+                for (int i = 0; i < tokenizer.getCellCount(); i++) {
+                    record.add(tokenizer.getCell(i));
+                }
+                records.add(record);
+            }
+        } finally {
+            tokenizer.close();
+        }
+        return records;
+    }
+}
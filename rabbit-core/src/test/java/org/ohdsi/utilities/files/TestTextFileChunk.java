@@ -0,0 +1,57 @@
+package org.ohdsi.utilities.files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTextFileChunk {
+
+    @Test
+    void testChunksHaveTheSameLinesAsTheFile(@TempDir Path tempDir) throws IOException {
+        StringBuilder content = new StringBuilder("\uFEFFid,text\r\n");
+        for (int i = 0; i < 500; i++) {
+            content.append(i).append(i % 10 == 0 ? ",\"multi\nline \\\" value\"\r\n" : ",plain\n");
+        }
+        Path file = tempDir.resolve("test.csv");
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> expected = new ArrayList<>();
+        new ReadTextFile(file.toString()).forEach(expected::add);
+
+        List<TextFileChunk> chunks = TextFileChunk.split(file.toString(), 100, -1);
+        assertTrue(chunks.size() > 10);
+        List<String> actual = new ArrayList<>();
+        for (TextFileChunk chunk : chunks) {
+            assertEquals(actual.size() + 1, chunk.getFirstLineNr());
+            List<String> lines = new ArrayList<>();
+            chunk.read().forEach(lines::add);
+            // A chunk never starts in the middle of a quoted value
+            assertFalse(lines.get(0).startsWith("line"));
+            actual.addAll(lines);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testSplitStopsAfterMaxLines(@TempDir Path tempDir) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        Path file = tempDir.resolve("test.txt");
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<TextFileChunk> chunks = TextFileChunk.split(file.toString(), 100, 50);
+        TextFileChunk last = chunks.get(chunks.size() - 1);
+        assertTrue(last.getFirstLineNr() <= 50);
+        assertEquals(Files.size(file), last.getEnd());
+    }
+}
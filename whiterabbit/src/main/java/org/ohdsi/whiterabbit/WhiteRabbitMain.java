@@ -271,6 +271,20 @@ public class WhiteRabbitMain implements ActionListener, PanelsManager {
 		sourceDataScan.setMaxValues(maxValues);
 		sourceDataScan.setCalculateNumericStats(calculateNumericStats);
 		sourceDataScan.setNumStatsSamplerSize(numericStatsSamplerSize);
+		sourceDataScan.setThreads(iniFile.getInt("THREADS", 1));
+		sourceDataScan.setColumnThreads(iniFile.getInt("COLUMN_THREADS", 1));
+		sourceDataScan.setTablePartitions(iniFile.getInt("TABLE_PARTITIONS", 1));
+		sourceDataScan.setFetchSize(iniFile.getInt("FETCH_SIZE", DBConnection.DEFAULT_FETCH_SIZE));
+		sourceDataScan.setPipeline(iniFile.get("PIPELINE").equalsIgnoreCase("yes"));
+		sourceDataScan.setMappedCsvReader(iniFile.get("CSV_READER").equalsIgnoreCase("mapped"));
+		sourceDataScan.setCheckpoint(iniFile.get("CHECKPOINT").equalsIgnoreCase("yes"));
+		sourceDataScan.setIncremental(iniFile.get("INCREMENTAL").equalsIgnoreCase("yes"));
+		sourceDataScan.setStreamingReport(iniFile.get("STREAMING_REPORT").equalsIgnoreCase("yes"));
+		sourceDataScan.setApproximateValueCounts(iniFile.get("VALUE_COUNTS").equalsIgnoreCase("approximate"));
+		sourceDataScan.setFingerprintValueCounts(iniFile.get("VALUE_COUNTS").equalsIgnoreCase("fingerprint"));
+		sourceDataScan.setUseQuantileSketch(iniFile.get("NUMERIC_STATS_QUANTILES").equalsIgnoreCase("sketch"));
+		sourceDataScan.setPushDown(iniFile.get("PUSH_DOWN").equalsIgnoreCase("yes"));
+		sourceDataScan.setMemoryBudgetMb(iniFile.getInt("MEMORY_BUDGET_MB", 0));
 		reportFilePath = iniFile.get("WORKING_FOLDER") + "/" + SourceDataScan.SCAN_REPORT_FILE_NAME;
 		sourceDataScan.process(dbSettings, reportFilePath);
 	}
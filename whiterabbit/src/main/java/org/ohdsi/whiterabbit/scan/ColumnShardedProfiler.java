@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.ohdsi.databases.FieldInfo;
+import org.ohdsi.databases.RowBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Profiles the columns of a single table on multiple threads.
+ *
+ * <p>The FieldInfo objects of the table are divided over a number of shards, and each shard is owned by one worker
+ * thread. The reader hands every RowBatch to all shards, and each worker only processes the columns of its own shard.
+ * This way every FieldInfo is only ever updated by a single thread, and no locking is needed while profiling.
+ *
+ * <p>Once all shards are done with a batch, it is passed to the batchProcessed callback, so the owner of the batch
+ * can reuse it.
+ */
+class ColumnShardedProfiler implements AutoCloseable {
+	static final int QUEUE_CAPACITY = 4;
+
+	private static final PendingBatch END_OF_DATA = new PendingBatch(new RowBatch(0, 0), 0);
+
+	private final List<FieldInfo> fieldInfos;
+	private final Consumer<RowBatch> batchProcessed;
+	private final List<Shard> shards = new ArrayList<>();
+	private volatile Throwable failure;
+
+	ColumnShardedProfiler(List<FieldInfo> fieldInfos, int nShards) {
+		this(fieldInfos, nShards, batch -> { });
+	}
+
+	ColumnShardedProfiler(List<FieldInfo> fieldInfos, int nShards, Consumer<RowBatch> batchProcessed) {
+		this.fieldInfos = fieldInfos;
+		this.batchProcessed = batchProcessed;
+		nShards = Math.max(1, Math.min(nShards, fieldInfos.size()));
+		List<List<Integer>> columnsPerShard = new ArrayList<>();
+		for (int i = 0; i < nShards; i++) {
+			columnsPerShard.add(new ArrayList<>());
+		}
+		for (int column = 0; column < fieldInfos.size(); column++) {
+			columnsPerShard.get(column % nShards).add(column);
+		}
+		for (int i = 0; i < nShards; i++) {
+			Shard shard = new Shard(columnsPerShard.get(i).stream().mapToInt(Integer::intValue).toArray());
+			shard.setName("profiler-shard-" + i);
+			shard.setDaemon(true);
+			shards.add(shard);
+			shard.start();
+		}
+	}
+
+	RowBatch createBatch() {
+		return new RowBatch(fieldInfos.size(), RowBatch.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Hands the batch to all shards. Blocks while the queue of a shard is full, so the reader cannot get ahead
+	 * of the profiling by more than a few batches.
+	 */
+	void process(RowBatch batch) throws InterruptedException {
+		offer(new PendingBatch(batch, shards.size()));
+	}
+
+	private void offer(PendingBatch batch) throws InterruptedException {
+		for (Shard shard : shards) {
+			while (!shard.queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Waits until all shards have processed the batches handed to them.
+	 */
+	void finish() throws InterruptedException {
+		offer(END_OF_DATA);
+		for (Shard shard : shards) {
+			shard.join();
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.interrupt();
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new RuntimeException("Profiling of column values failed", failure);
+		}
+	}
+
+	private class Shard extends Thread {
+		private final int[] columns;
+		private final BlockingQueue<PendingBatch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+		Shard(int[] columns) {
+			this.columns = columns;
+		}
+
+		@Override
+		public void run() {
+			try {
+				PendingBatch pendingBatch;
+				while ((pendingBatch = queue.take()) != END_OF_DATA) {
+					RowBatch batch = pendingBatch.batch;
+					for (int column : columns) {
+						FieldInfo fieldInfo = fieldInfos.get(column);
+						String[] values = batch.getColumn(column);
+						for (int row = 0; row < batch.size(); row++) {
+							fieldInfo.processValue(values[row]);
+						}
+					}
+					if (pendingBatch.remainingShards.decrementAndGet() == 0) {
+						batchProcessed.accept(batch);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				failure = t;
+			}
+		}
+	}
+
+	private static class PendingBatch {
+		private final RowBatch batch;
+		private final AtomicInteger remainingShards;
+
+		PendingBatch(RowBatch batch, int nShards) {
+			this.batch = batch;
+			this.remainingShards = new AtomicInteger(nShards);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.ohdsi.databases.RichConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of database connections, shared by the tables and the table partitions that are scanned
+ * concurrently, so that a scan never has more connections open than it has threads.
+ *
+ * <p>Connections are opened when they are first needed, and all of them are closed when the pool is closed. A
+ * connection is used by one thread at a time: it is taken from the pool, and released back to it when done.
+ */
+class ConnectionPool implements AutoCloseable {
+	private final Supplier<RichConnection> connectionFactory;
+	private final int maxConnections;
+	private final BlockingQueue<RichConnection> idleConnections = new LinkedBlockingQueue<>();
+	private final List<RichConnection> connections = new ArrayList<>();
+
+	ConnectionPool(Supplier<RichConnection> connectionFactory, int maxConnections) {
+		this.connectionFactory = connectionFactory;
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * @return a connection, waiting for one to be released if all connections are in use
+	 */
+	RichConnection take() throws InterruptedException {
+		RichConnection connection = poll();
+		return connection != null ? connection : idleConnections.take();
+	}
+
+	/**
+	 * @return an idle connection, or a new one if fewer than the maximum are open, or null if all are in use
+	 */
+	RichConnection poll() {
+		RichConnection connection = idleConnections.poll();
+		if (connection == null) {
+			synchronized (connections) {
+				if (connections.size() < maxConnections) {
+					connection = connectionFactory.get();
+					connections.add(connection);
+				}
+			}
+		}
+		return connection;
+	}
+
+	void release(RichConnection connection) {
+		idleConnections.add(connection);
+	}
+
+	@Override
+	public void close() {
+		synchronized (connections) {
+			connections.forEach(RichConnection::close);
+			connections.clear();
+		}
+		idleConnections.clear();
+	}
+}
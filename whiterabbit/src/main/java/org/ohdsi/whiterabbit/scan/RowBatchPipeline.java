@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.ohdsi.databases.FieldInfo;
+import org.ohdsi.databases.QueryResult;
+import org.ohdsi.databases.RowBatch;
+import org.ohdsi.databases.RowBatchReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the rows of a source on a separate fetcher thread, so that fetching and profiling overlap.
+ *
+ * <p>The fetcher fills RowBatch objects from a fixed pool and hands them to the profiling stage through a bounded
+ * queue. The profiling stage takes the batches from the queue and releases them back to the pool when it is done
+ * with them. When the pool is empty the fetcher waits, so it can never get more than a few batches ahead.
+ *
+ * <p>The time each stage spends working and waiting for the other stage is recorded. If the profiling stage mostly
+ * waits for rows the scan is bound by fetching (I/O), if the fetcher mostly waits for free batches it is bound by
+ * profiling (CPU).
+ */
+class RowBatchPipeline implements AutoCloseable {
+	static Logger logger = LoggerFactory.getLogger(RowBatchPipeline.class);
+
+	static final int POOL_SIZE = 8;
+
+	private static final RowBatch END_OF_DATA = new RowBatch(0, 0);
+
+	private final BlockingQueue<RowBatch> freeBatches = new ArrayBlockingQueue<>(POOL_SIZE);
+	private final BlockingQueue<RowBatch> filledBatches = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+	private final Thread fetcher;
+	private volatile Throwable failure;
+	private boolean endOfData = false;
+
+	private final long startNanos = System.nanoTime();
+	private volatile long fetchNanos = 0;
+	private volatile long fetcherWaitNanos = 0;
+	private volatile long rowCount = 0;
+	private long profilerWaitNanos = 0;
+
+	/**
+	 * Starts fetching the rows.
+	 * @param queryResult query of the rows to fetch
+	 * @param fieldInfos fields of the rows, in the order the batches should hold them
+	 * @param maxRows maximum number of rows to fetch, or -1 to fetch all rows
+	 */
+	RowBatchPipeline(QueryResult queryResult, List<FieldInfo> fieldInfos, int maxRows) {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			freeBatches.add(new RowBatch(fieldInfos.size(), RowBatch.DEFAULT_CAPACITY));
+		}
+		fetcher = new Thread(() -> fetch(queryResult, fieldInfos, maxRows), "row-fetcher");
+		fetcher.setDaemon(true);
+		fetcher.start();
+	}
+
+	private void fetch(QueryResult queryResult, List<FieldInfo> fieldInfos, int maxRows) {
+		try {
+			RowBatchReader reader = queryResult.batchReader(fieldInfos);
+			long count = 0;
+			while (maxRows == -1 || count < maxRows) {
+				long waitStart = System.nanoTime();
+				RowBatch batch = freeBatches.take();
+				batch.clear();
+				long fetchStart = System.nanoTime();
+				fetcherWaitNanos += fetchStart - waitStart;
+				int nRows = reader.read(batch, maxRows == -1 ? Integer.MAX_VALUE : (int) (maxRows - count));
+				count += nRows;
+				rowCount = count;
+				fetchNanos += System.nanoTime() - fetchStart;
+				if (nRows == 0) {
+					release(batch);
+					break;
+				}
+				waitStart = System.nanoTime();
+				filledBatches.put(batch);
+				fetcherWaitNanos += System.nanoTime() - waitStart;
+			}
+			if (maxRows != -1 && count >= maxRows) {
+				logger.info("Stopped after {} rows", count);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			// The queue has room for all batches of the pool plus this marker
+			filledBatches.offer(END_OF_DATA);
+		}
+	}
+
+	/**
+	 * Takes the next batch of rows, waiting for the fetcher if needed. The batch should be released once it
+	 * has been processed.
+	 * @return the next batch, or null if all rows have been fetched
+	 */
+	RowBatch take() throws InterruptedException {
+		if (endOfData) {
+			return null;
+		}
+		long start = System.nanoTime();
+		RowBatch batch = filledBatches.take();
+		profilerWaitNanos += System.nanoTime() - start;
+		if (batch == END_OF_DATA) {
+			endOfData = true;
+			if (failure != null) {
+				throw new RuntimeException("Fetching rows failed", failure);
+			}
+			return null;
+		}
+		return batch;
+	}
+
+	/**
+	 * Returns a processed batch to the pool, so the fetcher can fill it again. Can be called from any thread.
+	 */
+	void release(RowBatch batch) {
+		freeBatches.offer(batch);
+	}
+
+	/**
+	 * Logs how much time the fetching and profiling stages spent working and waiting for each other.
+	 */
+	void logStageTimes(String source) {
+		double elapsed = seconds(System.nanoTime() - startNanos);
+		double fetcherWait = seconds(fetcherWaitNanos);
+		double profilerWait = seconds(profilerWaitNanos);
+		String bound = profilerWait > fetcherWait ? "fetching (I/O)" : "profiling (CPU)";
+		logger.info(String.format("%s: %d rows in %.1f s. Fetching %.1f s, waiting for profiling %.1f s. " +
+						"Profiling %.1f s, waiting for rows %.1f s. Bound by %s",
+				source, rowCount, elapsed, seconds(fetchNanos), fetcherWait, elapsed - profilerWait, profilerWait, bound));
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	@Override
+	public void close() {
+		fetcher.interrupt();
+		try {
+			// A fetcher that is blocked on the database may not respond to the interrupt right away
+			fetcher.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.ohdsi.databases.FieldInfo;
+import org.ohdsi.databases.ScanParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the results of the tables that have been scanned in a file, so that a scan that was interrupted can be
+ * resumed without scanning those tables again.
+ *
+ * <p>The file starts with a description of the scan settings. A checkpoint is only used by a scan with the same
+ * settings; otherwise it is discarded. Every scanned table is appended as a record with a checksum, and written to
+ * disk right away. A record that was not completely written when the scan stopped is ignored.
+ *
+ * <p>Each record also holds a fingerprint of the table (e.g. its row count and columns), so that the file of a
+ * finished scan can serve as the scan state of an incremental scan: see {@link #readTables}.
+ */
+class ScanCheckpoint implements Closeable {
+	static Logger logger = LoggerFactory.getLogger(ScanCheckpoint.class);
+
+	private static final int MAGIC = 0x57524350; // "WRCP"
+	private static final int VERSION = 4;
+
+	private final Path file;
+	private final Map<String, TableResult> completedTables = new LinkedHashMap<>();
+	private FileOutputStream fileOutputStream;
+	private DataOutputStream out;
+
+	/**
+	 * Opens the checkpoint file, reading the tables that were completed by an earlier scan with the same settings.
+	 */
+	ScanCheckpoint(Path file, String settings, ScanParameters scanParameters) throws IOException {
+		this.file = file;
+		byte[] header = createHeader(settings);
+		long validLength = 0;
+		if (Files.exists(file)) {
+			validLength = readCompletedTables(file, header, scanParameters, completedTables);
+		}
+		if (validLength == 0) {
+			completedTables.clear();
+			fileOutputStream = new FileOutputStream(file.toFile());
+			out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			out.write(header);
+			flush();
+		} else {
+			logger.info("Resuming scan from {}, {} tables were already scanned", file, completedTables.size());
+			fileOutputStream = new FileOutputStream(file.toFile(), true);
+			// Drop a partially written record at the end, if any
+			fileOutputStream.getChannel().truncate(validLength);
+			out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+		}
+	}
+
+	private static byte[] createHeader(String settings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(bytes);
+		headerOut.writeInt(MAGIC);
+		headerOut.writeInt(VERSION);
+		headerOut.writeUTF(settings);
+		headerOut.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads the tables in a file that was written by a scan with the same settings.
+	 *
+	 * @return the results by table, which is empty if the file does not exist or cannot be used
+	 */
+	static Map<String, TableResult> readTables(Path file, String settings, ScanParameters scanParameters) throws IOException {
+		Map<String, TableResult> tables = new LinkedHashMap<>();
+		if (Files.exists(file) && readCompletedTables(file, createHeader(settings), scanParameters, tables) == 0) {
+			tables.clear();
+		}
+		return tables;
+	}
+
+	/**
+	 * @return the number of bytes of the file that hold the header and complete records, or 0 if the file cannot
+	 * be used
+	 */
+	private static long readCompletedTables(Path file, byte[] header, ScanParameters scanParameters, Map<String, TableResult> tables) {
+		long validLength = header.length;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			byte[] fileHeader = new byte[header.length];
+			if (in.read(fileHeader) != header.length || !Arrays.equals(header, fileHeader)) {
+				logger.info("Ignoring {}, it was made by a scan with different settings", file);
+				return 0;
+			}
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (length < 0) {
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				long checksum = in.readLong();
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				if (crc.getValue() != checksum) {
+					break;
+				}
+				DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+				String table = recordIn.readUTF();
+				String fingerprint = recordIn.readUTF();
+				int nFields = recordIn.readInt();
+				List<FieldInfo> fieldInfos = new ArrayList<>(nFields);
+				for (int i = 0; i < nFields; i++) {
+					fieldInfos.add(FieldInfo.read(recordIn, scanParameters));
+				}
+				tables.put(table, new TableResult(fingerprint, fieldInfos));
+				validLength += 4 + length + 8;
+			}
+		} catch (EOFException e) {
+			// The last record was not completely written
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not read {}: {}", file, e.getMessage());
+			return 0;
+		}
+		return validLength;
+	}
+
+	/**
+	 * @return the results of the tables that were completed before, by table
+	 */
+	Map<String, TableResult> getCompletedTables() {
+		return completedTables;
+	}
+
+	/**
+	 * Adds the (trimmed) results of a table. Can be called from multiple threads.
+	 */
+	synchronized void add(String table, TableResult result) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream recordOut = new DataOutputStream(bytes);
+		recordOut.writeUTF(table);
+		recordOut.writeUTF(result.getFingerprint());
+		recordOut.writeInt(result.getFieldInfos().size());
+		for (FieldInfo fieldInfo : result.getFieldInfos()) {
+			fieldInfo.write(recordOut);
+		}
+		recordOut.flush();
+		byte[] record = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		out.writeInt(record.length);
+		out.write(record);
+		out.writeLong(crc.getValue());
+		flush();
+	}
+
+	private void flush() throws IOException {
+		out.flush();
+		fileOutputStream.getFD().sync();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Closes and removes the checkpoint file, once it is no longer needed.
+	 */
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * The results of a table scan, with a fingerprint of the table at the time it was scanned.
+	 */
+	static class TableResult {
+		private final String fingerprint;
+		private final List<FieldInfo> fieldInfos;
+
+		TableResult(String fingerprint, List<FieldInfo> fieldInfos) {
+			this.fingerprint = fingerprint;
+			this.fieldInfos = fieldInfos;
+		}
+
+		String getFingerprint() {
+			return fingerprint;
+		}
+
+		List<FieldInfo> getFieldInfos() {
+			return fieldInfos;
+		}
+	}
+}
@@ -21,10 +21,14 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 import com.epam.parso.Column;
 import com.epam.parso.SasFileProperties;
@@ -35,7 +39,9 @@ import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.commons.io.FileUtils;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.ohdsi.databases.configuration.DbSettings;
 import org.ohdsi.databases.configuration.DbType;
@@ -45,7 +51,9 @@ import org.ohdsi.databases.*;
 import org.ohdsi.rabbitInAHat.dataModel.Table;
 import org.ohdsi.utilities.*;
 import org.ohdsi.utilities.collections.Pair;
+import org.ohdsi.utilities.files.MappedCsvTokenizer;
 import org.ohdsi.utilities.files.ReadTextFile;
+import org.ohdsi.utilities.files.TextFileChunk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,8 +65,10 @@ public class SourceDataScan implements ScanParameters {
 
 	public static final String POI_TMP_DIR_ENVIRONMENT_VARIABLE_NAME = "ORG_OHDSI_WHITERABBIT_POI_TMPDIR";
 	public static final String POI_TMP_DIR_PROPERTY_NAME = "org.ohdsi.whiterabbit.poi.tmpdir";
+	private static final long MIN_ROWS_PER_PARTITION = 100000;
+	private static final long CSV_CHUNK_SIZE = 64L * 1024 * 1024;
 
-	private XSSFWorkbook workbook;
+	private Workbook workbook;
 	private char delimiter = ',';
 	private int sampleSize;
 	private boolean scanValues = false;
@@ -66,6 +76,32 @@ public class SourceDataScan implements ScanParameters {
 	private int numStatsSamplerSize;
 	private int minCellCount;
 	private int maxValues;
+	private int threads = 1;
+	private int columnThreads = 1;
+	private int tablePartitions = 1;
+	private int fetchSize = DBConnection.DEFAULT_FETCH_SIZE;
+	private boolean pipeline = false;
+	private boolean mappedCsvReader = false;
+	private long csvChunkSize = CSV_CHUNK_SIZE;
+	private boolean checkpoint = false;
+	private ScanCheckpoint scanCheckpoint;
+	private boolean incremental = false;
+	private Map<String, ScanCheckpoint.TableResult> previousScanState = Collections.emptyMap();
+	private Map<String, ScanCheckpoint.TableResult> scannedTables;
+	private Set<String> reusedTables;
+	private boolean streamingReport = false;
+	private boolean approximateValueCounts = false;
+	private boolean fingerprintValueCounts = false;
+	private boolean useQuantileSketch = false;
+	private boolean pushDown = false;
+	private int memoryBudgetMb = 0;
+	private HeapBudget heapBudget;
+	private List<String> memoryBudgetDecisions;
+	private ScanMetrics scanMetrics;
+	private DbSettings dbSettings;
+	private Function<DbSettings, RichConnection> connectionFactory = SourceDataScan::openConnection;
+	private ConnectionPool connectionPool;
+	private ExecutorService partitionExecutor;
 	private DbSettings.SourceType sourceType;
 	private DbType dbType;
 	private Map<Table, List<FieldInfo>> tableToFieldInfos;
@@ -138,24 +174,301 @@ public class SourceDataScan implements ScanParameters {
 		this.numStatsSamplerSize = numStatsSamplerSize;
 	}
 
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		// number of tables that are scanned concurrently, each over its own connection
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getColumnThreads() {
+		return columnThreads;
+	}
+
+	public void setColumnThreads(int columnThreads) {
+		// number of threads that profile the columns of a single table
+		this.columnThreads = Math.max(1, columnThreads);
+	}
+
+	public int getTablePartitions() {
+		return tablePartitions;
+	}
+
+	public void setTablePartitions(int tablePartitions) {
+		// maximum number of partitions a table is split into for a full scan, read over the connections of the threads
+		this.tablePartitions = Math.max(1, tablePartitions);
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		// number of rows fetched from the database at a time, 0 to leave it to the JDBC driver
+		this.fetchSize = Math.max(0, fetchSize);
+	}
+
+	void setConnectionFactory(Function<DbSettings, RichConnection> connectionFactory) {
+		// opens a connection to the database, switched to the database to scan; replaced by tests
+		this.connectionFactory = connectionFactory;
+	}
+
+	public boolean isPipeline() {
+		return pipeline;
+	}
+
+	public void setPipeline(boolean pipeline) {
+		// fetch rows on a separate thread, so that fetching and profiling overlap
+		this.pipeline = pipeline;
+	}
+
+	public boolean isMappedCsvReader() {
+		return mappedCsvReader;
+	}
+
+	public void setMappedCsvReader(boolean mappedCsvReader) {
+		// read delimited text files with a MappedCsvTokenizer (RFC 4180 quoting) instead of line by line
+		this.mappedCsvReader = mappedCsvReader;
+	}
+
+	void setCsvChunkSize(long csvChunkSize) {
+		// files larger than this are split into chunks of at least this size when scanned with multiple threads
+		this.csvChunkSize = csvChunkSize;
+	}
+
+	public boolean isCheckpoint() {
+		return checkpoint;
+	}
+
+	public void setCheckpoint(boolean checkpoint) {
+		// keep the results of scanned tables on disk, so that an interrupted scan can be resumed
+		this.checkpoint = checkpoint;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	public void setIncremental(boolean incremental) {
+		// only scan tables that have changed since the previous scan, reuse the stored results for the others
+		this.incremental = incremental;
+	}
+
+	public boolean isStreamingReport() {
+		return streamingReport;
+	}
+
+	public void setStreamingReport(boolean streamingReport) {
+		// write the rows of the scan report to temporary files as they are created, instead of keeping them in memory
+		this.streamingReport = streamingReport;
+	}
+
+	public boolean doApproximateValueCounts() {
+		return approximateValueCounts;
+	}
+
+	public void setApproximateValueCounts(boolean approximateValueCounts) {
+		// count the most frequent values of each field in bounded memory, instead of counting all values exactly
+		this.approximateValueCounts = approximateValueCounts;
+	}
+
+	public boolean doFingerprintValueCounts() {
+		return fingerprintValueCounts;
+	}
+
+	public void setFingerprintValueCounts(boolean fingerprintValueCounts) {
+		// count the values of each field by a 64 bit fingerprint, and only keep the most frequent values themselves
+		this.fingerprintValueCounts = fingerprintValueCounts;
+	}
+
+	public boolean doUseQuantileSketch() {
+		return useQuantileSketch;
+	}
+
+	public void setUseQuantileSketch(boolean useQuantileSketch) {
+		// compute the quartiles with a mergeable quantile sketch instead of a uniform sample of the values
+		this.useQuantileSketch = useQuantileSketch;
+	}
+
+	public boolean isPushDown() {
+		return pushDown;
+	}
+
+	public void setPushDown(boolean pushDown) {
+		// let the database profile all rows of each table with aggregate queries, instead of fetching the rows
+		this.pushDown = pushDown;
+	}
+
+	public HeapBudget getHeapBudget() {
+		return heapBudget;
+	}
+
+	public void setMemoryBudgetMb(int memoryBudgetMb) {
+		// approximate the value counts of the largest fields when the estimated memory use of all fields exceeds this
+		this.memoryBudgetMb = memoryBudgetMb;
+	}
+
 	public void process(DbSettings dbSettings, String outputFileName) throws IOException {
 		startTimeStamp = LocalDateTime.now();
+		this.dbSettings = dbSettings;
 		sourceType = dbSettings.sourceType;
 		dbType = dbSettings.dbType;
 
 		tableToFieldInfos = mapSupplier.get();
+		scannedTables = new ConcurrentHashMap<>();
+		reusedTables = new ConcurrentSkipListSet<>();
+		scanMetrics = new ScanMetrics();
+		scanMetrics.register();
+		heapBudget = memoryBudgetMb > 0 ? new HeapBudget((long) memoryBudgetMb << 20) : null;
 		StringUtilities.outputWithTime("Started new scan of " + dbSettings.tables.size() + " tables...");
-		if (sourceType == DbSettings.SourceType.CSV_FILES) {
-			if (!scanValues)
-				this.minCellCount = Math.max(minCellCount, MIN_CELL_COUNT_FOR_CSV);
-			processCsvFiles(dbSettings);
-		} else if (sourceType == DbSettings.SourceType.SAS_FILES) {
-			processSasFiles(dbSettings);
-		} else {
-			processDatabase(dbSettings);
+		if (sourceType == DbSettings.SourceType.CSV_FILES && !scanValues) {
+			this.minCellCount = Math.max(minCellCount, MIN_CELL_COUNT_FOR_CSV);
+		}
+		Path scanStateFile = Paths.get(outputFileName + ".state");
+		if (incremental) {
+			previousScanState = ScanCheckpoint.readTables(scanStateFile, describeSettings(), this);
+			StringUtilities.outputWithTime("Found the previous scan state of " + previousScanState.size() + " tables");
+		}
+		if (checkpoint) {
+			scanCheckpoint = new ScanCheckpoint(Paths.get(outputFileName + ".checkpoint"), describeSettings(), this);
 		}
+		try {
+			if (sourceType == DbSettings.SourceType.CSV_FILES) {
+				processCsvFiles(dbSettings);
+			} else if (sourceType == DbSettings.SourceType.SAS_FILES) {
+				processSasFiles(dbSettings);
+			} else {
+				processDatabase(dbSettings);
+			}
+
+			if (incremental) {
+				// saved before the report is generated, as generating the report releases the results
+				saveScanState(scanStateFile);
+			}
+			generateReport(outputFileName);
+			if (scanCheckpoint != null) {
+				// the report is complete, so there is nothing left to resume
+				scanCheckpoint.delete();
+				scanCheckpoint = null;
+			}
+		} finally {
+			if (scanCheckpoint != null) {
+				scanCheckpoint.close();
+				scanCheckpoint = null;
+			}
+			previousScanState = Collections.emptyMap();
+			scanMetrics.unregister();
+		}
+	}
+
+	/**
+	 * @return the timings of the last (or current) scan
+	 */
+	public ScanMetrics getScanMetrics() {
+		return scanMetrics;
+	}
+
+	/*
+	 * Describes everything that affects the results of a table scan. A checkpoint or scan state is only used by a
+	 * scan with the same description.
+	 */
+	private String describeSettings() {
+		return String.join(";",
+				"version=" + Version.getVersion(this.getClass()),
+				"sourceType=" + sourceType,
+				"dbType=" + (dbType != null ? dbType.name() : ""),
+				"server=" + dbSettings.server,
+				"domain=" + dbSettings.domain,
+				"database=" + dbSettings.database,
+				"schema=" + dbSettings.schema,
+				"delimiter=" + dbSettings.delimiter,
+				"sampleSize=" + sampleSize,
+				"scanValues=" + scanValues,
+				"minCellCount=" + minCellCount,
+				"maxValues=" + maxValues,
+				"calculateNumericStats=" + calculateNumericStats,
+				"numStatsSamplerSize=" + numStatsSamplerSize,
+				"mappedCsvReader=" + mappedCsvReader,
+				"approximateValueCounts=" + approximateValueCounts,
+				"fingerprintValueCounts=" + fingerprintValueCounts,
+				"useQuantileSketch=" + useQuantileSketch,
+				"pushDown=" + pushDown,
+				"memoryBudgetMb=" + memoryBudgetMb);
+	}
 
-		generateReport(outputFileName);
+	private List<FieldInfo> getCheckpointedFieldInfos(String table) {
+		if (scanCheckpoint == null) {
+			return null;
+		}
+		ScanCheckpoint.TableResult result = scanCheckpoint.getCompletedTables().get(table);
+		if (result == null) {
+			return null;
+		}
+		scannedTables.put(table, result);
+		return result.getFieldInfos();
+	}
+
+	/*
+	 * Returns the results of the previous scan for a table that has the same fingerprint as back then, or null if the
+	 * table has to be scanned.
+	 */
+	private List<FieldInfo> getUnchangedFieldInfos(String table, String tableName, String fingerprint) {
+		ScanCheckpoint.TableResult result = previousScanState.get(table);
+		if (result == null || !result.getFingerprint().equals(fingerprint)) {
+			return null;
+		}
+		StringUtilities.outputWithTime("Table " + tableName + " has not changed, reusing the results of the previous scan");
+		reusedTables.add(tableName);
+		tableScanned(table, fingerprint, result.getFieldInfos());
+		return result.getFieldInfos();
+	}
+
+	private void tableScanned(String table, String fingerprint, List<FieldInfo> fieldInfos) {
+		ScanCheckpoint.TableResult result = new ScanCheckpoint.TableResult(fingerprint, fieldInfos);
+		scannedTables.put(table, result);
+		if (scanCheckpoint == null) {
+			return;
+		}
+		try {
+			scanCheckpoint.add(table, result);
+		} catch (IOException e) {
+			// the scan itself can continue, it just cannot be resumed from this table on
+			logger.warn("Could not write checkpoint for table {}: {}", table, e.getMessage());
+		}
+	}
+
+	/*
+	 * Writes the results of all scanned tables, with their fingerprints, for the next incremental scan. The file is
+	 * replaced in one go, so an interrupted scan leaves the previous scan state intact.
+	 */
+	private void saveScanState(Path scanStateFile) {
+		Path tmpFile = scanStateFile.resolveSibling(scanStateFile.getFileName() + ".tmp");
+		try {
+			Files.deleteIfExists(tmpFile);
+			try (ScanCheckpoint scanState = new ScanCheckpoint(tmpFile, describeSettings(), this)) {
+				for (Map.Entry<String, ScanCheckpoint.TableResult> entry : new TreeMap<>(scannedTables).entrySet()) {
+					scanState.add(entry.getKey(), entry.getValue());
+				}
+			}
+			Files.move(tmpFile, scanStateFile, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.warn("Could not save the scan state to {}: {}", scanStateFile, e.getMessage());
+		}
+	}
+
+	private static String getFileFingerprint(String fileName) throws IOException {
+		Path path = Paths.get(fileName);
+		return "size=" + Files.size(path) + ";modified=" + Files.getLastModifiedTime(path).toMillis();
+	}
+
+	private static String getTableFingerprint(long rowCount, List<FieldInfo> fieldInfos) {
+		StringBuilder fingerprint = new StringBuilder("rows=").append(rowCount).append(";columns=");
+		for (FieldInfo fieldInfo : fieldInfos) {
+			fingerprint.append(fieldInfo.name).append(' ').append(fieldInfo.type).append(',');
+		}
+		return fingerprint.toString();
 	}
 
 	/*
@@ -235,16 +548,92 @@ public class SourceDataScan implements ScanParameters {
 		if (dbSettings.dbType == DbType.BIGQUERY) {
 			dbSettings.domain = dbSettings.database;
 		}
-		try (RichConnection connection = new RichConnection(dbSettings)) {
+		List<String> tables = new ArrayList<>();
+		for (String table : dbSettings.tables) {
+			List<FieldInfo> fieldInfos = getCheckpointedFieldInfos(table);
+			if (fieldInfos != null) {
+				tableToFieldInfos.put(new Table(table), fieldInfos);
+			} else {
+				tables.add(table);
+			}
+		}
+		if (tables.isEmpty()) {
+			return;
+		}
+		// storage handlers are singletons that share a single connection, so tables cannot be scanned concurrently
+		int maxConnections = dbSettings.dbType.supportsStorageHandler() ? 1 : threads;
+		if (threads > 1 && maxConnections == 1) {
+			logger.warn("Parallel scanning is not supported for {}, scanning tables sequentially", dbSettings.dbType.label());
+		}
+		connectionPool = new ConnectionPool(() -> {
+			RichConnection connection = connectionFactory.apply(dbSettings);
 			connection.setVerbose(false);
-			connection.use(dbSettings.database);
+			connection.setFetchSize(fetchSize);
+			return connection;
+		}, maxConnections);
+		if (maxConnections > 1 && tablePartitions > 1) {
+			partitionExecutor = Executors.newFixedThreadPool(maxConnections - 1);
+		}
+		try {
+			if (maxConnections > 1 && tables.size() > 1) {
+				processDatabaseInParallel(dbSettings, tables);
+			} else {
+				RichConnection connection = connectionPool.take();
+				for (String table : tables) {
+					tableToFieldInfos.putIfAbsent(new Table(table), processDatabaseTable(table, connection, dbSettings.database));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			if (partitionExecutor != null) {
+				partitionExecutor.shutdownNow();
+				partitionExecutor = null;
+			}
+			connectionPool.close();
+			connectionPool = null;
+		}
+	}
 
-			tableToFieldInfos = dbSettings.tables.stream()
-					.collect(Collectors.toMap(
-							Table::new,
-							table -> processDatabaseTable(table, connection, dbSettings.database),
-							(o1, o2) -> o1, mapSupplier
-					));
+	private static RichConnection openConnection(DbSettings dbSettings) {
+		RichConnection connection = new RichConnection(dbSettings);
+		connection.use(dbSettings.database);
+		return connection;
+	}
+
+	/*
+	 * Scans the tables using a bounded pool of worker threads. Each worker takes a connection from the connection pool
+	 * for the duration of a table scan, so no connection is ever used by two threads at the same time. The results are
+	 * collected into the map from mapSupplier, so the report does not depend on the order in which the tables finish.
+	 */
+	private void processDatabaseInParallel(DbSettings dbSettings, List<String> tables) {
+		int nThreads = Math.min(threads, tables.size());
+		StringUtilities.outputWithTime("Scanning tables using " + nThreads + " parallel connections");
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			Map<String, Future<List<FieldInfo>>> futures = new LinkedHashMap<>();
+			for (String table : tables) {
+				futures.putIfAbsent(table, executor.submit(() -> {
+					RichConnection connection = connectionPool.take();
+					try {
+						return processDatabaseTable(table, connection, dbSettings.database);
+					} finally {
+						connectionPool.release(connection);
+					}
+				}));
+			}
+
+			for (Map.Entry<String, Future<List<FieldInfo>>> entry : futures.entrySet()) {
+				tableToFieldInfos.put(new Table(entry.getKey()), entry.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
@@ -253,7 +642,30 @@ public class SourceDataScan implements ScanParameters {
 		for (String fileName : dbSettings.tables) {
 			Table table = new Table();
 			table.setName(new File(fileName).getName());
-			List<FieldInfo> fieldInfos = processCsvFile(fileName);
+			List<FieldInfo> fieldInfos = getCheckpointedFieldInfos(fileName);
+			String fingerprint;
+			try {
+				fingerprint = getFileFingerprint(fileName);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (fieldInfos == null) {
+				fieldInfos = getUnchangedFieldInfos(fileName, table.getName(), fingerprint);
+			}
+			if (fieldInfos != null) {
+				tableToFieldInfos.put(table, fieldInfos);
+				continue;
+			}
+			TableScanMetrics metrics = scanMetrics.startTable(table.getName());
+			if (threads > 1 && scanValues && new File(fileName).length() > csvChunkSize && (!mappedCsvReader || sampleSize == -1)) {
+				fieldInfos = processCsvFileInChunks(fileName);
+			} else if (mappedCsvReader) {
+				fieldInfos = processCsvFileMapped(fileName);
+			} else {
+				fieldInfos = processCsvFile(fileName);
+			}
+			finishFileMetrics(metrics, fieldInfos);
+			tableScanned(fileName, fingerprint, fieldInfos);
 			tableToFieldInfos.put(table, fieldInfos);
 		}
 	}
@@ -268,8 +680,18 @@ public class SourceDataScan implements ScanParameters {
 				table.setName(new File(fileName).getName());
 				table.setComment(sasFileProperties.getName());
 
-				StringUtilities.outputWithTime("Scanning table " + fileName);
-				List<FieldInfo> fieldInfos = processSasFile(sasFileReader);
+				List<FieldInfo> fieldInfos = getCheckpointedFieldInfos(fileName);
+				String fingerprint = getFileFingerprint(fileName);
+				if (fieldInfos == null) {
+					fieldInfos = getUnchangedFieldInfos(fileName, table.getName(), fingerprint);
+				}
+				if (fieldInfos == null) {
+					StringUtilities.outputWithTime("Scanning table " + fileName);
+					TableScanMetrics metrics = scanMetrics.startTable(table.getName());
+					fieldInfos = processSasFile(sasFileReader);
+					finishFileMetrics(metrics, fieldInfos);
+					tableScanned(fileName, fingerprint, fieldInfos);
+				}
 				tableToFieldInfos.put(table, fieldInfos);
 
 			} catch (IOException e) {
@@ -282,7 +704,16 @@ public class SourceDataScan implements ScanParameters {
 		StringUtilities.outputWithTime("Generating scan report");
 		removeEmptyTables();
 
-		workbook = new XSSFWorkbook();
+		if (streamingReport) {
+			// Only a window of recent rows is kept in memory, the others are flushed to (compressed) temporary files
+			// in the poi tmp dir. Strings are written inline, so there is no shared strings table that grows with
+			// the number of values either.
+			SXSSFWorkbook streamingWorkbook = new SXSSFWorkbook(SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+			streamingWorkbook.setCompressTempFiles(true);
+			workbook = streamingWorkbook;
+		} else {
+			workbook = new XSSFWorkbook();
+		}
 
 		int i = 0;
 		indexedTableNameLookup = new HashMap<>();
@@ -293,6 +724,16 @@ public class SourceDataScan implements ScanParameters {
 			i++;
 		}
 
+		// Collected before the value sheets release the fields
+		memoryBudgetDecisions = new ArrayList<>();
+		for (Map.Entry<Table, List<FieldInfo>> entry : tableToFieldInfos.entrySet()) {
+			for (FieldInfo fieldInfo : entry.getValue()) {
+				if (fieldInfo.memoryDecision != null) {
+					memoryBudgetDecisions.add(entry.getKey().getName() + "." + fieldInfo.name + ": " + fieldInfo.memoryDecision);
+				}
+			}
+		}
+
 		createFieldOverviewSheet();
 		createTableOverviewSheet();
 
@@ -301,6 +742,7 @@ public class SourceDataScan implements ScanParameters {
 		}
 
 		createMetaSheet();
+		createTimingSheet();
 
 		try (FileOutputStream out = new FileOutputStream(new File(filename))) {
 			workbook.write(out);
@@ -308,6 +750,12 @@ public class SourceDataScan implements ScanParameters {
 			StringUtilities.outputWithTime("Scan report generated: " + Paths.get(filename).toAbsolutePath().toString());
 		} catch (IOException ex) {
 			throw new RuntimeException(ex.getMessage());
+		} finally {
+			if (workbook instanceof SXSSFWorkbook) {
+				// Also deletes the temporary files
+				workbook.close();
+			}
+			workbook = null;
 		}
 	}
 
@@ -361,11 +809,10 @@ public class SourceDataScan implements ScanParameters {
 				));
 
 				if (scanValues) {
-					Long uniqueCount = fieldInfo.uniqueCount;
 					values.addAll(Arrays.asList(
 							fieldInfo.nProcessed,
 							fieldInfo.getFractionEmpty(),
-							fieldInfo.hasValuesTrimmed() ? String.format("<= %d", uniqueCount) : uniqueCount
+							getUniqueCountDescription(fieldInfo)
 					));
 					if (calculateNumericStats) {
 						values.addAll(Arrays.asList(
@@ -388,6 +835,17 @@ public class SourceDataScan implements ScanParameters {
 		}
 	}
 
+	private static Object getUniqueCountDescription(FieldInfo fieldInfo) {
+		if (fieldInfo.isUniqueCountEstimated()) {
+			// Estimated from a sketch, with its relative standard error
+			return String.format(Locale.ROOT, "~ %d (± %.1f%%)", fieldInfo.uniqueCount, fieldInfo.uniqueCountError * 100);
+		} else if (fieldInfo.hasValuesTrimmed()) {
+			return String.format("<= %d", fieldInfo.uniqueCount);
+		} else {
+			return fieldInfo.uniqueCount;
+		}
+	}
+
 	private void createTableOverviewSheet() {
 		Sheet tableOverviewSheet = workbook.createSheet(ScanSheetName.TABLE_OVERVIEW);
 
@@ -492,9 +950,83 @@ public class SourceDataScan implements ScanParameters {
 		addRow(metaSheet, "maxValues", this.maxValues);
 		addRow(metaSheet, "calculateNumericStats", this.calculateNumericStats);
 		addRow(metaSheet, "numStatsSamplerSize", this.calculateNumericStats ? this.numStatsSamplerSize: 0);
+		// optional performance settings are only listed when they deviate from their default
+		if (this.threads > 1) {
+			addRow(metaSheet, "threads", this.threads);
+		}
+		if (this.columnThreads > 1) {
+			addRow(metaSheet, "columnThreads", this.columnThreads);
+		}
+		if (this.tablePartitions > 1) {
+			addRow(metaSheet, "tablePartitions", this.tablePartitions);
+		}
+		if (this.fetchSize != DBConnection.DEFAULT_FETCH_SIZE) {
+			addRow(metaSheet, "fetchSize", this.fetchSize);
+		}
+		if (this.pipeline) {
+			addRow(metaSheet, "pipeline", this.pipeline);
+		}
+		if (this.mappedCsvReader) {
+			addRow(metaSheet, "csvReader", "mapped");
+		}
+		if (this.checkpoint) {
+			addRow(metaSheet, "checkpoint", this.checkpoint);
+		}
+		if (this.incremental) {
+			addRow(metaSheet, "incremental", this.incremental);
+			for (String table : reusedTables) {
+				addRow(metaSheet, "reusedTable", table);
+			}
+		}
+		if (this.streamingReport) {
+			addRow(metaSheet, "streamingReport", this.streamingReport);
+		}
+		if (this.approximateValueCounts) {
+			addRow(metaSheet, "valueCounts", "approximate");
+		} else if (this.fingerprintValueCounts) {
+			addRow(metaSheet, "valueCounts", "fingerprint");
+		}
+		if (this.calculateNumericStats && this.useQuantileSketch) {
+			addRow(metaSheet, "numericStatsQuantiles", "sketch");
+		}
+		if (this.pushDown) {
+			addRow(metaSheet, "profiling", "push-down");
+		}
+		if (this.memoryBudgetMb > 0) {
+			addRow(metaSheet, "memoryBudgetMb", this.memoryBudgetMb);
+			for (String decision : memoryBudgetDecisions) {
+				addRow(metaSheet, "memoryBudgetDecision", decision);
+			}
+		}
 
 	}
 
+	private void createTimingSheet() {
+		Sheet timingSheet = workbook.createSheet(ScanSheetName.TIMING);
+		addRow(timingSheet, "Table", "Metadata (ms)", "Count (ms)", "First row (ms)", "Fetch (ms)", "Profiling (ms)",
+				"Total (ms)", "Rows", "Rows per second", "Bytes");
+		for (TableScanMetrics metrics : scanMetrics.getTables()) {
+			addRow(timingSheet,
+					metrics.getTable(),
+					emptyIfUnknown(metrics.getMetadataMillis()),
+					emptyIfUnknown(metrics.getCountMillis()),
+					emptyIfUnknown(metrics.getFirstRowMillis()),
+					emptyIfUnknown(metrics.getFetchMillis()),
+					emptyIfUnknown(metrics.getProfilingMillis()),
+					metrics.getTotalMillis(),
+					metrics.getRows(),
+					Math.round(metrics.getRowsPerSecond()),
+					metrics.getBytes()
+			);
+		}
+		addRow(timingSheet, "Total", "", "", "", "", "", scanMetrics.getElapsedMillis(), scanMetrics.getRowsProcessed(),
+				Math.round(scanMetrics.getRowsPerSecond()), scanMetrics.getBytesRead());
+	}
+
+	private static Object emptyIfUnknown(long millis) {
+		return millis < 0 ? "" : millis;
+	}
+
 	private void removeEmptyTables() {
 		tableToFieldInfos.entrySet()
 				.removeIf(stringListEntry -> stringListEntry.getValue().isEmpty());
@@ -502,43 +1034,275 @@ public class SourceDataScan implements ScanParameters {
 
 	private List<FieldInfo> processDatabaseTable(String table, RichConnection connection, String database) {
 		StringUtilities.outputWithTime("Scanning table " + table);
+		TableScanMetrics metrics = scanMetrics.startTable(table);
 
+		long start = System.nanoTime();
 		long rowCount;
 		if (connection.getConnection().hasStorageHandler()) {
 			rowCount = connection.getConnection().getStorageHandler().getTableSize(table);
 		} else {
 			rowCount = connection.getTableSize(table);
 		}
+		metrics.addCountTime(System.nanoTime() - start);
+		start = System.nanoTime();
 		List<FieldInfo> fieldInfos = connection.fetchTableStructure(connection, database, table, this);
+		metrics.addMetadataTime(System.nanoTime() - start);
+		String fingerprint = getTableFingerprint(rowCount, fieldInfos);
+		List<FieldInfo> unchangedFieldInfos = getUnchangedFieldInfos(table, table, fingerprint);
+		if (unchangedFieldInfos != null) {
+			metrics.finish();
+			return unchangedFieldInfos;
+		}
 		if (scanValues) {
-			int actualCount = 0;
-			QueryResult queryResult = null;
 			try {
-				queryResult = connection.fetchRowsFromTable(table, rowCount, this);
-				for (org.ohdsi.utilities.files.Row row : queryResult) {
-					for (FieldInfo fieldInfo : fieldInfos) {
-						fieldInfo.processValue(row.get(fieldInfo.name));
-					}
-					actualCount++;
-					if (sampleSize != -1 && actualCount >= sampleSize) {
-						logger.info("Stopped after {} rows", actualCount);
-						break;
+				if (pushDown && connection.supportsPushDownProfiling()) {
+					connection.profileTable(table, fieldInfos, this);
+					metrics.addRows(fieldInfos.isEmpty() ? 0 : fieldInfos.get(0).nProcessed);
+				} else {
+					List<TablePartition> partitions = getTablePartitions(table, rowCount, fieldInfos, connection);
+					if (partitions.size() > 1) {
+						processTablePartitions(table, partitions, connection, fieldInfos, metrics);
+					} else {
+						connection.scanRowsFromTable(table, rowCount, this, queryResult -> {
+							fieldInfos.replaceAll(this::createEmptyFieldInfo);
+							processQueryResult(table, queryResult, fieldInfos, metrics);
+							return getRowsProcessed(fieldInfos);
+						});
 					}
 				}
 				for (FieldInfo fieldInfo : fieldInfos)
 					fieldInfo.trim();
 			} catch (Exception e) {
 				logger.error(e.getMessage(), e);
+				// incomplete results are reported, but not checkpointed, so that a resumed scan retries the table
+				return fieldInfos;
 			} finally {
-				if (queryResult != null) {
-					queryResult.close();
-				}
+				metrics.addBytes(getValueLength(fieldInfos));
+				metrics.finish();
 			}
+		} else {
+			metrics.finish();
 		}
 
+		tableScanned(table, fingerprint, fieldInfos);
 		return fieldInfos;
 	}
 
+	private List<TablePartition> getTablePartitions(String table, long rowCount, List<FieldInfo> fieldInfos, RichConnection connection) {
+		// Only full scans are partitioned, and only if each partition gets a reasonable number of rows
+		int nPartitions = (int) Math.min(tablePartitions, rowCount / MIN_ROWS_PER_PARTITION);
+		if (sampleSize != -1 || nPartitions < 2 || partitionExecutor == null) {
+			return Collections.emptyList();
+		}
+		return connection.createTablePartitions(table, fieldInfos, nPartitions);
+	}
+
+	/*
+	 * Scans the partitions of a table concurrently, each into FieldInfo objects of its own. This thread scans them over
+	 * the connection of the table, helped by a partition worker for each connection the pool can spare, so the scan
+	 * never uses more connections than threads. The partial results are merged into fieldInfos in partition order,
+	 * after all partitions are done.
+	 */
+	private void processTablePartitions(String table, List<TablePartition> partitions, RichConnection connection, List<FieldInfo> fieldInfos, TableScanMetrics metrics) throws InterruptedException, ExecutionException {
+		AtomicInteger nextPartition = new AtomicInteger();
+		AtomicReferenceArray<List<FieldInfo>> partialFieldInfos = new AtomicReferenceArray<>(partitions.size());
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			RichConnection workerConnection;
+			while (futures.size() < partitions.size() - 1 && (workerConnection = connectionPool.poll()) != null) {
+				RichConnection partitionConnection = workerConnection;
+				futures.add(partitionExecutor.submit(() -> {
+					try {
+						processNextTablePartitions(table, partitions, nextPartition, partitionConnection, fieldInfos, partialFieldInfos, metrics);
+					} finally {
+						connectionPool.release(partitionConnection);
+					}
+					return null;
+				}));
+			}
+			StringUtilities.outputWithTime("Scanning table " + table + " in " + partitions.size() + " partitions on " +
+					partitions.get(0).getColumn() + " using " + (futures.size() + 1) + " connections");
+			processNextTablePartitions(table, partitions, nextPartition, connection, fieldInfos, partialFieldInfos, metrics);
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+		for (int partition = 0; partition < partitions.size(); partition++) {
+			for (int i = 0; i < fieldInfos.size(); i++) {
+				fieldInfos.get(i).merge(partialFieldInfos.get(partition).get(i));
+			}
+		}
+	}
+
+	private void processNextTablePartitions(String table, List<TablePartition> partitions, AtomicInteger nextPartition, RichConnection connection,
+										List<FieldInfo> fieldInfos, AtomicReferenceArray<List<FieldInfo>> partialFieldInfos, TableScanMetrics metrics) throws InterruptedException {
+		int partition;
+		while ((partition = nextPartition.getAndIncrement()) < partitions.size()) {
+			partialFieldInfos.set(partition, processTablePartition(table, partitions.get(partition), connection, fieldInfos, metrics));
+		}
+	}
+
+	private List<FieldInfo> processTablePartition(String table, TablePartition partition, RichConnection connection, List<FieldInfo> fieldInfos, TableScanMetrics metrics) throws InterruptedException {
+		List<FieldInfo> partialFieldInfos = new ArrayList<>();
+		for (FieldInfo fieldInfo : fieldInfos) {
+			partialFieldInfos.add(createEmptyFieldInfo(fieldInfo));
+		}
+		QueryResult queryResult = connection.fetchRowsFromTable(table, partition);
+		try {
+			processQueryResult(table + " " + partition, queryResult, partialFieldInfos, metrics);
+		} finally {
+			queryResult.close();
+		}
+		return partialFieldInfos;
+	}
+
+	private FieldInfo createEmptyFieldInfo(FieldInfo fieldInfo) {
+		FieldInfo emptyFieldInfo = new FieldInfo(this, fieldInfo.name);
+		emptyFieldInfo.type = fieldInfo.type;
+		emptyFieldInfo.rowCount = fieldInfo.rowCount;
+		return emptyFieldInfo;
+	}
+
+	/*
+	 * The query of a QueryResult is executed when iterating over it starts, so the time until the first row includes
+	 * the time the database needs to execute it.
+	 */
+	private void processQueryResult(String source, QueryResult queryResult, List<FieldInfo> fieldInfos, TableScanMetrics metrics) throws InterruptedException {
+		if (pipeline) {
+			processRowsPipelined(source, queryResult, fieldInfos, metrics);
+		} else if (columnThreads > 1 && fieldInfos.size() > 1) {
+			processRowsSharded(queryResult, fieldInfos, metrics);
+		} else {
+			processRows(queryResult, fieldInfos, metrics);
+		}
+	}
+
+	/*
+	 * The rows are read in batches, into the same RowBatch each time, and profiled column by column.
+	 */
+	private void processRows(QueryResult queryResult, List<FieldInfo> fieldInfos, TableScanMetrics metrics) {
+		RowBatchReader reader = queryResult.batchReader(fieldInfos);
+		RowBatch batch = new RowBatch(fieldInfos.size(), RowBatch.DEFAULT_CAPACITY);
+		int actualCount = 0;
+		long time = System.nanoTime();
+		int nRows;
+		while ((nRows = reader.read(batch, getRowsLeft(actualCount))) > 0) {
+			time = metrics.fetched(nRows, time);
+			profileBatch(batch, fieldInfos);
+			batch.clear();
+			time = metrics.profiled(time);
+			actualCount += nRows;
+		}
+		logIfStopped(actualCount);
+	}
+
+	private static void profileBatch(RowBatch batch, List<FieldInfo> fieldInfos) {
+		for (int column = 0; column < fieldInfos.size(); column++) {
+			FieldInfo fieldInfo = fieldInfos.get(column);
+			String[] values = batch.getColumn(column);
+			for (int row = 0; row < batch.size(); row++) {
+				fieldInfo.processValue(values[row]);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows that can still be read before the sample size is reached
+	 */
+	private int getRowsLeft(int actualCount) {
+		return sampleSize == -1 ? Integer.MAX_VALUE : Math.max(0, sampleSize - actualCount);
+	}
+
+	private void logIfStopped(int actualCount) {
+		if (sampleSize != -1 && actualCount >= sampleSize) {
+			logger.info("Stopped after {} rows", actualCount);
+		}
+	}
+
+	/*
+	 * Same as processRows(), but the rows are fetched on a separate thread by a RowBatchPipeline, while this thread
+	 * profiles them, or hands them to a ColumnShardedProfiler.
+	 */
+	private void processRowsPipelined(String source, QueryResult queryResult, List<FieldInfo> fieldInfos, TableScanMetrics metrics) throws InterruptedException {
+		long time = System.nanoTime();
+		try (RowBatchPipeline rowBatchPipeline = new RowBatchPipeline(queryResult, fieldInfos, sampleSize)) {
+			RowBatch batch;
+			if (columnThreads > 1 && fieldInfos.size() > 1) {
+				try (ColumnShardedProfiler profiler = new ColumnShardedProfiler(fieldInfos, columnThreads, rowBatchPipeline::release)) {
+					while ((batch = rowBatchPipeline.take()) != null) {
+						time = metrics.fetched(batch.size(), time);
+						profiler.process(batch);
+						time = metrics.profiled(time);
+					}
+					profiler.finish();
+					metrics.profiled(time);
+				}
+			} else {
+				while ((batch = rowBatchPipeline.take()) != null) {
+					time = metrics.fetched(batch.size(), time);
+					profileBatch(batch, fieldInfos);
+					rowBatchPipeline.release(batch);
+					time = metrics.profiled(time);
+				}
+			}
+			rowBatchPipeline.logStageTimes(source);
+		}
+	}
+
+	/*
+	 * Same as processRows(), but the reading thread only collects the values into batches, while the columns are
+	 * profiled by the worker threads of a ColumnShardedProfiler.
+	 */
+	private void processRowsSharded(QueryResult queryResult, List<FieldInfo> fieldInfos, TableScanMetrics metrics) throws InterruptedException {
+		int actualCount = 0;
+		try (ColumnShardedProfiler profiler = new ColumnShardedProfiler(fieldInfos, columnThreads)) {
+			RowBatchReader reader = queryResult.batchReader(fieldInfos);
+			RowBatch batch = profiler.createBatch();
+			long time = System.nanoTime();
+			int nRows;
+			while ((nRows = reader.read(batch, getRowsLeft(actualCount))) > 0) {
+				time = metrics.fetched(nRows, time);
+				if (batch.isFull()) {
+					profiler.process(batch);
+					batch = profiler.createBatch();
+				}
+				time = metrics.profiled(time);
+				actualCount += nRows;
+			}
+			logIfStopped(actualCount);
+			if (!batch.isEmpty()) {
+				profiler.process(batch);
+			}
+			profiler.finish();
+			metrics.profiled(time);
+		}
+	}
+
+	private void finishFileMetrics(TableScanMetrics metrics, List<FieldInfo> fieldInfos) {
+		metrics.addRows(getRowsProcessed(fieldInfos));
+		metrics.addBytes(getValueLength(fieldInfos));
+		metrics.finish();
+	}
+
+	private static long getRowsProcessed(List<FieldInfo> fieldInfos) {
+		long rows = 0;
+		for (FieldInfo fieldInfo : fieldInfos) {
+			rows = Math.max(rows, fieldInfo.nProcessed);
+		}
+		return rows;
+	}
+
+	private static long getValueLength(List<FieldInfo> fieldInfos) {
+		long length = 0;
+		for (FieldInfo fieldInfo : fieldInfos) {
+			length += fieldInfo.sumLength;
+		}
+		return length;
+	}
 
 	private List<FieldInfo> processCsvFile(String filename) {
 		StringUtilities.outputWithTime("Scanning table " + filename);
@@ -546,14 +1310,7 @@ public class SourceDataScan implements ScanParameters {
 		int lineNr = 0;
 		for (String line : new ReadTextFile(filename)) {
 			lineNr++;
-			List<String> row = StringUtilities.safeSplit(line, delimiter);
-			for (int i = 0; i < row.size(); i++) {
-				String column = row.get(i);
-				if (column.startsWith("\"") && column.endsWith("\"") && column.length() > 1)
-					column = column.substring(1, column.length() - 1);
-				column = column.replace("\\\"", "\"");
-				row.set(i, column);
-			}
+			List<String> row = parseCsvLine(line);
 
 			if (lineNr == 1) {
 				for (String cell : row) {
@@ -579,6 +1336,162 @@ public class SourceDataScan implements ScanParameters {
 		return fieldInfos;
 	}
 
+	private List<String> parseCsvLine(String line) {
+		List<String> row = StringUtilities.safeSplit(line, delimiter);
+		for (int i = 0; i < row.size(); i++) {
+			String column = row.get(i);
+			if (column.startsWith("\"") && column.endsWith("\"") && column.length() > 1)
+				column = column.substring(1, column.length() - 1);
+			column = column.replace("\\\"", "\"");
+			row.set(i, column);
+		}
+		return row;
+	}
+
+	/*
+	 * Same as processCsvFile(), but the file is split into chunks that are profiled on multiple threads, each into
+	 * FieldInfo objects of its own. The results of the chunks are merged in file order. The chunks know the number of
+	 * their first line, so exactly the same rows are scanned as by processCsvFile().
+	 */
+	private List<FieldInfo> processCsvFileInChunks(String filename) {
+		StringUtilities.outputWithTime("Scanning table " + filename);
+		List<FieldInfo> fieldInfos = new ArrayList<>();
+		long maxLineNr = sampleSize == -1 ? -1 : sampleSize + 1L;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (String cell : readCsvHeader(filename)) {
+				fieldInfos.add(new FieldInfo(this, cell));
+			}
+			if (fieldInfos.isEmpty()) {
+				return fieldInfos;
+			}
+			List<TextFileChunk> chunks = TextFileChunk.split(filename, csvChunkSize, maxLineNr, !mappedCsvReader);
+			StringUtilities.outputWithTime("Scanning " + chunks.size() + " chunks using " + threads + " threads");
+			List<Future<List<FieldInfo>>> futures = new ArrayList<>();
+			for (TextFileChunk chunk : chunks) {
+				if (mappedCsvReader) {
+					futures.add(executor.submit(() -> processCsvChunkMapped(chunk, fieldInfos)));
+				} else {
+					futures.add(executor.submit(() -> processCsvChunk(chunk, fieldInfos, maxLineNr)));
+				}
+			}
+			for (Future<List<FieldInfo>> future : futures) {
+				List<FieldInfo> chunkFieldInfos = future.get();
+				for (int i = 0; i < fieldInfos.size(); i++) {
+					fieldInfos.get(i).merge(chunkFieldInfos.get(i));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		for (FieldInfo fieldInfo : fieldInfos)
+			fieldInfo.trim();
+
+		return fieldInfos;
+	}
+
+	private List<String> readCsvHeader(String filename) throws IOException {
+		if (mappedCsvReader) {
+			List<String> header = new ArrayList<>();
+			try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(Paths.get(filename), delimiter)) {
+				if (tokenizer.nextRecord()) {
+					for (int i = 0; i < tokenizer.getCellCount(); i++) {
+						header.add(tokenizer.getCell(i));
+					}
+				}
+			}
+			return header;
+		} else {
+			Iterator<String> lines = new ReadTextFile(filename).iterator();
+			return lines.hasNext() ? parseCsvLine(lines.next()) : Collections.emptyList();
+		}
+	}
+
+	/*
+	 * Same as processCsvFile(), but the file is read with a MappedCsvTokenizer. Values are only turned into a String
+	 * the first time they are seen in a column.
+	 */
+	private List<FieldInfo> processCsvFileMapped(String filename) {
+		StringUtilities.outputWithTime("Scanning table " + filename);
+		List<FieldInfo> fieldInfos = new ArrayList<>();
+		try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(Paths.get(filename), delimiter)) {
+			if (tokenizer.nextRecord()) {
+				for (int i = 0; i < tokenizer.getCellCount(); i++) {
+					fieldInfos.add(new FieldInfo(this, tokenizer.getCell(i)));
+				}
+			}
+			if (!scanValues) {
+				return fieldInfos;
+			}
+			processCsvRecords(tokenizer, fieldInfos, sampleSize);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		for (FieldInfo fieldInfo : fieldInfos)
+			fieldInfo.trim();
+
+		return fieldInfos;
+	}
+
+	private List<FieldInfo> processCsvChunkMapped(TextFileChunk chunk, List<FieldInfo> fieldInfos) throws IOException {
+		List<FieldInfo> chunkFieldInfos = new ArrayList<>();
+		for (FieldInfo fieldInfo : fieldInfos) {
+			chunkFieldInfos.add(new FieldInfo(this, fieldInfo.name));
+		}
+		try (MappedCsvTokenizer tokenizer = new MappedCsvTokenizer(Paths.get(chunk.getFilename()), delimiter, chunk.getStart(), chunk.getEnd())) {
+			if (chunk.getStart() == 0) {
+				tokenizer.nextRecord(); // The header
+			}
+			processCsvRecords(tokenizer, chunkFieldInfos, -1);
+		}
+		return chunkFieldInfos;
+	}
+
+	private void processCsvRecords(MappedCsvTokenizer tokenizer, List<FieldInfo> fieldInfos, int maxRecords) throws IOException {
+		MappedCsvTokenizer.CellInterner[] interners = new MappedCsvTokenizer.CellInterner[fieldInfos.size()];
+		for (int i = 0; i < interners.length; i++) {
+			interners[i] = new MappedCsvTokenizer.CellInterner(MAX_VALUES_IN_MEMORY);
+		}
+		int count = 0;
+		while ((maxRecords == -1 || count < maxRecords) && tokenizer.nextRecord()) {
+			count++;
+			if (tokenizer.getCellCount() == fieldInfos.size()) { // Else there appears to be a formatting error, so skip
+				for (int i = 0; i < interners.length; i++) {
+					fieldInfos.get(i).processValue(interners[i].intern(tokenizer, i));
+				}
+			}
+		}
+	}
+
+	private List<FieldInfo> processCsvChunk(TextFileChunk chunk, List<FieldInfo> fieldInfos, long maxLineNr) throws IOException {
+		List<FieldInfo> chunkFieldInfos = new ArrayList<>();
+		for (FieldInfo fieldInfo : fieldInfos) {
+			chunkFieldInfos.add(new FieldInfo(this, fieldInfo.name));
+		}
+		long lineNr = chunk.getFirstLineNr() - 1;
+		for (String line : chunk.read()) {
+			lineNr++;
+			if (maxLineNr != -1 && lineNr > maxLineNr)
+				break;
+			if (lineNr == 1) // The header
+				continue;
+			List<String> row = parseCsvLine(line);
+			if (row.size() == chunkFieldInfos.size()) { // Else there appears to be a formatting error, so skip
+				for (int i = 0; i < row.size(); i++) {
+					chunkFieldInfos.get(i).processValue(row.get(i));
+				}
+			}
+		}
+		return chunkFieldInfos;
+	}
+
 	private List<FieldInfo> processSasFile(SasFileReader sasFileReader) throws IOException {
 		List<FieldInfo> fieldInfos = new ArrayList<>();
 
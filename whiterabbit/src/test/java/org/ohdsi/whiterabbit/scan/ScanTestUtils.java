@@ -23,6 +23,7 @@ import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.assertj.swing.timing.Condition;
 import org.ohdsi.databases.configuration.DbType;
+import org.ohdsi.utilities.ScanSheetName;
 import org.ohdsi.whiterabbit.Console;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,6 +71,23 @@ public class ScanTestUtils {
         return scanValuesMatchReferenceValues(scanSheets, referenceSheets, dbType);
     }
 
+    /**
+     * Compares two scan reports of the same source, made with different scan settings, value by value. The "_" sheet
+     * with the scan settings is left out.
+     */
+    public static boolean scanReportsMatch(Path scanReport, Path otherScanReport) throws IOException {
+        Map<String, List<List<String>>> scanSheets = readXlsxAsStringValues(scanReport);
+        Map<String, List<List<String>>> otherScanSheets = readXlsxAsStringValues(otherScanReport);
+        scanSheets.remove("_");
+        otherScanSheets.remove("_");
+
+        assertEquals(scanSheets.keySet(), otherScanSheets.keySet(), "Sheets do not match.");
+        for (Map.Entry<String, List<List<String>>> entry : scanSheets.entrySet()) {
+            assertEquals(entry.getValue(), otherScanSheets.get(entry.getKey()), String.format("Sheet %s does not match.", entry.getKey()));
+        }
+        return true;
+    }
+
     public static boolean isScanReportGeneratedAndMatchesReference(Console console, Path expectedPath, Path referencePath, DbType dbType) throws IOException {
         assertNotNull(console);
         // wait for the "Scan report generated:" message in the Console text area
@@ -299,6 +317,10 @@ public class ScanTestUtils {
 
         for (int i = 0; i < xssfWorkbook.getNumberOfSheets(); ++i) {
             XSSFSheet xssfSheet = xssfWorkbook.getSheetAt(i);
+            if (xssfSheet.getSheetName().equals(ScanSheetName.TIMING)) {
+                // timings differ from run to run, and are not part of the reference reports
+                continue;
+            }
 
             List<List<String>> sheet  = new ArrayList<>();
             for (org.apache.poi.ss.usermodel.Row row : xssfSheet) {
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ohdsi.databases.FieldInfo;
+import org.ohdsi.databases.configuration.DbSettings;
+import org.ohdsi.databases.configuration.DbType;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a checkpoint file gives back the tables that were completed before, that a partially written or
+ * corrupt record at its end is dropped, and that the checkpoint of a scan with other settings is not used.
+ */
+class TestScanCheckpoint {
+    private static final String SETTINGS = "sampleSize=100;minCellCount=5";
+
+    @TempDir
+    Path tempDir;
+
+    private final SourceDataScan scanParameters = ScanTestUtils.createSourceDataScan();
+
+    private ScanCheckpoint.TableResult createTableResult(String... values) {
+        FieldInfo fieldInfo = new FieldInfo(scanParameters, "value");
+        for (String value : values) {
+            for (int i = 0; i < 10; i++) {
+                fieldInfo.processValue(value);
+            }
+        }
+        fieldInfo.trim();
+        return new ScanCheckpoint.TableResult("rows=" + fieldInfo.nProcessed, Collections.singletonList(fieldInfo));
+    }
+
+    private static void assertTableResultEquals(ScanCheckpoint.TableResult expected, ScanCheckpoint.TableResult actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getFingerprint(), actual.getFingerprint());
+        assertEquals(expected.getFieldInfos().size(), actual.getFieldInfos().size());
+        for (int i = 0; i < expected.getFieldInfos().size(); i++) {
+            FieldInfo expectedFieldInfo = expected.getFieldInfos().get(i);
+            FieldInfo actualFieldInfo = actual.getFieldInfos().get(i);
+            assertEquals(expectedFieldInfo.name, actualFieldInfo.name);
+            assertEquals(expectedFieldInfo.nProcessed, actualFieldInfo.nProcessed);
+            assertEquals(expectedFieldInfo.getSortedValuesWithoutSmallValues(), actualFieldInfo.getSortedValuesWithoutSmallValues());
+        }
+    }
+
+    private Path writeCheckpoint(ScanCheckpoint.TableResult a, ScanCheckpoint.TableResult b) throws IOException {
+        Path file = tempDir.resolve("scan.checkpoint");
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS, scanParameters)) {
+            assertTrue(checkpoint.getCompletedTables().isEmpty());
+            checkpoint.add("A", a);
+            checkpoint.add("B", b);
+        }
+        return file;
+    }
+
+    @Test
+    void testResume() throws IOException {
+        ScanCheckpoint.TableResult a = createTableResult("1", "2", "3");
+        ScanCheckpoint.TableResult b = createTableResult("x", "y");
+        ScanCheckpoint.TableResult c = createTableResult("2001-01-01");
+        Path file = writeCheckpoint(a, b);
+
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS, scanParameters)) {
+            Map<String, ScanCheckpoint.TableResult> completedTables = checkpoint.getCompletedTables();
+            assertEquals(Arrays.asList("A", "B"), Arrays.asList(completedTables.keySet().toArray()));
+            assertTableResultEquals(a, completedTables.get("A"));
+            assertTableResultEquals(b, completedTables.get("B"));
+            checkpoint.add("C", c);
+        }
+
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS, scanParameters)) {
+            assertEquals(Arrays.asList("A", "B", "C"), Arrays.asList(checkpoint.getCompletedTables().keySet().toArray()));
+            assertTableResultEquals(c, checkpoint.getCompletedTables().get("C"));
+        }
+    }
+
+    @Test
+    void testPartialRecordIsDropped() throws IOException {
+        ScanCheckpoint.TableResult a = createTableResult("1", "2", "3");
+        ScanCheckpoint.TableResult b = createTableResult("x", "y");
+        ScanCheckpoint.TableResult c = createTableResult("2001-01-01");
+        Path file = writeCheckpoint(a, b);
+        long size = Files.size(file);
+
+        // A record of which only the length and a few bytes were written when the scan stopped
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND))) {
+            out.writeInt(100);
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS, scanParameters)) {
+            assertEquals(Arrays.asList("A", "B"), Arrays.asList(checkpoint.getCompletedTables().keySet().toArray()));
+            assertEquals(size, Files.size(file));
+            checkpoint.add("C", c);
+        }
+
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS, scanParameters)) {
+            assertEquals(Arrays.asList("A", "B", "C"), Arrays.asList(checkpoint.getCompletedTables().keySet().toArray()));
+            assertTableResultEquals(b, checkpoint.getCompletedTables().get("B"));
+            assertTableResultEquals(c, checkpoint.getCompletedTables().get("C"));
+        }
+    }
+
+    @Test
+    void testRecordWithBadChecksumIsDropped() throws IOException {
+        ScanCheckpoint.TableResult a = createTableResult("1", "2", "3");
+        ScanCheckpoint.TableResult b = createTableResult("x", "y");
+        Path file = writeCheckpoint(a, b);
+        long size = Files.size(file);
+
+        // Corrupt the last byte of the record of table B, just before its checksum
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            randomAccessFile.seek(size - 9);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(size - 9);
+            randomAccessFile.write(value ^ 0xFF);
+        }
+
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS, scanParameters)) {
+            assertEquals(Collections.singletonList("A"), Arrays.asList(checkpoint.getCompletedTables().keySet().toArray()));
+            assertTableResultEquals(a, checkpoint.getCompletedTables().get("A"));
+            assertTrue(Files.size(file) < size);
+        }
+    }
+
+    @Test
+    void testCheckpointWithOtherSettingsIsNotUsed() throws IOException {
+        Path file = writeCheckpoint(createTableResult("1"), createTableResult("x"));
+
+        try (ScanCheckpoint checkpoint = new ScanCheckpoint(file, SETTINGS + ";scanValues=false", scanParameters)) {
+            assertTrue(checkpoint.getCompletedTables().isEmpty());
+        }
+        // the file was started over for the other settings
+        assertTrue(ScanCheckpoint.readTables(file, SETTINGS, scanParameters).isEmpty());
+        assertTrue(ScanCheckpoint.readTables(file, SETTINGS + ";scanValues=false", scanParameters).isEmpty());
+    }
+
+    private Path scanCsvFiles(List<Path> csvFiles, String name, boolean checkpoint) throws IOException {
+        SourceDataScan sourceDataScan = ScanTestUtils.createSourceDataScan();
+        sourceDataScan.setCheckpoint(checkpoint);
+        DbSettings dbSettings = new DbSettings();
+        dbSettings.sourceType = DbSettings.SourceType.CSV_FILES;
+        dbSettings.dbType = DbType.DELIMITED_TEXT_FILES;
+        dbSettings.delimiter = ',';
+        for (Path csvFile : csvFiles) {
+            dbSettings.tables.add(csvFile.toString());
+        }
+        Path report = tempDir.resolve(name + ".xlsx");
+        sourceDataScan.process(dbSettings, report.toString());
+        if (checkpoint) {
+            // only the table that was not completed by the interrupted scan is scanned
+            assertEquals(30, sourceDataScan.getScanMetrics().getRowsProcessed());
+        }
+        return report;
+    }
+
+    @Test
+    void testResumedScanMatchesScan() throws IOException, URISyntaxException {
+        Path costCsv = tempDir.resolve("cost.csv");
+        Path personCsv = tempDir.resolve("person.csv");
+        Files.copy(getResource("scan_data/cost-header.csv"), costCsv);
+        List<Path> csvFiles = Arrays.asList(costCsv, personCsv);
+
+        // The scan stops at the person table, as the file is missing
+        assertThrows(RuntimeException.class, () -> scanCsvFiles(csvFiles, "resumed", true));
+        Path checkpointFile = tempDir.resolve("resumed.xlsx.checkpoint");
+        assertTrue(Files.exists(checkpointFile));
+
+        Files.copy(getResource("scan_data/person-header.csv"), personCsv);
+        Path resumedReport = scanCsvFiles(csvFiles, "resumed", true);
+        assertFalse(Files.exists(checkpointFile));
+
+        Path report = scanCsvFiles(csvFiles, "full", false);
+        assertTrue(ScanTestUtils.scanReportsMatch(resumedReport, report));
+    }
+
+    private static Path getResource(String resource) throws URISyntaxException {
+        return Paths.get(TestScanCheckpoint.class.getClassLoader().getResource(resource).toURI());
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ohdsi.databases.configuration.DbSettings;
+import org.ohdsi.databases.configuration.DbType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scans a delimited text file in chunks on multiple threads, and checks that this gives the same scan report as
+ * scanning the file in one go. The chunks are small, so that many chunk boundaries fall near quoted values with
+ * line breaks in them.
+ */
+class TestSourceDataScanCsvChunks {
+    private static final long CHUNK_SIZE = 4096;
+    private static final int ROWS = 5000;
+
+    @TempDir
+    static Path tempDir;
+
+    private static Path csvFile;
+
+    @BeforeAll
+    static void createCsvFile() throws IOException {
+        csvFile = tempDir.resolve("note.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("note_id,person_id,note_type,note_text,amount\n");
+            for (int i = 0; i < ROWS; i++) {
+                String text;
+                switch (i % 4) {
+                    case 0:
+                        text = "\"first line of note " + i + "\nsecond line, with a comma\"";
+                        break;
+                    case 1:
+                        text = "\"a \"\"quoted\"\" word\r\nand a line break\"";
+                        break;
+                    case 2:
+                        text = "\"no line break, " + (i % 50) + "\"";
+                        break;
+                    default:
+                        text = "";
+                }
+                writer.write((i + 1) + "," + (i % 300 + 1) + ",T" + (i % 7) + "," + text + "," + (i % 1000) / 10.0 + "\n");
+            }
+        }
+        assertTrue(Files.size(csvFile) > 20 * CHUNK_SIZE);
+    }
+
+    private static Path scan(String name, Consumer<SourceDataScan> settings) throws IOException {
+        SourceDataScan sourceDataScan = ScanTestUtils.createSourceDataScan();
+        sourceDataScan.setSampleSize(-1);
+        sourceDataScan.setCsvChunkSize(CHUNK_SIZE);
+        settings.accept(sourceDataScan);
+
+        DbSettings dbSettings = new DbSettings();
+        dbSettings.sourceType = DbSettings.SourceType.CSV_FILES;
+        dbSettings.dbType = DbType.DELIMITED_TEXT_FILES;
+        dbSettings.delimiter = ',';
+        dbSettings.tables.add(csvFile.toString());
+        Path report = tempDir.resolve(name + ".xlsx");
+        sourceDataScan.process(dbSettings, report.toString());
+        return report;
+    }
+
+    @Test
+    void testChunkedScanMatchesSerialScan() throws IOException {
+        Path serialReport = scan("serial", sourceDataScan -> {});
+        Path chunkedReport = scan("chunked", sourceDataScan -> sourceDataScan.setThreads(4));
+        assertTrue(ScanTestUtils.scanReportsMatch(chunkedReport, serialReport));
+    }
+
+    @Test
+    void testChunkedSampleMatchesSerialSample() throws IOException {
+        Path serialReport = scan("serial-sample", sourceDataScan -> sourceDataScan.setSampleSize(3000));
+        Path chunkedReport = scan("chunked-sample", sourceDataScan -> {
+            sourceDataScan.setSampleSize(3000);
+            sourceDataScan.setThreads(4);
+        });
+        assertTrue(ScanTestUtils.scanReportsMatch(chunkedReport, serialReport));
+    }
+
+    @Test
+    void testChunkedMappedScanMatchesSerialMappedScan() throws IOException {
+        // The mapped reader reads a quoted value with line breaks as a single value
+        Path serialReport = scan("serial-mapped", sourceDataScan -> sourceDataScan.setMappedCsvReader(true));
+        Path chunkedReport = scan("chunked-mapped", sourceDataScan -> {
+            sourceDataScan.setMappedCsvReader(true);
+            sourceDataScan.setThreads(4);
+        });
+        assertTrue(ScanTestUtils.scanReportsMatch(chunkedReport, serialReport));
+    }
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2023 Observational Health Data Sciences and Informatics & The Hyve
+ *
+ * This file is part of WhiteRabbit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.ohdsi.whiterabbit.scan;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ohdsi.databases.DBConnection;
+import org.ohdsi.databases.RichConnection;
+import org.ohdsi.databases.configuration.DbSettings;
+import org.ohdsi.databases.configuration.DbType;
+import org.ohdsi.utilities.ScanSheetName;
+
+import java.awt.Font;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Scans an in-memory HSQLDB database, in its MySQL mode, with the different scan settings for databases, and checks
+ * that each of them gives the same scan report as a sequential scan.
+ */
+class TestSourceDataScanInMemoryDatabase {
+    private static final String URL = "jdbc:hsqldb:mem:scan;sql.syntax_mys=true";
+    private static final List<String> TABLES = Arrays.asList("COST", "PERSON", "VISIT");
+    private static final int VISIT_ROWS = 250000;
+
+    @TempDir
+    static Path tempDir;
+
+    // Keeps the in-memory database open
+    private static Connection connection;
+    private static Path sequentialReport;
+
+    @BeforeAll
+    static void createDatabase() throws SQLException, IOException, URISyntaxException {
+        connection = DriverManager.getConnection(URL, "SA", "");
+        loadCsvFile("PERSON", "scan_data/person-header.csv");
+        loadCsvFile("COST", "scan_data/cost-header.csv");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE VISIT (visit_id INTEGER, person_id INTEGER, visit_concept_id INTEGER, " +
+                    "visit_start_date DATE, visit_source_value VARCHAR(20), note VARCHAR(100))");
+        }
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO VISIT VALUES (?, ?, ?, ?, ?, ?)")) {
+            LocalDate start = LocalDate.of(2000, 1, 1);
+            for (int i = 0; i < VISIT_ROWS; i++) {
+                statement.setInt(1, i + 1);
+                statement.setInt(2, i % 1000 + 1);
+                statement.setInt(3, 9201 + (i * 7 % 11) % 3);
+                statement.setDate(4, Date.valueOf(start.plusDays(i % 3650)));
+                // more distinct values than are listed in the report
+                statement.setString(5, "V" + (i * 7919L % 5000));
+                statement.setString(6, i % 10 == 0 ? null : "visit " + i + " of person " + (i % 1000 + 1));
+                statement.addBatch();
+                if (i % 10000 == 9999 || i == VISIT_ROWS - 1) {
+                    statement.executeBatch();
+                }
+            }
+        }
+        sequentialReport = scan("sequential", TABLES, sourceDataScan -> {});
+    }
+
+    @AfterAll
+    static void dropDatabase() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        connection.close();
+    }
+
+    private static void loadCsvFile(String table, String resource) throws IOException, URISyntaxException, SQLException {
+        Path csvFile = Paths.get(TestSourceDataScanInMemoryDatabase.class.getClassLoader().getResource(resource).toURI());
+        List<String> lines = Files.readAllLines(csvFile, StandardCharsets.UTF_8);
+        String[] columns = lines.get(0).split(",");
+        StringBuilder create = new StringBuilder("CREATE TABLE " + table + " (");
+        StringBuilder insert = new StringBuilder("INSERT INTO " + table + " VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            create.append(i == 0 ? "" : ", ").append(columns[i]).append(" VARCHAR(100)");
+            insert.append(i == 0 ? "?" : ", ?");
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(create + ")");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(insert + ")")) {
+            for (String line : lines.subList(1, lines.size())) {
+                String[] values = line.split(",", -1);
+                for (int i = 0; i < columns.length; i++) {
+                    statement.setString(i + 1, values[i].isEmpty() ? null : values[i]);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Scans all rows of the tables, with the settings applied to the scan.
+     * @return the path of the scan report
+     */
+    private static Path scan(String name, List<String> tables, Consumer<SourceDataScan> settings) throws IOException {
+        SourceDataScan sourceDataScan = ScanTestUtils.createSourceDataScan();
+        sourceDataScan.setSampleSize(-1);
+        sourceDataScan.setConnectionFactory(dbSettings -> {
+            try {
+                return new RichConnection(new DBConnection(DriverManager.getConnection(URL, "SA", ""), DbType.MYSQL, false), DbType.MYSQL);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        settings.accept(sourceDataScan);
+
+        DbSettings dbSettings = new DbSettings();
+        dbSettings.sourceType = DbSettings.SourceType.DATABASE;
+        dbSettings.dbType = DbType.MYSQL;
+        dbSettings.database = "PUBLIC";
+        dbSettings.tables.addAll(tables);
+        Path report = tempDir.resolve(name + ".xlsx");
+        sourceDataScan.process(dbSettings, report.toString());
+        return report;
+    }
+
+    @Test
+    void testParallelScanMatchesSequentialScan() throws IOException {
+        Path report = scan("parallel", TABLES, sourceDataScan -> sourceDataScan.setThreads(3));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+    }
+
+    @Test
+    void testPartitionedScanMatchesSequentialScan() throws IOException {
+        // VISIT is split into 2 partitions, which share the connections with the other tables
+        Path report = scan("partitioned", TABLES, sourceDataScan -> {
+            sourceDataScan.setThreads(2);
+            sourceDataScan.setTablePartitions(4);
+        });
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+        report = scan("partitioned-table", Collections.singletonList("VISIT"), sourceDataScan -> {
+            sourceDataScan.setThreads(3);
+            sourceDataScan.setTablePartitions(4);
+        });
+        Path sequentialTableReport = scan("sequential-table", Collections.singletonList("VISIT"), sourceDataScan -> {});
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialTableReport));
+    }
+
+    @Test
+    void testColumnShardedScanMatchesSequentialScan() throws IOException {
+        Path report = scan("sharded", TABLES, sourceDataScan -> sourceDataScan.setColumnThreads(3));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+    }
+
+    @Test
+    void testPipelinedScanMatchesSequentialScan() throws IOException {
+        Path report = scan("pipelined", TABLES, sourceDataScan -> sourceDataScan.setPipeline(true));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+        report = scan("pipelined-sharded", TABLES, sourceDataScan -> {
+            sourceDataScan.setPipeline(true);
+            sourceDataScan.setColumnThreads(3);
+        });
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+    }
+
+    @Test
+    void testPipelinedScanStopsAtSampleSize() throws IOException {
+        // The sample is so close to the row count that all rows pass the random filter, so the first rows are sampled
+        int sampleSize = VISIT_ROWS - 1000;
+        List<String> tables = Collections.singletonList("VISIT");
+        Path report = scan("pipelined-sample", tables, sourceDataScan -> {
+            sourceDataScan.setSampleSize(sampleSize);
+            sourceDataScan.setPipeline(true);
+        });
+        Path sequentialSampleReport = scan("sequential-sample", tables, sourceDataScan -> sourceDataScan.setSampleSize(sampleSize));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialSampleReport));
+        assertEquals(sampleSize, getRowsChecked(report));
+    }
+
+    @Test
+    void testPipelinedScanOfFailingQuery() throws IOException, SQLException {
+        // Selecting the rows of this view fails on a division by zero, counting them does not
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE VIEW BROKEN AS SELECT visit_id, 1 / (visit_id - 100) AS ratio FROM VISIT");
+        }
+        List<String> tables = Arrays.asList("BROKEN", "PERSON");
+        Path report = assertTimeoutPreemptively(Duration.ofMinutes(1), () -> scan("pipelined-broken", tables, sourceDataScan -> {
+            sourceDataScan.setPipeline(true);
+            sourceDataScan.setColumnThreads(2);
+        }));
+        Path sequentialBrokenReport = scan("sequential-broken", tables, sourceDataScan -> {});
+        // The failing table is reported without values, the other table as usual
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialBrokenReport));
+        assertEquals(0, getRowsChecked(report));
+    }
+
+    @Test
+    void testIncrementalScanMatchesSequentialScan() throws IOException, SQLException {
+        // The report and the scan state of both scans have the same name
+        scan("incremental", TABLES, sourceDataScan -> sourceDataScan.setIncremental(true));
+        Path report = scan("incremental", TABLES, sourceDataScan -> sourceDataScan.setIncremental(true));
+        assertEquals(TABLES, getReusedTables(report));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+
+        // A table with more rows is scanned again
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE NOTE (note_id INTEGER, note_text VARCHAR(100))");
+            statement.execute("INSERT INTO NOTE VALUES (1, 'first'), (2, 'second')");
+        }
+        List<String> tables = Arrays.asList("COST", "NOTE");
+        scan("incremental-changed", tables, sourceDataScan -> sourceDataScan.setIncremental(true));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO NOTE VALUES (3, 'third')");
+        }
+        report = scan("incremental-changed", tables, sourceDataScan -> sourceDataScan.setIncremental(true));
+        assertEquals(Collections.singletonList("COST"), getReusedTables(report));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, scan("sequential-changed", tables, sourceDataScan -> {})));
+    }
+
+    @Test
+    void testStreamingReportMatchesSequentialScan() throws IOException {
+        // The sheets of a streaming workbook measure the width of the default font, which needs the AWT libraries
+        assumeTrue(isFontAvailable(), "fonts are not available");
+        Path report = scan("streaming", TABLES, sourceDataScan -> sourceDataScan.setStreamingReport(true));
+        assertTrue(ScanTestUtils.scanReportsMatch(report, sequentialReport));
+    }
+
+    private static boolean isFontAvailable() {
+        try {
+            new Font(Font.SANS_SERIF, Font.PLAIN, 10).getFontName();
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static long getRowsChecked(Path report) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(Files.newInputStream(report))) {
+            // the first table of the report
+            return (long) workbook.getSheet(ScanSheetName.TABLE_OVERVIEW).getRow(1).getCell(3).getNumericCellValue();
+        }
+    }
+
+    private static List<String> getReusedTables(Path report) throws IOException {
+        List<String> tables = new ArrayList<>();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(Files.newInputStream(report))) {
+            for (Row row : workbook.getSheet("_")) {
+                Cell cell = row.getCell(0);
+                if (cell != null && cell.getCellType() == CellType.STRING && cell.getStringCellValue().equals("reusedTable")) {
+                    tables.add(row.getCell(1).getStringCellValue());
+                }
+            }
+        }
+        return tables;
+    }
+}